@@ -0,0 +1,525 @@
+package bench;
+
+import bl.AccountService;
+import com.google.gson.Gson;
+import dal.Account;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many account operations per second {@link AccountService} handles when many clients use it at once.
+ * Every client runs on a virtual thread of this process and repeatedly picks an operation from a weighted mix:
+ * checking a username, checking a password, registering, adding a record, deleting its own account and saving.
+ * The service works on a database of its own in a fresh directory, filled with the requested number of accounts
+ * before the clients start, so the game's accounts are never touched.
+ * <p>
+ * Each run prints the throughput, the latency percentiles of every operation, the bytes read and written by the
+ * process, the size of the account file, how much the heap grew and the hits and misses of the resident account
+ * cache. The clients keep a model of what the database must hold; after the run the file is read by a second
+ * service and compared against the model.
+ * <p>
+ * Usage: {@code AccountLoadTest [users] [clients] [seconds] [mix] [runs] [directory]}, where the mix lists weights
+ * such as {@code exists=30,login=40,register=10,record=15,delete=1,save=4}. Exits with status 1 if a client got a
+ * wrong answer or the database does not match the model.
+ */
+public class AccountLoadTest {
+    // Names of the operations, indexed like the weights of the mix
+    private static final String[] OPERATIONS = {"exists", "login", "register", "record", "delete", "save"};
+    // Index of the username check
+    private static final int EXISTS = 0;
+    // Index of the password check
+    private static final int LOGIN = 1;
+    // Index of the registration of a new account
+    private static final int REGISTER = 2;
+    // Index of adding a record to an account
+    private static final int RECORD = 3;
+    // Index of a client deleting an account it registered
+    private static final int DELETE = 4;
+    // Index of saving the accounts
+    private static final int SAVE = 5;
+    // Default weights of the operations
+    private static final String DEFAULT_MIX = "exists=30,login=40,register=10,record=15,delete=1,save=4";
+    // Percentiles reported for every operation
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    // Sub-buckets per power of two of the latency histograms, giving 12.5% precision
+    private static final int SUB_BUCKETS = 8;
+    // Number of buckets of a latency histogram, enough for any latency in nanoseconds
+    private static final int BUCKETS = 2 * SUB_BUCKETS + (63 - 4) * SUB_BUCKETS;
+    // Number of existing accounts whose password is checked by the verifying service
+    private static final int PASSWORD_SAMPLES = 100;
+
+    // Number of accounts in the database before the clients start
+    private final int users;
+    // Number of concurrent clients
+    private final int clients;
+    // Length of a run in seconds
+    private final int seconds;
+    // Cumulative weights of the operations
+    private final int[] cumulativeWeights = new int[OPERATIONS.length];
+    // Service under test
+    private AccountService service;
+    // Number of the next registered account
+    private final AtomicLong nextRegistration = new AtomicLong();
+    // Records every account is expected to hold, for accounts that got any
+    private final Map<String, Set<Integer>> expectedRecords = new ConcurrentHashMap<>();
+    // Usernames registered by clients and not deleted
+    private final Set<String> registered = ConcurrentHashMap.newKeySet();
+    // Usernames deleted by clients
+    private final Set<String> deleted = ConcurrentHashMap.newKeySet();
+    // Number of wrong answers clients got
+    private final AtomicLong wrongAnswers = new AtomicLong();
+
+    /**
+     * Constructor for creating a new AccountLoadTest.
+     *
+     * @param users The number of accounts in the database before the clients start.
+     * @param clients The number of concurrent clients.
+     * @param seconds The length of a run in seconds.
+     * @param mix The weights of the operations, as name=weight pairs separated by commas.
+     * @throws IllegalArgumentException If the mix names an unknown operation or has no positive weight.
+     */
+    public AccountLoadTest(int users, int clients, int seconds, String mix) {
+        this.users = users;
+        this.clients = clients;
+        this.seconds = seconds;
+        int[] weights = new int[OPERATIONS.length];
+        for (String pair : mix.split(",")) {
+            String[] parts = pair.split("=");
+            int operation = List.of(OPERATIONS).indexOf(parts[0].trim());
+            if (operation < 0 || parts.length != 2) {
+                throw new IllegalArgumentException("unknown operation in mix: " + pair);
+            }
+            weights[operation] = Math.max(0, Integer.parseInt(parts[1].trim()));
+        }
+        int total = 0;
+        for (int operation = 0; operation < weights.length; operation++) {
+            total += weights[operation];
+            cumulativeWeights[operation] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("mix has no positive weight");
+        }
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args The number of users, clients, seconds, the mix, the number of runs and the base directory.
+     * @throws Exception If a run cannot be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String mix = args.length > 3 ? args[3] : DEFAULT_MIX;
+        int runs = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        Path base = args.length > 5 ? Path.of(args[5]) : Path.of(System.getProperty("java.io.tmpdir"));
+
+        boolean isCorrect = true;
+        for (int run = 1; run <= runs; run++) {
+            System.out.printf("run=%d%n", run);
+            Path directory = Files.createTempDirectory(Files.createDirectories(base), "accounts");
+            try {
+                isCorrect &= new AccountLoadTest(users, clients, seconds, mix).run(directory);
+            } finally {
+                deleteDirectory(directory);
+            }
+        }
+        if (!isCorrect) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Fills a fresh database, lets the clients loose on it, prints the measurements and checks the result.
+     *
+     * @param directory The empty directory the database is created in.
+     * @return true if every answer was right and the database matches the model, false otherwise.
+     * @throws Exception If the database cannot be created or read.
+     */
+    public boolean run(Path directory) throws Exception {
+        long start = System.nanoTime();
+        writeAccounts(directory.resolve("users.json"));
+        System.out.printf("users=%d%n", users);
+        System.out.printf("populate.millis=%d%n", (System.nanoTime() - start) / 1_000_000);
+        start = System.nanoTime();
+        service = AccountService.open(directory);
+        System.out.printf("index.millis=%d%n", (System.nanoTime() - start) / 1_000_000);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeap(memory);
+        long[] ioBefore = readProcessIo();
+
+        long[][] histograms = new long[OPERATIONS.length][BUCKETS];
+        long[] maxima = new long[OPERATIONS.length];
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<long[][]>> results = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                results.add(executor.submit(() -> runClient(deadline)));
+            }
+            for (Future<long[][]> result : results) {
+                long[][] clientHistograms = result.get();
+                for (int operation = 0; operation < OPERATIONS.length; operation++) {
+                    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                        histograms[operation][bucket] += clientHistograms[operation][bucket];
+                    }
+                    maxima[operation] = Math.max(maxima[operation], clientHistograms[operation][BUCKETS]);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        service.arrayListToJsonFile();
+
+        long[] ioAfter = readProcessIo();
+        long heapAfter = usedHeap(memory);
+        report(histograms, maxima, elapsed);
+        System.out.printf("io.readBytes=%d%n", ioBefore == null ? -1 : ioAfter[0] - ioBefore[0]);
+        System.out.printf("io.writtenBytes=%d%n", ioBefore == null ? -1 : ioAfter[1] - ioBefore[1]);
+        System.out.printf("file.bytes=%d%n", Files.size(directory.resolve("users.json")));
+        System.out.printf("heap.beforeBytes=%d%n", heapBefore);
+        System.out.printf("heap.growthBytes=%d%n", heapAfter - heapBefore);
+        System.out.printf("cache.hits=%d%n", service.getCacheHits());
+        System.out.printf("cache.misses=%d%n", service.getCacheMisses());
+        System.out.printf("cache.evictions=%d%n", service.getEvictions());
+        System.out.printf("cache.writeBacks=%d%n", service.getWriteBacks());
+        System.out.printf("cache.residents=%d%n", service.getResidentCount());
+        System.out.printf("wrongAnswers=%d%n", wrongAnswers.get());
+
+        List<String> problems = verify(AccountService.open(directory));
+        for (String problem : problems.subList(0, Math.min(problems.size(), 10))) {
+            System.out.printf("problem: %s%n", problem);
+        }
+        System.out.printf("integrity=%s%n", problems.isEmpty() ? "ok" : "FAILED (" + problems.size() + ")");
+        return problems.isEmpty() && wrongAnswers.get() == 0;
+    }
+
+    /**
+     * Writes the accounts the database is filled with straight into an account file, one account per line like
+     * the service writes them. Adding them through the service would write back the file every time the resident
+     * set fills up with new accounts.
+     *
+     * @param file The account file.
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    private void writeAccounts(Path file) throws IOException {
+        Gson gson = new Gson();
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("[\n");
+            for (int user = 0; user < users; user++) {
+                if (user > 0) {
+                    writer.write(",\n");
+                }
+                gson.toJson(new Account(username(user), password(user)), writer);
+            }
+            writer.write("\n]\n");
+        }
+    }
+
+    /**
+     * Runs one client until the deadline, timing every operation.
+     *
+     * @param deadline The value of System.nanoTime() the client stops at.
+     * @return The latency histogram of every operation, with the maximum latency in an extra last bucket.
+     * @throws IOException If an account cannot be deleted.
+     */
+    private long[][] runClient(long deadline) throws IOException {
+        long[][] histograms = new long[OPERATIONS.length][BUCKETS + 1];
+        // accounts this client registered and may delete, no other client touches them
+        List<Account> ownAccounts = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = System.nanoTime();
+        while (now < deadline) {
+            int operation = pickOperation(random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]));
+            if (operation == DELETE && ownAccounts.isEmpty()) {
+                operation = REGISTER;
+            }
+            long begin = now;
+            switch (operation) {
+                case EXISTS -> {
+                    boolean isKnown = random.nextInt(10) != 0;
+                    String name = isKnown ? username(random.nextInt(users)) : "ghost" + random.nextInt(users);
+                    if (service.isUsernameExistInDb(name) != isKnown) {
+                        wrongAnswers.incrementAndGet();
+                    }
+                }
+                case LOGIN -> {
+                    int user = random.nextInt(users);
+                    if (!service.isPassCorrectForCurrentUser(username(user), password(user))) {
+                        wrongAnswers.incrementAndGet();
+                    }
+                }
+                case REGISTER -> {
+                    String name = "new" + nextRegistration.getAndIncrement();
+                    Account account = new Account(name, "secret");
+                    registered.add(name);
+                    service.addAccount(account);
+                    ownAccounts.add(account);
+                }
+                case RECORD -> {
+                    String name = username(random.nextInt(users));
+                    int record = random.nextInt(1, 1_000_000);
+                    service.addRecord(service.getAccountByUserName(name), record);
+                    expectedRecords.computeIfAbsent(name, key -> ConcurrentHashMap.newKeySet()).add(record);
+                }
+                case DELETE -> {
+                    Account account = ownAccounts.remove(ownAccounts.size() - 1);
+                    registered.remove(account.getUserName());
+                    deleted.add(account.getUserName());
+                    service.deleteAccount(account);
+                }
+                case SAVE -> service.arrayListToJsonFile();
+                default -> throw new IllegalStateException("unknown operation " + operation);
+            }
+            now = System.nanoTime();
+            long latency = now - begin;
+            histograms[operation][bucketOf(latency)]++;
+            histograms[operation][BUCKETS] = Math.max(histograms[operation][BUCKETS], latency);
+        }
+        return histograms;
+    }
+
+    /**
+     * Picks the operation a random number falls on in the mix.
+     *
+     * @param value A random number below the total weight.
+     * @return The index of the operation.
+     */
+    private int pickOperation(int value) {
+        int operation = 0;
+        while (value >= cumulativeWeights[operation]) {
+            operation++;
+        }
+        return operation;
+    }
+
+    /**
+     * Compares a freshly read database with what the clients did.
+     *
+     * @param reader A service that read the database after the run.
+     * @return A description of every difference, empty if the database is intact.
+     * @throws IOException If the database cannot be read.
+     */
+    private List<String> verify(AccountService reader) throws IOException {
+        List<String> problems = new ArrayList<>();
+        Map<String, Account> byName = new HashMap<>();
+        Set<Object> ids = new HashSet<>();
+        reader.forEachAccount(account -> {
+            if (byName.put(account.getUserName(), account) != null) {
+                problems.add("duplicate username " + account.getUserName());
+            }
+            if (!ids.add(account.getId())) {
+                problems.add("duplicate id " + account.getId());
+            }
+        });
+        if (byName.size() != users + registered.size()) {
+            problems.add("expected " + (users + registered.size()) + " accounts, found " + byName.size());
+        }
+        for (int user = 0; user < users; user++) {
+            Account account = byName.get(username(user));
+            if (account == null) {
+                problems.add("missing " + username(user));
+                continue;
+            }
+            Set<Integer> expected = expectedRecords.getOrDefault(username(user), Set.of());
+            if (!account.getRecords().equals(expected)) {
+                problems.add("records of " + username(user) + " are " + account.getRecords() + ", expected "
+                    + new TreeSet<>(expected));
+            }
+        }
+        for (String name : registered) {
+            if (!byName.containsKey(name)) {
+                problems.add("missing registered " + name);
+            }
+        }
+        for (String name : deleted) {
+            if (byName.containsKey(name)) {
+                problems.add("deleted " + name + " is still stored");
+            }
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int sample = 0; sample < Math.min(users, PASSWORD_SAMPLES); sample++) {
+            int user = random.nextInt(users);
+            if (!reader.isPassCorrectForCurrentUser(username(user), password(user))) {
+                problems.add("password of " + username(user) + " does not match");
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Prints the throughput and the latency percentiles of every operation that ran.
+     *
+     * @param histograms The merged latency histograms of every operation.
+     * @param maxima The maximum latency of every operation in nanoseconds.
+     * @param elapsed The length of the run in nanoseconds.
+     */
+    private void report(long[][] histograms, long[] maxima, long elapsed) {
+        long total = 0;
+        for (int operation = 0; operation < OPERATIONS.length; operation++) {
+            long count = 0;
+            for (long bucketCount : histograms[operation]) {
+                count += bucketCount;
+            }
+            total += count;
+            if (count == 0) {
+                continue;
+            }
+            String name = OPERATIONS[operation];
+            System.out.printf("op.%s.count=%d%n", name, count);
+            System.out.printf("op.%s.perSecond=%d%n", name, count * 1_000_000_000L / elapsed);
+            for (double percentile : PERCENTILES) {
+                System.out.printf("op.%s.p%s.micros=%d%n", name,
+                    percentile == (int) percentile ? String.valueOf((int) percentile) : String.valueOf(percentile),
+                    Math.min(percentileOf(histograms[operation], count, percentile), maxima[operation]) / 1000);
+            }
+            System.out.printf("op.%s.max.micros=%d%n", name, maxima[operation] / 1000);
+        }
+        System.out.printf("clients=%d%n", clients);
+        System.out.printf("seconds=%.1f%n", elapsed / 1e9);
+        System.out.printf("throughput.perSecond=%d%n", total * 1_000_000_000L / elapsed);
+    }
+
+    /**
+     * Gets the latency below which a share of the operations finished.
+     *
+     * @param histogram The latency histogram of the operation.
+     * @param count The number of operations in the histogram.
+     * @param percentile The share in percent.
+     * @return The upper bound of the bucket the percentile falls in, in nanoseconds.
+     */
+    private static long percentileOf(long[] histogram, long count, double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank) {
+                return upperBoundOf(bucket);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * Gets the histogram bucket of a latency. Latencies below 16 ns get a bucket each, longer ones share a bucket
+     * with latencies at most 12.5% apart.
+     *
+     * @param nanos The latency in nanoseconds.
+     * @return The index of the bucket.
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return 2 * SUB_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the largest latency falling into a histogram bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return The latency in nanoseconds.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS + 4;
+        long subBucket = (bucket - 2 * SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - 3)) - 1;
+    }
+
+    /**
+     * Gets the heap used by live objects, after asking for a full collection.
+     *
+     * @param memory The memory bean of the JVM.
+     * @return The used heap in bytes.
+     */
+    private static long usedHeap(MemoryMXBean memory) {
+        System.gc();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Reads the number of bytes the process read and wrote through system calls so far.
+     *
+     * @return The bytes read and written, or null if the platform does not report them.
+     */
+    private static long[] readProcessIo() {
+        Path io = Path.of("/proc/self/io");
+        if (!Files.isReadable(io)) {
+            return null;
+        }
+        long[] counters = new long[2];
+        try {
+            for (String line : Files.readAllLines(io)) {
+                if (line.startsWith("rchar:")) {
+                    counters[0] = Long.parseLong(line.substring(6).trim());
+                } else if (line.startsWith("wchar:")) {
+                    counters[1] = Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+        return counters;
+    }
+
+    /**
+     * Deletes a run's directory with everything in it.
+     *
+     * @param directory The directory to delete.
+     * @throws IOException If a file cannot be deleted.
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Gets the username of an account the database is filled with.
+     *
+     * @param user The number of the account.
+     * @return The username.
+     */
+    private static String username(int user) {
+        return "user" + user;
+    }
+
+    /**
+     * Gets the password of an account the database is filled with.
+     *
+     * @param user The number of the account.
+     * @return The password.
+     */
+    private static String password(int user) {
+        return "pass" + user;
+    }
+}
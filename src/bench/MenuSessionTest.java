@@ -0,0 +1,517 @@
+package bench;
+
+import bl.AccountService;
+import bl.GameSaveService;
+import dal.Cell;
+import dal.Grid;
+import bl.GameLogic;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import org.jline.terminal.Attributes;
+import org.jline.terminal.Size;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.TerminalBuilder;
+import ui.GameMenu;
+
+/**
+ * Measures what a player feels of the whole game, from the login prompt to the frames of a running game, by driving
+ * {@link GameMenu} through a JLine terminal on in-memory piped streams.
+ * Every session starts a fresh menu whose accounts and saved games live in a directory of their own. A script types
+ * like a player would: it waits for each prompt to appear before typing the answer, registers an account, opens
+ * a game with the requested board size and speed, steers it with a number of moves and suspends it, then watches
+ * the autopilot for as long and leaves it.
+ * <p>
+ * The terminal writes everything the menu prints into a stream that time-stamps every flush, and every flush that
+ * starts with the clear-screen sequence and carries more than it is a game frame. Each session prints the time
+ * from starting the menu to its first frame, the intervals between frames against the tick length, the bytes per
+ * frame, and the keystroke-to-echo latency: the time from a key to the next output it causes, for menu keys and
+ * for moves during a game, where the echo is the next frame.
+ * <p>
+ * Usage: {@code MenuSessionTest [sessions] [width] [height] [speed] [moves] [directory]}. Exits with status 1 if a
+ * prompt the script waits for never appears.
+ */
+public class MenuSessionTest {
+    // Terminal type of the virtual terminal, one that can clear the screen and show colours
+    private static final String TERMINAL_TYPE = "xterm-256color";
+    // Width of the virtual terminal in columns
+    private static final int COLUMNS = 120;
+    // Height of the virtual terminal in rows
+    private static final int ROWS = 48;
+    // Longest wait for a prompt before the session is given up
+    private static final long PROMPT_TIMEOUT_MS = 10_000;
+    // Number of ticks between two moves of the script
+    private static final int TICKS_PER_MOVE = 3;
+    // Moves the script cycles through, walking the snake down and right in steps
+    private static final String MOVE_PATTERN = "sdwd";
+    // Escape key, which suspends a running game
+    private static final char ESCAPE = 27;
+    // Percentiles reported for every latency
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    // Width of the board
+    private final int width;
+    // Height of the board
+    private final int height;
+    // Game speed in ticks per second
+    private final int speed;
+    // Number of moves typed during the player game
+    private final int moves;
+
+    // Stream the script types into, read by the terminal
+    private PipedOutputStream keyboard;
+    // Stream capturing everything the terminal writes
+    private CaptureStream screen;
+    // Bytes of the clear-screen sequence every frame starts with
+    private byte[] clearSequence;
+    // Time the latest key was typed, 0 once its echo was seen
+    private volatile long keyTime;
+    // Flag indicating the latest key was typed during a game
+    private volatile boolean isGameKey;
+    // Latencies from a menu key to its echo, in nanoseconds
+    private final List<Long> menuEchoes = new ArrayList<>();
+    // Latencies from a move to the next frame, in nanoseconds
+    private final List<Long> gameEchoes = new ArrayList<>();
+
+    /**
+     * Constructor for creating a new MenuSessionTest.
+     *
+     * @param width The width of the board.
+     * @param height The height of the board.
+     * @param speed The game speed in ticks per second.
+     * @param moves The number of moves typed during the player game.
+     */
+    public MenuSessionTest(int width, int height, int speed, int moves) {
+        this.width = width;
+        this.height = height;
+        this.speed = speed;
+        this.moves = moves;
+    }
+
+    /**
+     * Runs the sessions.
+     *
+     * @param args The number of sessions, the board width and height, the game speed, the number of moves and the
+     *             base directory.
+     * @throws Exception If a session cannot be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int speed = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        int moves = args.length > 4 ? Integer.parseInt(args[4]) : 40;
+        Path base = args.length > 5 ? Path.of(args[5]) : Path.of(System.getProperty("java.io.tmpdir"));
+
+        boolean isComplete = true;
+        for (int session = 1; session <= sessions; session++) {
+            System.out.printf("session=%d%n", session);
+            Path directory = Files.createTempDirectory(base, "menu-session-");
+            try {
+                new MenuSessionTest(width, height, speed, moves).run(directory);
+            } catch (TimeoutException ex) {
+                System.out.println("result=FAIL " + ex.getMessage());
+                isComplete = false;
+            } finally {
+                deleteDirectory(directory);
+            }
+        }
+        // the menus wait for input on daemon threads that only end with the process
+        System.exit(isComplete ? 0 : 1);
+    }
+
+    /**
+     * Runs one session and prints its measurements.
+     *
+     * @param directory The directory of the session's accounts and saved games.
+     * @throws Exception If the session cannot be set up.
+     * @throws TimeoutException If a prompt the script waits for does not appear in time.
+     */
+    private void run(Path directory) throws Exception {
+        PipedInputStream keys = new PipedInputStream(1 << 12);
+        keyboard = new PipedOutputStream(keys);
+        screen = new CaptureStream();
+        Terminal terminal = TerminalBuilder.builder()
+            .system(false)
+            .streams(keys, screen)
+            .type(TERMINAL_TYPE)
+            .size(new Size(COLUMNS, ROWS))
+            .encoding(StandardCharsets.UTF_8)
+            .build();
+        // the menu draws everything itself; a terminal echoing keys would answer them before the menu does
+        Attributes attributes = terminal.getAttributes();
+        attributes.setLocalFlag(Attributes.LocalFlag.ECHO, false);
+        terminal.setAttributes(attributes);
+        clearSequence = clearSequence(terminal);
+
+        long start = System.nanoTime();
+        Grid grid = new Grid(2, 2);
+        GameMenu menu = new GameMenu(new GameLogic(grid, new Cell(grid)), terminal,
+            AccountService.open(directory.resolve("accounts")), new GameSaveService(directory.resolve("saves")));
+        Thread menuThread = new Thread(() -> {
+            try {
+                menu.displayMenu();
+            } catch (Exception ex) {
+                // the session is over once the script stops typing
+            }
+        }, "menu");
+        menuThread.setDaemon(true);
+        menuThread.start();
+
+        expect("Provide your username:");
+        type("player1\n");
+        expect("Provide password for new user:");
+        type("secret1\n");
+        expect("Click any button.");
+        type(" ");
+        expect("1. Play");
+
+        // a game steered by the script
+        int playerStart = screen.getFrameCount();
+        type("1");
+        answerPreferences();
+        screen.awaitFrame(playerStart);
+        long firstFrame = screen.getFrameTime(playerStart);
+        long tickMillis = 1000L / Math.max(1, speed);
+        for (int move = 0; move < moves && !isGameOver(); move++) {
+            Thread.sleep(tickMillis * TICKS_PER_MOVE);
+            isGameKey = true;
+            type(String.valueOf(MOVE_PATTERN.charAt(move % MOVE_PATTERN.length())));
+        }
+        leaveGame();
+        int playerEnd = screen.getFrameCount();
+
+        // a game steered by the autopilot, watched as long as the player game lasted
+        type("6");
+        answerPreferences();
+        int autopilotStart = screen.getFrameCount();
+        screen.awaitFrame(autopilotStart);
+        Thread.sleep(tickMillis * TICKS_PER_MOVE * moves);
+        leaveGame();
+        int autopilotEnd = screen.getFrameCount();
+        terminal.close();
+
+        System.out.printf("startupToFirstFrameMillis=%d%n", (firstFrame - start) / 1_000_000);
+        report("player", playerStart, playerEnd);
+        report("autopilot", autopilotStart, autopilotEnd);
+        System.out.printf("tickMillis=%d%n", tickMillis);
+        printPercentiles("menuKeyToEchoMicros", menuEchoes);
+        printPercentiles("moveToFrameMicros", gameEchoes);
+    }
+
+    /**
+     * Answers the prompts for the board width, height and game speed.
+     *
+     * @throws Exception If typing fails or a prompt does not appear in time.
+     */
+    private void answerPreferences() throws Exception {
+        expect("provide width length for grid:");
+        type(width + "\n");
+        expect("provide height for grid:");
+        type(height + "\n");
+        expect("provide game speed");
+        type(speed + "\n");
+    }
+
+    /**
+     * Leaves the running game and returns to the menu: suspends it if it is still running and confirms the message
+     * shown either way.
+     *
+     * @throws Exception If typing fails or the menu does not appear in time.
+     */
+    private void leaveGame() throws Exception {
+        if (!isGameOver()) {
+            isGameKey = true;
+            type(String.valueOf(ESCAPE));
+        }
+        expectAny("Exiting to menu", "Press any key");
+        type(" ");
+        expect("1. Play");
+    }
+
+    /**
+     * Checks if the game ended on its own, showing the game over message.
+     *
+     * @return true if the message was printed since the last prompt the script waited for, false otherwise.
+     */
+    private boolean isGameOver() {
+        return screen.indexOfText("Press any key") >= 0;
+    }
+
+    /**
+     * Types keys into the terminal and notes the time, so the next output counts as their echo.
+     *
+     * @param keys The keys.
+     * @throws IOException If the keys cannot be written.
+     */
+    private void type(String keys) throws IOException {
+        keyTime = System.nanoTime();
+        keyboard.write(keys.getBytes(StandardCharsets.UTF_8));
+        keyboard.flush();
+    }
+
+    /**
+     * Waits until a text appears in the output after the last text waited for.
+     *
+     * @param text The text.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws TimeoutException If the text does not appear in time.
+     */
+    private void expect(String text) throws InterruptedException, TimeoutException {
+        expectAny(text, text);
+    }
+
+    /**
+     * Waits until either of two texts appears in the output after the last text waited for.
+     *
+     * @param text The first text.
+     * @param other The second text.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws TimeoutException If neither text appears in time.
+     */
+    private void expectAny(String text, String other) throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + PROMPT_TIMEOUT_MS;
+        synchronized (screen) {
+            while (true) {
+                int index = screen.indexOfText(text);
+                String found = text;
+                if (index < 0) {
+                    index = screen.indexOfText(other);
+                    found = other;
+                }
+                if (index >= 0) {
+                    screen.skipText(index + found.length());
+                    isGameKey = false;
+                    return;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException("prompt never appeared: " + text);
+                }
+                screen.wait(remaining);
+            }
+        }
+    }
+
+    /**
+     * Gets the clear-screen sequence of a terminal, as the bytes every frame starts with.
+     *
+     * @param terminal The terminal.
+     * @return The bytes of the sequence.
+     */
+    private static byte[] clearSequence(Terminal terminal) {
+        StringBuilder sb = new StringBuilder();
+        String clear = terminal.getStringCapability(org.jline.utils.InfoCmp.Capability.clear_screen);
+        if (clear != null) {
+            org.jline.utils.Curses.tputs(sb, clear);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Prints the frame measurements of one game.
+     *
+     * @param name The name of the game.
+     * @param firstFrame The index of the game's first frame.
+     * @param endFrame The index after the game's last frame.
+     */
+    private void report(String name, int firstFrame, int endFrame) {
+        List<Long> intervals = new ArrayList<>();
+        long bytes = 0;
+        long maxBytes = 0;
+        for (int frame = firstFrame; frame < endFrame; frame++) {
+            bytes += screen.getFrameBytes(frame);
+            maxBytes = Math.max(maxBytes, screen.getFrameBytes(frame));
+            if (frame > firstFrame) {
+                intervals.add(screen.getFrameTime(frame) - screen.getFrameTime(frame - 1));
+            }
+        }
+        int frames = endFrame - firstFrame;
+        System.out.printf("%sFrames=%d bytesPerFrame=%d maxBytesPerFrame=%d%n", name, frames,
+            frames == 0 ? 0 : bytes / frames, maxBytes);
+        printPercentiles(name + "FrameIntervalMicros", intervals);
+    }
+
+    /**
+     * Prints the percentiles and the maximum of latencies.
+     *
+     * @param name The name of the latencies.
+     * @param nanos The latencies in nanoseconds.
+     */
+    private static void printPercentiles(String name, List<Long> nanos) {
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        StringBuilder line = new StringBuilder(name).append(": count=").append(sorted.length);
+        if (sorted.length > 0) {
+            for (double percentile : PERCENTILES) {
+                int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile / 100 * sorted.length) - 1);
+                line.append(String.format(" p%s=%d", (int) percentile, sorted[Math.max(0, index)] / 1000));
+            }
+            line.append(" max=").append(sorted[sorted.length - 1] / 1000);
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * Deletes a session's directory with everything in it.
+     *
+     * @param directory The directory.
+     * @throws IOException If a file cannot be deleted.
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Output stream of the virtual terminal. Collects the bytes between two flushes into one piece of output,
+     * time-stamps it, and keeps the text for the script to wait on. A piece is a frame if it starts with the
+     * clear-screen sequence and holds more than that.
+     */
+    private class CaptureStream extends OutputStream {
+        // Bytes written since the last flush
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        // Text written so far that the script has not waited past yet
+        private final StringBuilder text = new StringBuilder();
+        // Time of every frame
+        private long[] frameTimes = new long[1024];
+        // Number of bytes of every frame
+        private int[] frameBytes = new int[1024];
+        // Number of frames
+        private int frameCount;
+
+        /**
+         * Collects a byte.
+         *
+         * @param b The byte.
+         */
+        @Override
+        public synchronized void write(int b) {
+            pending.write(b);
+        }
+
+        /**
+         * Collects bytes.
+         *
+         * @param bytes The bytes.
+         * @param offset The offset of the first byte.
+         * @param length The number of bytes.
+         */
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            pending.write(bytes, offset, length);
+        }
+
+        /**
+         * Ends the current piece of output, time-stamps it and wakes the script.
+         */
+        @Override
+        public synchronized void flush() {
+            if (pending.size() == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            byte[] piece = pending.toByteArray();
+            pending.reset();
+            boolean isFrame = piece.length > clearSequence.length && clearSequence.length > 0
+                && Arrays.equals(piece, 0, clearSequence.length, clearSequence, 0, clearSequence.length);
+            long typed = keyTime;
+            // the screen is cleared before every menu and game; only the output after that answers a key
+            if (typed != 0 && (isFrame || !isGameKey) && !Arrays.equals(piece, clearSequence)) {
+                (isGameKey ? gameEchoes : menuEchoes).add(now - typed);
+                keyTime = 0;
+            }
+            if (isFrame) {
+                if (frameCount == frameTimes.length) {
+                    frameTimes = Arrays.copyOf(frameTimes, frameCount * 2);
+                    frameBytes = Arrays.copyOf(frameBytes, frameCount * 2);
+                }
+                frameTimes[frameCount] = now;
+                frameBytes[frameCount] = piece.length;
+                frameCount++;
+            } else {
+                text.append(new String(piece, StandardCharsets.UTF_8));
+            }
+            notifyAll();
+        }
+
+        /**
+         * Finds a text in the output the script has not waited past yet.
+         *
+         * @param wanted The text.
+         * @return The index of the text, or -1 if it has not appeared.
+         */
+        private synchronized int indexOfText(String wanted) {
+            return text.indexOf(wanted);
+        }
+
+        /**
+         * Drops the output the script has waited past.
+         *
+         * @param length The number of characters to drop.
+         */
+        private synchronized void skipText(int length) {
+            text.delete(0, length);
+        }
+
+        /**
+         * Waits until a frame has been drawn.
+         *
+         * @param frame The index of the frame.
+         * @throws InterruptedException If interrupted while waiting.
+         * @throws TimeoutException If the frame is not drawn in time.
+         */
+        private synchronized void awaitFrame(int frame) throws InterruptedException, TimeoutException {
+            long deadline = System.currentTimeMillis() + PROMPT_TIMEOUT_MS;
+            while (frameCount <= frame) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException("no frame was drawn");
+                }
+                wait(remaining);
+            }
+        }
+
+        /**
+         * Gets the number of frames drawn so far.
+         *
+         * @return The number of frames.
+         */
+        private synchronized int getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Gets the time a frame was drawn.
+         *
+         * @param frame The index of the frame.
+         * @return The time in System.nanoTime() units.
+         */
+        private synchronized long getFrameTime(int frame) {
+            return frameTimes[frame];
+        }
+
+        /**
+         * Gets the number of bytes of a frame.
+         *
+         * @param frame The index of the frame.
+         * @return The number of bytes the terminal received for the frame.
+         */
+        private synchronized int getFrameBytes(int frame) {
+            return frameBytes[frame];
+        }
+    }
+}
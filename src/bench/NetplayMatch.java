@@ -0,0 +1,93 @@
+package bench;
+
+import bl.Arena;
+import bl.NetplaySession;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a lockstep match between two processes with both snakes steered by the arena bot, to test netplay
+ * without players. Start one process as host and one as guest, on one machine or two; with a simulated latency
+ * the bots' turns reach the other peer late and cause rollbacks. Each process prints the checksum of the last
+ * tick, which must be equal for both, and the rollback statistics.
+ * <p>
+ * Usage: {@code NetplayMatch host <port> [input delay] [latency ms] [ticks per second] [tick limit]} or
+ * {@code NetplayMatch join <host:port> [latency ms]}. The match ends when a snake dies or after the tick limit.
+ * Exits with status 1 if the simulations diverged.
+ */
+public class NetplayMatch {
+    // Width of the board
+    private static final int X_LENGTH = 40;
+    // Height of the board
+    private static final int Y_LENGTH = 20;
+    // Largest number of ticks simulated ahead of the other player
+    private static final int MAX_ROLLBACK = 16;
+    // Default number of ticks a match lasts if both snakes survive
+    private static final int DEFAULT_TICK_LIMIT = 3000;
+
+    /**
+     * Runs one peer of the match.
+     *
+     * @param args The role and its settings.
+     * @throws Exception If the match cannot be played.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: NetplayMatch host <port> [input delay] [latency ms] [ticks per second] "
+                + "[tick limit] | join <host:port> [latency ms]");
+            return;
+        }
+        boolean isHost = args[0].equals("host");
+        NetplaySession session;
+        if (isHost) {
+            int delay = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+            int latency = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            int speed = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+            int tickLimit = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_TICK_LIMIT;
+            session = NetplaySession.host(Integer.parseInt(args[1]), System.nanoTime(), X_LENGTH, Y_LENGTH, delay,
+                MAX_ROLLBACK, speed, tickLimit, latency, () -> false);
+        } else {
+            int separator = args[1].lastIndexOf(':');
+            int latency = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            session = NetplaySession.join(args[1].substring(0, separator),
+                Integer.parseInt(args[1].substring(separator + 1)), latency);
+        }
+
+        try (session) {
+            play(session);
+            Arena arena = session.getArena();
+            System.out.printf("result=%s%n", session.isWon() ? "won" : session.isLost() ? "lost" : "draw");
+            System.out.printf("ticks=%d%n", arena.getTickCount());
+            System.out.printf("checksum=%016x%n", session.getConfirmedChecksum());
+            System.out.printf("desyncTick=%d%n", session.getDesyncTick());
+            System.out.printf("rollbacks=%d%n", session.getRollbacks());
+            System.out.printf("replayedTicks=%d%n", session.getReplayedTicks());
+            System.out.printf("rollback.averageMicros=%d%n", session.getAverageRollbackNanos() / 1000);
+            System.out.printf("rollback.maxMicros=%d%n", session.getMaxRollbackNanos() / 1000);
+            System.out.printf("stalls=%d%n", session.getStalls());
+        }
+        if (session.getDesyncTick() >= 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Plays the match at the agreed speed until its result is final.
+     *
+     * @param session The connected session.
+     * @throws Exception If the connection fails.
+     */
+    private static void play(NetplaySession session) throws Exception {
+        Arena arena = session.getArena();
+        int snake = session.getLocalSnake();
+        long tickNanos = 1_000_000_000L / session.getTicksPerSecond();
+        long deadline = System.nanoTime();
+        while (!session.isFinished()) {
+            session.advance(arena.isAlive(snake) ? arena.chooseBotDirection(snake) : arena.getDirection(snake));
+            deadline += tickNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package bench;
+
+import bl.Autopilot;
+import bl.GameLogic;
+import dal.Cell;
+import dal.Direction;
+import dal.Grid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import org.jline.terminal.Terminal;
+import org.jline.terminal.TerminalBuilder;
+import ui.FrameRenderer;
+
+/**
+ * Guards the tick path against allocation and latency regressions.
+ * Plays seeded games on the largest board, steered by the autopilot, and measures every game update and every
+ * frame build separately: the bytes the thread allocated and the time taken. The autopilot's own decisions are
+ * not measured. After a warm-up the results are compared with a budget file and written to a report with one
+ * stable key per line, so reports of two commits can be diffed. Only the budget file is kept in version control;
+ * the report is generated by every run and ignored.
+ * <p>
+ * Usage: {@code TickPathGuard [budget file] [report file]}. Exits with status 1 if a budget is exceeded.
+ */
+public class TickPathGuard {
+    // Default location of the budget file
+    private static final Path DEFAULT_BUDGET = Path.of("bench", "tick-budget.properties");
+    // Default location of the report, ignored by version control
+    private static final Path DEFAULT_REPORT = Path.of("bench", "tick-report.txt");
+    // Width of the board the games are played on
+    private static final int X_LENGTH = 70;
+    // Height of the board the games are played on
+    private static final int Y_LENGTH = 30;
+    // Number of games played before measuring
+    private static final int WARMUP_GAMES = 20;
+    // Number of measured games
+    private static final int MEASURED_GAMES = 50;
+    // Maximum number of updates per game
+    private static final int MAX_TICKS_PER_GAME = 2000;
+
+    // Allocation counter of the JVM, which includes per-thread byte counts
+    private final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Id of the measuring thread
+    private final long threadId = Thread.currentThread().threadId();
+    // The board the games are played on
+    private final Grid grid = new Grid(X_LENGTH, Y_LENGTH);
+    // The game logic under test
+    private final GameLogic logic;
+    // The autopilot steering the games
+    private final Autopilot autopilot = new Autopilot(grid);
+    // The frame builder under test, drawing to a discarding terminal
+    private final FrameRenderer renderer;
+
+    // Time of every measured update
+    private final long[] tickNanos = new long[MEASURED_GAMES * MAX_TICKS_PER_GAME];
+    // Time of every measured frame
+    private final long[] frameNanos = new long[MEASURED_GAMES * MAX_TICKS_PER_GAME];
+    // Number of measured updates
+    private int ticks;
+    // Number of measured frames
+    private int frames;
+    // Bytes allocated by all measured updates
+    private long tickBytes;
+    // Bytes allocated by all measured frames
+    private long frameBytes;
+
+    /**
+     * Constructor for creating a new TickPathGuard.
+     *
+     * @param terminal The terminal the frames are drawn to.
+     * @throws Exception If the game logic cannot be initialized.
+     */
+    public TickPathGuard(Terminal terminal) throws Exception {
+        logic = new GameLogic(grid, new Cell(grid));
+        renderer = new FrameRenderer(terminal);
+    }
+
+    /**
+     * Runs the guard.
+     *
+     * @param args The optional budget file and report file.
+     * @throws Exception If the guard cannot run.
+     */
+    public static void main(String[] args) throws Exception {
+        Path budgetPath = args.length > 0 ? Path.of(args[0]) : DEFAULT_BUDGET;
+        Path reportPath = args.length > 1 ? Path.of(args[1]) : DEFAULT_REPORT;
+        Properties budget = new Properties();
+        try (Reader reader = Files.newBufferedReader(budgetPath, StandardCharsets.UTF_8)) {
+            budget.load(reader);
+        }
+
+        try (Terminal terminal = TerminalBuilder.builder()
+            .streams(InputStream.nullInputStream(), OutputStream.nullOutputStream())
+            .dumb(true)
+            .encoding(StandardCharsets.UTF_8)
+            .build()) {
+            TickPathGuard guard = new TickPathGuard(terminal);
+            for (long seed = 1; seed <= WARMUP_GAMES; seed++) {
+                guard.playGame(-seed, false);
+            }
+            for (long seed = 1; seed <= MEASURED_GAMES; seed++) {
+                guard.playGame(seed, true);
+            }
+            if (!guard.report(budget, reportPath)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Plays one seeded game until it ends or reaches the tick limit.
+     *
+     * @param seed The seed of the game.
+     * @param isMeasured true to record the updates and frames of the game.
+     * @throws IOException If a frame cannot be written.
+     */
+    private void playGame(long seed, boolean isMeasured) throws IOException {
+        grid.clear();
+        logic.reset(seed);
+        for (int tick = 0; tick < MAX_TICKS_PER_GAME && !logic.isGameLose() && !logic.isGameWon(); tick++) {
+            Direction direction = autopilot.nextDirection(logic);
+
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            logic.updateGameTable(direction);
+            long end = System.nanoTime();
+            long afterTick = threads.getThreadAllocatedBytes(threadId);
+            renderer.render(grid, logic.getSnakeLength());
+            long afterFrame = System.nanoTime();
+            long frameAllocated = threads.getThreadAllocatedBytes(threadId) - afterTick;
+
+            if (isMeasured) {
+                tickNanos[ticks++] = end - start;
+                tickBytes += afterTick - bytes;
+                frameNanos[frames++] = afterFrame - end;
+                frameBytes += frameAllocated;
+            }
+        }
+    }
+
+    /**
+     * Compares the results with the budget and writes the report.
+     *
+     * @param budget The budget, with the keys used in the report.
+     * @param reportPath The file the report is written to.
+     * @return true if every budget was met, false otherwise.
+     * @throws IOException If the report cannot be written.
+     */
+    private boolean report(Properties budget, Path reportPath) throws IOException {
+        Arrays.sort(tickNanos, 0, ticks);
+        Arrays.sort(frameNanos, 0, frames);
+        double bytesPerTick = (double) tickBytes / ticks;
+        double bytesPerFrame = (double) frameBytes / frames;
+        long tickP99 = percentile(tickNanos, ticks, 99);
+        long frameP99 = percentile(frameNanos, frames, 99);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("board=%dx%d%n", X_LENGTH, Y_LENGTH));
+        sb.append(String.format("games=%d%n", MEASURED_GAMES));
+        sb.append(String.format("ticks=%d%n", ticks));
+        sb.append(String.format("tick.allocatedBytes=%d%n", tickBytes));
+        sb.append(String.format("tick.allocatedBytesPerTick=%.2f%n", bytesPerTick));
+        sb.append(String.format("tick.p50Nanos=%d%n", percentile(tickNanos, ticks, 50)));
+        sb.append(String.format("tick.p99Nanos=%d%n", tickP99));
+        sb.append(String.format("tick.maxNanos=%d%n", tickNanos[ticks - 1]));
+        sb.append(String.format("frame.allocatedBytes=%d%n", frameBytes));
+        sb.append(String.format("frame.allocatedBytesPerFrame=%.2f%n", bytesPerFrame));
+        sb.append(String.format("frame.p50Nanos=%d%n", percentile(frameNanos, frames, 50)));
+        sb.append(String.format("frame.p99Nanos=%d%n", frameP99));
+        sb.append(String.format("frame.maxNanos=%d%n", frameNanos[frames - 1]));
+
+        StringBuilder failures = new StringBuilder();
+        check(failures, budget, "tick.allocatedBytesPerTick", bytesPerTick);
+        check(failures, budget, "tick.p99Nanos", tickP99);
+        check(failures, budget, "frame.allocatedBytesPerFrame", bytesPerFrame);
+        check(failures, budget, "frame.p99Nanos", frameP99);
+        sb.append(failures.isEmpty() ? "result=PASS\n" : "result=FAIL\n");
+
+        if (reportPath.getParent() != null) {
+            Files.createDirectories(reportPath.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+            writer.write(sb.toString());
+        }
+        System.out.print(sb);
+        System.out.print(failures);
+        return failures.isEmpty();
+    }
+
+    /**
+     * Compares a measured value with its budget, if the budget file has one, and records a failure if it is exceeded.
+     *
+     * @param failures The failures found so far.
+     * @param budget The budget.
+     * @param key The key of the value.
+     * @param value The measured value.
+     */
+    private static void check(StringBuilder failures, Properties budget, String key, double value) {
+        String limit = budget.getProperty(key);
+        if (limit != null && value > Double.parseDouble(limit)) {
+            failures.append(String.format("%s=%.4f exceeds the budget of %s%n", key, value, limit));
+        }
+    }
+
+    /**
+     * Gets a percentile of sorted values.
+     *
+     * @param sorted The values, sorted in ascending order.
+     * @param count The number of values.
+     * @param percent The percentile, between 0 and 100.
+     * @return The value below which the given percentage of values lie.
+     */
+    private static long percentile(long[] sorted, int count, int percent) {
+        return sorted[Math.min(count - 1, (int) ((long) count * percent / 100))];
+    }
+}
@@ -1,75 +1,192 @@
 package bl;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 import dal.Account;
+import dal.Score;
 import dal.exception.AccountIsNotFoundedException;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
 
 /**
  * Provides services for managing user accounts.
  * This class handles operations such as account creation, deletion, authentication, and persisting account data in a JSON file.
+ * <p>
+ * The account file may be shared by several game processes on one host. Next to it a lock file holds a version
+ * stamp that every write increments, and every account carries its own version. A process re-reads the file only
+ * when the stamp has moved, and then rebuilds only the accounts whose version changed. Saving is optimistic: the
+ * new file is written to a temporary file without any lock, and the exclusive lock is only held to check that the
+ * stamp has not moved and to rename the file into place. If another process saved in between, its changes are
+ * merged in and the save is retried: counters keep both sides' increments and records are united.
+ * <p>
+ * Only a compact login index of every account stays in memory: its id, username, password hash, default flag and
+ * the position of its line in the file, which holds one account per line. Full accounts are read with a single
+ * positioned read when first used and kept in a resident set of bounded size. When the set is full the least
+ * recently used account without unsaved changes is evicted; if every resident account has unsaved changes, they
+ * are written back first. An evicted account a caller still holds is found again instead of being read twice, so
+ * every caller sees the same instance of an account. Saving copies the lines of unchanged accounts without
+ * parsing them. Files written with one account spread over several lines are still read, and rewritten with one
+ * account per line by the next save.
+ * <p>
+ * Within a process the service may be used from several threads: every method holds the service's lock, and
+ * accounts shared between threads should only be changed through the service, such as with
+ * {@link #addRecord(Account, int)}.
+ * <p>
+ * Next to the account file a leaderboard file holds the best records of the last 30 days in one bucket per day, so
+ * the leaderboards of today, the last 7 days and the last 30 days are merged from at most 30 small buckets instead
+ * of every account's history. It is written under the same lock as the account file and merged with the file
+ * whenever the account file is re-read; merging keeps every user's best record per day, so no side's record is lost.
  */
 public class AccountService {
     // Singleton instance of AccountService
     private static AccountService instance;
-    // List of accounts
-    List<Account> accounts = new ArrayList<>();
-    // JsonArray to hold the accounts data
-    JsonArray jsonArray = new JsonArray();
-    // Gson instance for JSON processing
-    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    // Number of optimistic save attempts before the merge is done while holding the lock
+    private static final int MAX_SAVE_ATTEMPTS = 3;
+    // Directory of the game's own account database
+    private static final String DATA_DIRECTORY = "Data";
+    // Number of full accounts kept in memory unless another number is asked for
+    public static final int DEFAULT_RESIDENT_CAPACITY = 64;
+    // Size of the window of the account file kept for reading lines
+    private static final int WINDOW_SIZE = 1 << 16;
+    // Bytes written before the first account line
+    private static final byte[] ARRAY_START = "[\n".getBytes(StandardCharsets.UTF_8);
+    // Bytes written after every account line but the last
+    private static final byte[] LINE_SEPARATOR = ",\n".getBytes(StandardCharsets.UTF_8);
+    // Bytes written after the last account line
+    private static final byte[] ARRAY_END = "\n]\n".getBytes(StandardCharsets.UTF_8);
+    // Gson instance for JSON processing, writing every account on a single line
+    Gson gson = new Gson();
     // File path for the JSON file containing account data
-    private final String filePath = "Data/users.json";
+    private final Path filePath;
+    // File path for the lock file holding the version stamp of the account file
+    private final Path lockPath;
+    // File path for the JSON file holding the leaderboard buckets of the last days
+    private final Path leaderboardPath;
+    // Best records of the last days of every account
+    private final Leaderboard leaderboard = new Leaderboard();
+    // Flag indicating the leaderboard has records the leaderboard file does not have yet
+    private boolean isLeaderboardChanged;
+    // Open channel of the lock file
+    private final FileChannel lockChannel;
+    // Buffer the version stamp is read and written through
+    private final ByteBuffer stampBuffer = ByteBuffer.allocate(8);
+    // Version stamp of the account file when this process last read or wrote it
+    private long knownStamp = -1;
+    // Open channel of the account file the positions of the index refer to
+    private FileChannel dataChannel;
+    // Window of the account file, so neighbouring lines are read with one system call
+    private final byte[] window = new byte[WINDOW_SIZE];
+    // Position of the window in the account file
+    private long windowStart;
+    // Number of valid bytes in the window
+    private int windowLength;
+    // Flag indicating the file was read in the layout with one account spread over several lines
+    private boolean isLegacyLayout;
+    // Login index of every account by id, in the order of the file
+    private final Map<UUID, IndexEntry> entriesById = new LinkedHashMap<>();
+    // Login index of every account by username
+    private final Map<String, IndexEntry> entriesByName = new HashMap<>();
+    // Accounts kept in memory, least recently used first
+    private final Map<UUID, Account> residents = new LinkedHashMap<>(16, 0.75f, true);
+    // Largest number of accounts kept in memory, exceeded only while more have unsaved changes
+    private final int residentCapacity;
+    // Index entries of the accounts read into memory that may still be in use
+    private final Set<IndexEntry> loadedEntries = new HashSet<>();
+    // Ids of accounts deleted by this process and not yet removed from the file
+    private final Set<UUID> deletedIds = new HashSet<>();
+    // Number of accounts found in memory
+    private long cacheHits;
+    // Number of accounts read from the file
+    private long cacheMisses;
+    // Number of accounts evicted from memory
+    private long evictions;
+    // Number of saves forced because every resident account had unsaved changes
+    private long writeBacks;
+
     /**
-     * Private constructor for creating a singleton instance of AccountService.
-     * Reads the JSON file containing account data and converts it into a list of Account objects.
+     * Private constructor for creating an AccountService on the account database in a directory.
+     * Reads the login index from the JSON file containing account data.
      *
+     * @param directory The directory holding the account file and its lock file.
+     * @param residentCapacity The number of full accounts kept in memory.
      * @throws IOException If an I/O error occurs while reading the JSON file.
+     * @throws IllegalArgumentException If the resident capacity is not positive.
      */
-    private AccountService() throws IOException {
-        readJson();
-        jsonArrayIntoArrayList();
+    private AccountService(Path directory, int residentCapacity) throws IOException {
+        if (residentCapacity < 1) {
+            throw new IllegalArgumentException("resident capacity must be positive");
+        }
+        this.residentCapacity = residentCapacity;
+        filePath = directory.resolve("users.json");
+        lockPath = directory.resolve("users.lock");
+        leaderboardPath = directory.resolve("leaderboard.json");
+        Files.createDirectories(directory);
+        if (!Files.exists(filePath)) {
+            Files.createFile(filePath);
+        }
+        lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        refresh();
+        if (!Files.exists(leaderboardPath)) {
+            // a database from before leaderboards were kept: the histories are scanned this once
+            isLeaderboardChanged = true;
+            long now = System.currentTimeMillis();
+            forEachAccount(account -> {
+                for (Score score : account.getScores()) {
+                    leaderboard.add(account.getUserName(), score.getValue(), score.getTime(), now);
+                }
+            });
+        }
     }
     /**
-     * Checks if a username exists in the database (in-memory list).
+     * Checks if a username exists in the database, using the login index only.
      *
      * @param username The username to check.
      * @return true if the username exists, false otherwise.
      */
-    public boolean isUsernameExistInDb(String username) {
-        for(Account acc : accounts) {
-            if(Objects.equals(acc.getUserName(), username)) {
-                return true;
-            }
-        }
-        return false;
+    public synchronized boolean isUsernameExistInDb(String username) {
+        refresh();
+        return entriesByName.containsKey(username);
     }
     /**
-     * Checks if the password is correct for the current user.
+     * Checks if the password is correct for the current user, using the login index only.
      *
      * @param username The username of the account.
      * @param password The password to validate.
      * @return true if the password is correct for the given username, false otherwise.
      */
-    public boolean isPassCorrectForCurrentUser(String username, String password) {
-        for(Account acc : accounts) {
-            if(Objects.equals(acc.getUserName(), username) && Objects.equals(acc.getPassword(),
-                String.valueOf(password.hashCode()))) {
-                return true;
-            }
-        }
-        return false;
+    public synchronized boolean isPassCorrectForCurrentUser(String username, String password) {
+        refresh();
+        IndexEntry entry = entriesByName.get(username);
+        return entry != null && entry.passwordHash == password.hashCode();
     }
 
     /**
@@ -78,110 +195,877 @@ public class AccountService {
      * @return The singleton instance of AccountService.
      * @throws IOException If an I/O error occurs while creating the instance.
      */
-    public static AccountService getInstance() throws IOException {
+    public static synchronized AccountService getInstance() throws IOException {
         if(instance == null) {
-            instance = new AccountService();
+            instance = new AccountService(Path.of(DATA_DIRECTORY), DEFAULT_RESIDENT_CAPACITY);
         }
         return instance;
     }
     /**
-     * Reads the JSON file containing account data into a JsonArray.
+     * Opens the account database in another directory, independently of the singleton instance.
+     * Tools such as load tests use it so they never touch the game's own accounts.
+     *
+     * @param directory The directory holding the account file, created if missing.
+     * @return A new AccountService on that database.
+     * @throws IOException If an I/O error occurs while reading the database.
+     */
+    public static AccountService open(Path directory) throws IOException {
+        return open(directory, DEFAULT_RESIDENT_CAPACITY);
+    }
+    /**
+     * Opens the account database in another directory with a resident set of a given size.
+     *
+     * @param directory The directory holding the account file, created if missing.
+     * @param residentCapacity The number of full accounts kept in memory.
+     * @return A new AccountService on that database.
+     * @throws IOException If an I/O error occurs while reading the database.
+     * @throws IllegalArgumentException If the resident capacity is not positive.
+     */
+    public static AccountService open(Path directory, int residentCapacity) throws IOException {
+        return new AccountService(directory, residentCapacity);
+    }
+    /**
+     * Brings the login index up to date with the account file if another process changed it since it was last read.
+     * Checking costs one read of the version stamp; only accounts whose version changed and that are in memory are
+     * parsed in full. Accounts changed by this process keep their changes, merged with the other process's changes.
+     */
+    public synchronized void refresh() {
+        try {
+            long stamp = readStamp();
+            if (stamp != knownStamp) {
+                reindex();
+                readLeaderboard();
+                knownStamp = stamp;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    /**
+     * Saves the changes of this process to the JSON file, merging them with changes saved by other processes.
+     * Does nothing if no account changed since it was last read or written.
+     */
+    public synchronized void arrayListToJsonFile() {
+        try {
+            for (int attempt = 1; ; attempt++) {
+                refresh();
+                if (!hasLocalChanges() && !isLeaderboardChanged) {
+                    return;
+                }
+                long baseStamp = knownStamp;
+                Path temp = writeTempFile();
+                FileLock lock = lockChannel.lock();
+                try {
+                    long stamp = readStamp();
+                    if (stamp != baseStamp) {
+                        Files.delete(temp);
+                        if (attempt < MAX_SAVE_ATTEMPTS) {
+                            continue;
+                        }
+                        // too much contention: merge while holding the lock so this save cannot lose again
+                        reindex();
+                        readLeaderboard();
+                        temp = writeTempFile();
+                    }
+                    Files.move(temp, filePath, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                    writeLeaderboard();
+                    writeStamp(stamp + 1);
+                    knownStamp = stamp + 1;
+                    commitSave();
+                    return;
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    /**
+     * Reads the login index from the JSON file and merges changes of other processes into the accounts in memory.
+     * Accounts whose version in the file matches the version last seen only have their position updated. Accounts
+     * the file no longer holds were deleted by another process and are dropped.
      *
      * @throws IOException If an I/O error occurs while reading the file.
      */
-    private void readJson() throws IOException {
-        File usersFile = new File(filePath);
-        if(usersFile.exists() && usersFile.length() != 0) {
-            try (FileReader reader = new FileReader(filePath)) {
-                JsonParser jsonParser = new JsonParser();
-                jsonArray = (JsonArray) jsonParser.parse(reader);
-            } catch (Exception e) {
-                e.printStackTrace();
+    private void reindex() throws IOException {
+        FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        Set<UUID> seen = new HashSet<>();
+        try {
+            isLegacyLayout = false;
+            if (channel.size() > 0 && !readLines(channel, seen)) {
+                isLegacyLayout = true;
+                readLegacy(channel, seen);
             }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw new IOException("account file is corrupted", e);
         }
-        else {
-            File parentDir = usersFile.getParentFile();
-            if (!parentDir.exists()) {
-                parentDir.mkdirs();
+        Iterator<IndexEntry> iterator = entriesById.values().iterator();
+        while (iterator.hasNext()) {
+            IndexEntry entry = iterator.next();
+            if (entry.isStored && !seen.contains(entry.id)) {
+                iterator.remove();
+                entriesByName.remove(entry.userName, entry);
+                residents.remove(entry.id);
+                loadedEntries.remove(entry);
+                leaderboard.remove(entry.userName);
             }
-            usersFile.createNewFile();
         }
+        if (dataChannel != null) {
+            dataChannel.close();
+        }
+        dataChannel = channel;
+        windowLength = 0;
+    }
+    /**
+     * Reads a file with one account per line and indexes every account.
+     *
+     * @param channel The channel of the file.
+     * @param seen The ids of the accounts read so far, the ids read are added.
+     * @return true if the file has one account per line, false if it is in another layout.
+     * @throws IOException If an I/O error occurs while reading.
+     */
+    private boolean readLines(FileChannel channel, Set<UUID> seen) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(WINDOW_SIZE);
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        long lineStart = 0;
+        int lineNumber = 0;
+        long position = 0;
+        int read;
+        while ((read = channel.read(buffer.clear(), position)) > 0) {
+            byte[] chunk = buffer.array();
+            for (int i = 0; i < read; i++) {
+                if (chunk[i] == '\n') {
+                    if (!indexLine(line, lineLength, lineStart, lineNumber++, seen)) {
+                        return false;
+                    }
+                    lineLength = 0;
+                    lineStart = position + i + 1;
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = chunk[i];
+                }
+            }
+            position += read;
+        }
+        return lineLength == 0 || indexLine(line, lineLength, lineStart, lineNumber, seen);
+    }
+    /**
+     * Indexes one line of a file with one account per line.
+     *
+     * @param line The bytes of the line.
+     * @param length The length of the line.
+     * @param start The position of the line in the file.
+     * @param lineNumber The number of the line, 0 for the first.
+     * @param seen The ids of the accounts read so far, the id read is added.
+     * @return true if the line fits the layout, false otherwise.
+     * @throws IOException If the account cannot be parsed.
+     */
+    private boolean indexLine(byte[] line, int length, long start, int lineNumber, Set<UUID> seen)
+        throws IOException {
+        int end = length;
+        while (end > 0 && Character.isWhitespace(line[end - 1])) {
+            end--;
+        }
+        if (lineNumber == 0) {
+            return end == 1 && line[0] == '[';
+        }
+        if (end == 0 || end == 1 && line[0] == ']') {
+            return true;
+        }
+        if (line[end - 1] == ',') {
+            end--;
+        }
+        if (line[0] != '{' || line[end - 1] != '}') {
+            return false;
+        }
+        indexAccount(new String(line, 0, end, StandardCharsets.UTF_8), start, end, null, seen);
+        return true;
     }
     /**
-     * Converts the JsonArray containing account data into a list of Account objects.
+     * Reads a file in the layout with one account spread over several lines and indexes every account.
+     * The accounts are kept as lines to write until the next save rewrites the file.
+     *
+     * @param channel The channel of the file.
+     * @param seen The ids of the accounts read so far, the ids read are added.
+     * @throws IOException If an I/O error occurs while reading.
      */
-    private void jsonArrayIntoArrayList() {
-        for(JsonElement element : jsonArray) {
-            JsonObject jsonObject = element.getAsJsonObject();
-            Account account = gson.fromJson(jsonObject, Account.class);
-            accounts.add(account);
+    private void readLegacy(FileChannel channel, Set<UUID> seen) throws IOException {
+        // the reader is not closed, closing it would close the channel
+        JsonReader reader = new JsonReader(Channels.newReader(channel.position(0), StandardCharsets.UTF_8));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonElement element = JsonParser.parseReader(reader);
+            String json = gson.toJson(element);
+            byte[] line = json.getBytes(StandardCharsets.UTF_8);
+            indexAccount(json, -1, line.length, line, seen);
         }
+        reader.endArray();
     }
     /**
-     * Converts the list of Account objects into a JsonArray and writes it to the JSON file.
+     * Indexes one account of the file. Only the fields of the login index are parsed, unless the account is in
+     * memory and was changed by another process, in which case the changes are merged into it.
+     *
+     * @param json The account as JSON.
+     * @param offset The position of the account's line in the file, -1 if it is kept as a line to write.
+     * @param length The length of the account's line in bytes.
+     * @param pendingLine The line to write for the account, or null if it is copied from the file.
+     * @param seen The ids of the accounts read so far, the account's id is added.
+     * @throws IOException If the account cannot be parsed.
      */
-    public void arrayListToJsonFile() {
-        JsonArray jsonArray = new JsonArray();
-        for (Account account : accounts) {
-            JsonObject accountJson = gson.toJsonTree(account).getAsJsonObject();
-            jsonArray.add(accountJson);
+    private void indexAccount(String json, long offset, int length, byte[] pendingLine, Set<UUID> seen)
+        throws IOException {
+        UUID id = null;
+        String userName = null;
+        String password = null;
+        boolean isDefault = false;
+        long version = 0;
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> id = UUID.fromString(reader.nextString());
+                case "userName" -> userName = reader.nextString();
+                case "password" -> password = reader.nextString();
+                case "isDefault" -> isDefault = reader.nextBoolean();
+                case "version" -> version = reader.nextLong();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (id == null) {
+            return;
+        }
+        seen.add(id);
+        if (deletedIds.contains(id)) {
+            return;
         }
-        String json = gson.toJson(jsonArray);
 
-        try (FileWriter writer = new FileWriter(filePath)) {
-            writer.write(json);
-        } catch (IOException e) {
-            e.printStackTrace();
+        IndexEntry entry = entriesById.get(id);
+        if (entry == null) {
+            entry = new IndexEntry(id, userName, Integer.parseInt(password));
+            entriesById.put(id, entry);
+            entriesByName.put(userName, entry);
+        } else if (entry.version != version) {
+            Account local = entry.getLoaded();
+            if (local != null) {
+                merge(entry, local, gson.fromJson(json, Account.class));
+            }
+        }
+        entry.isDefault = isDefault;
+        entry.version = version;
+        entry.offset = offset;
+        entry.length = length;
+        entry.pendingLine = pendingLine;
+        entry.isStored = true;
+    }
+    /**
+     * Merges the state of an account saved by another process into the account in memory.
+     *
+     * @param entry The index entry of the account.
+     * @param local The account in memory.
+     * @param stored The account as saved by the other process.
+     */
+    private void merge(IndexEntry entry, Account local, Account stored) {
+        AccountSnapshot snapshot = entry.snapshot;
+        if (snapshot == null || !snapshot.isChanged(local)) {
+            local.runCount = stored.runCount;
+            local.entersCount = stored.entersCount;
+            local.isDefault = stored.isDefault;
+            local.getRecords().clear();
+            local.getRecords().addAll(stored.getRecords());
+            local.getScores().clear();
+            local.getScores().addAll(stored.getScores());
+        } else {
+            // both processes changed the account: keep both sides' increments and all records
+            local.runCount = Math.max(0, stored.runCount + local.runCount - snapshot.runCount);
+            local.entersCount = Math.max(0, stored.entersCount + local.entersCount - snapshot.entersCount);
+            if (local.isDefault == snapshot.isDefault) {
+                local.isDefault = stored.isDefault;
+            }
+            local.getRecords().addAll(stored.getRecords());
+            Set<Score> scores = new LinkedHashSet<>(stored.getScores());
+            scores.addAll(local.getScores());
+            local.getScores().clear();
+            local.getScores().addAll(scores);
+        }
+        local.setVersion(stored.getVersion());
+        entry.snapshot = new AccountSnapshot(stored);
+    }
+    /**
+     * Checks if this process added, changed or deleted an account since the file was last read or written.
+     * Forgets the accounts in memory that are no longer used by anyone.
+     *
+     * @return true if there is something to save, false otherwise.
+     */
+    private boolean hasLocalChanges() {
+        boolean isChanged = !deletedIds.isEmpty() || isLegacyLayout;
+        Iterator<IndexEntry> iterator = loadedEntries.iterator();
+        while (iterator.hasNext()) {
+            IndexEntry entry = iterator.next();
+            Account account = entry.getLoaded();
+            if (account == null) {
+                entry.forget();
+                iterator.remove();
+            } else if (entry.isDirty(account)) {
+                isChanged = true;
+            }
+        }
+        return isChanged;
+    }
+    /**
+     * Gets the version an account will have once the pending save is written.
+     *
+     * @param entry The index entry of the account.
+     * @param account The account in memory.
+     * @return The next version if the account is new or changed, its current version otherwise.
+     */
+    private long getNextVersion(IndexEntry entry, Account account) {
+        AccountSnapshot snapshot = entry.snapshot;
+        if (snapshot == null) {
+            return account.getVersion() + 1;
+        }
+        return snapshot.isChanged(account) ? snapshot.version + 1 : snapshot.version;
+    }
+    /**
+     * Writes every account, one per line, into a temporary file next to the JSON file. Changed accounts are
+     * written with the versions they will have once saved; the lines of the others are copied from the file.
+     * The file is forced to disk before it is returned.
+     *
+     * @return The path of the temporary file.
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    private Path writeTempFile() throws IOException {
+        Path temp = Files.createTempFile(filePath.getParent(), "users", ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), WINDOW_SIZE);
+            output.write(ARRAY_START);
+            long position = ARRAY_START.length;
+            boolean isFirst = true;
+            for (IndexEntry entry : entriesById.values()) {
+                if (!isFirst) {
+                    output.write(LINE_SEPARATOR);
+                    position += LINE_SEPARATOR.length;
+                }
+                isFirst = false;
+                Account account = entry.getLoaded();
+                byte[] line;
+                if (account != null && entry.isDirty(account)) {
+                    JsonObject accountJson = gson.toJsonTree(account).getAsJsonObject();
+                    accountJson.addProperty("version", getNextVersion(entry, account));
+                    line = gson.toJson(accountJson).getBytes(StandardCharsets.UTF_8);
+                } else {
+                    line = readLine(entry);
+                }
+                output.write(line);
+                entry.savedOffset = position;
+                entry.savedLength = line.length;
+                position += line.length;
+            }
+            output.write(ARRAY_END);
+            output.flush();
+            // the file must be on disk before it is renamed over the account file, or a crash can leave it empty
+            channel.force(true);
+        }
+        return temp;
+    }
+    /**
+     * Records the state of every account as written, after a successful save, and switches to the new file.
+     *
+     * @throws IOException If the new file cannot be opened.
+     */
+    private void commitSave() throws IOException {
+        FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        if (dataChannel != null) {
+            dataChannel.close();
+        }
+        dataChannel = channel;
+        windowLength = 0;
+        for (IndexEntry entry : entriesById.values()) {
+            Account account = entry.getLoaded();
+            if (account != null) {
+                account.setVersion(getNextVersion(entry, account));
+                entry.snapshot = new AccountSnapshot(account);
+                entry.version = account.getVersion();
+                entry.isDefault = account.isDefault;
+            }
+            entry.offset = entry.savedOffset;
+            entry.length = entry.savedLength;
+            entry.pendingLine = null;
+            entry.isStored = true;
+        }
+        deletedIds.clear();
+        isLegacyLayout = false;
+    }
+    /**
+     * Gets the line of an account as stored in the file.
+     *
+     * @param entry The index entry of the account.
+     * @return The bytes of the line.
+     * @throws IOException If an I/O error occurs while reading the file.
+     */
+    private byte[] readLine(IndexEntry entry) throws IOException {
+        if (entry.pendingLine != null) {
+            return entry.pendingLine;
+        }
+        byte[] line = new byte[entry.length];
+        if (entry.length > WINDOW_SIZE) {
+            readFully(ByteBuffer.wrap(line), entry.offset);
+            return line;
+        }
+        if (entry.offset < windowStart || entry.offset + entry.length > windowStart + windowLength) {
+            ByteBuffer buffer = ByteBuffer.wrap(window);
+            windowStart = entry.offset;
+            windowLength = 0;
+            while (buffer.position() < entry.length) {
+                if (dataChannel.read(buffer, windowStart + buffer.position()) < 0) {
+                    throw new IOException("account file is truncated");
+                }
+            }
+            windowLength = buffer.position();
+        }
+        System.arraycopy(window, (int) (entry.offset - windowStart), line, 0, entry.length);
+        return line;
+    }
+    /**
+     * Fills a buffer from the account file.
+     *
+     * @param buffer The buffer to fill.
+     * @param position The position in the file to read from.
+     * @throws IOException If an I/O error occurs or the file ends before the buffer is full.
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (dataChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("account file is truncated");
+            }
+        }
+    }
+    /**
+     * Gets the account of an index entry, reading it from the file if it is not in memory.
+     *
+     * @param entry The index entry of the account.
+     * @return The account.
+     * @throws IOException If an I/O error occurs while reading the file.
+     */
+    private Account load(IndexEntry entry) throws IOException {
+        Account account = entry.getLoaded();
+        if (account != null) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+            account = gson.fromJson(new String(readLine(entry), StandardCharsets.UTF_8), Account.class);
+            entry.loaded = new WeakReference<>(account);
+            entry.snapshot = new AccountSnapshot(account);
+            loadedEntries.add(entry);
+        }
+        makeResident(entry.id, account);
+        return account;
+    }
+    /**
+     * Marks an account as the most recently used one, keeping it in memory, and evicts idle accounts if the
+     * resident set is full.
+     *
+     * @param id The id of the account.
+     * @param account The account.
+     */
+    private void makeResident(UUID id, Account account) {
+        residents.put(id, account);
+        if (residents.size() > residentCapacity && !evictIdle()) {
+            // every resident account has unsaved changes: write them back so they can be evicted
+            writeBacks++;
+            arrayListToJsonFile();
+            evictIdle();
+        }
+    }
+    /**
+     * Evicts the least recently used accounts without unsaved changes until the resident set is within its capacity.
+     *
+     * @return true if the resident set is within its capacity, false if too many accounts have unsaved changes.
+     */
+    private boolean evictIdle() {
+        Iterator<Map.Entry<UUID, Account>> iterator = residents.entrySet().iterator();
+        while (residents.size() > residentCapacity && iterator.hasNext()) {
+            Map.Entry<UUID, Account> resident = iterator.next();
+            IndexEntry entry = entriesById.get(resident.getKey());
+            if (entry == null || !entry.isDirty(resident.getValue())) {
+                iterator.remove();
+                evictions++;
+            }
+        }
+        return residents.size() <= residentCapacity;
+    }
+    /**
+     * Reads the version stamp from the lock file.
+     *
+     * @return The stamp, 0 if the file was never written.
+     * @throws IOException If an I/O error occurs while reading.
+     */
+    private long readStamp() throws IOException {
+        stampBuffer.clear();
+        while (stampBuffer.hasRemaining() && lockChannel.read(stampBuffer, stampBuffer.position()) > 0) {
+            // keep reading until the whole stamp is buffered
+        }
+        return stampBuffer.hasRemaining() ? 0 : stampBuffer.getLong(0);
+    }
+    /**
+     * Writes the version stamp into the lock file.
+     *
+     * @param stamp The new stamp.
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    private void writeStamp(long stamp) throws IOException {
+        stampBuffer.clear();
+        stampBuffer.putLong(stamp).flip();
+        while (stampBuffer.hasRemaining()) {
+            lockChannel.write(stampBuffer, stampBuffer.position());
+        }
+    }
+    /**
+     * Merges the leaderboard file into the leaderboard in memory, leaving out users whose accounts were deleted.
+     *
+     * @throws IOException If an I/O error occurs while reading the file.
+     */
+    private void readLeaderboard() throws IOException {
+        if (!Files.exists(leaderboardPath)) {
+            return;
+        }
+        Map<Long, List<Leaderboard.Entry>> days;
+        try {
+            days = gson.fromJson(Files.readString(leaderboardPath, StandardCharsets.UTF_8),
+                new TypeToken<Map<Long, List<Leaderboard.Entry>>>() { }.getType());
+        } catch (RuntimeException e) {
+            throw new IOException("leaderboard file is corrupted", e);
+        }
+        if (days == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, List<Leaderboard.Entry>> day : days.entrySet()) {
+            for (Leaderboard.Entry entry : day.getValue()) {
+                if (entriesByName.containsKey(entry.getUserName())) {
+                    leaderboard.add(entry.getUserName(), entry.getScore(), Leaderboard.startOf(day.getKey()), now);
+                }
+            }
         }
     }
     /**
-     * Retrieves an account by its username.
+     * Writes the leaderboard into the leaderboard file, forcing it to disk and replacing it atomically. Must be called
+     * holding the lock, after the file was merged into the leaderboard in memory.
+     *
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    private void writeLeaderboard() throws IOException {
+        Path temp = Files.createTempFile(leaderboardPath.getParent(), "leaderboard", ".tmp");
+        Files.writeString(temp, gson.toJson(leaderboard.getDays(System.currentTimeMillis())), StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, leaderboardPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        isLeaderboardChanged = false;
+    }
+    /**
+     * Gets the leaderboard of a rolling window, merged from the buckets of its days.
+     *
+     * @param window The window.
+     * @return The best users of the window with their best records in it, at most {@link Leaderboard#TOP_SIZE}.
+     */
+    public synchronized List<Leaderboard.Entry> getLeaderboard(Leaderboard.Window window) {
+        refresh();
+        return leaderboard.top(window, Leaderboard.TOP_SIZE, System.currentTimeMillis());
+    }
+    /**
+     * Retrieves an account by its username, reading it from the file if it is not in memory.
      *
      * @param username The username of the account to retrieve.
      * @return The Account object if found.
      * @throws AccountIsNotFoundedException If the account is not found.
+     * @throws UncheckedIOException If the account cannot be read from the file.
      */
-    public Account getAccountByUserName(String username) {
-        for(Account acc : accounts) {
-            if(Objects.equals(acc.getUserName(), username)) {
-                return acc;
+    public synchronized Account getAccountByUserName(String username) {
+        refresh();
+        IndexEntry entry = entriesByName.get(username);
+        if (entry == null) {
+            throw new AccountIsNotFoundedException("acc isnt founded");
+        }
+        try {
+            return load(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Retrieves the account marked as the default one, which is logged in without asking for its password.
+     *
+     * @return The default account, or null if no account is marked.
+     * @throws UncheckedIOException If the account cannot be read from the file.
+     */
+    public synchronized Account getDefaultAccount() {
+        refresh();
+        for (IndexEntry entry : entriesById.values()) {
+            Account account = entry.getLoaded();
+            if (account != null ? account.isDefault : entry.isDefault) {
+                try {
+                    return load(entry);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
             }
         }
-        throw new AccountIsNotFoundedException("acc isnt founded");
+        return null;
     }
     /**
-     * Adds a new account to the list and persists it to the JSON file.
+     * Adds a new account to the index and keeps it in memory until it is saved to the JSON file.
      *
      * @param acc The account to add.
      */
-    public void addAccount(Account acc) {
-        accounts.add(acc);
+    public synchronized void addAccount(Account acc) {
+        IndexEntry entry = new IndexEntry(acc.getId(), acc.getUserName(), Integer.parseInt(acc.getPassword()));
+        entry.isDefault = acc.isDefault;
+        entry.version = acc.getVersion();
+        entry.loaded = new WeakReference<>(acc);
+        entriesById.put(acc.getId(), entry);
+        entriesByName.put(acc.getUserName(), entry);
+        loadedEntries.add(entry);
+        makeResident(acc.getId(), acc);
+    }
+    /**
+     * Adds a game record to an account while holding the service's lock, so the record cannot be added while
+     * another thread saves or merges the accounts. The account stays in memory until it is saved.
+     *
+     * @param account The account the record belongs to.
+     * @param record The record to add.
+     */
+    public synchronized void addRecord(Account account, int record) {
+        long now = System.currentTimeMillis();
+        account.addRecord(record, now);
+        isLeaderboardChanged |= leaderboard.add(account.getUserName(), record, now, now);
+        IndexEntry entry = entriesById.get(account.getId());
+        if (entry != null && entry.getLoaded() == account) {
+            makeResident(account.getId(), account);
+        }
     }
     /**
-     * Gets the list of accounts.
+     * Passes every account to an action, one at a time. Accounts in memory are passed as they are; the others are
+     * read from the file and only live as long as the action keeps them, so the accounts are meant for reading.
+     * The action must not add or delete accounts.
      *
-     * @return The list of accounts.
+     * @param action The action to run for every account.
+     * @throws IOException If an I/O error occurs while reading the file or in the action.
      */
-    public List<Account> getAccounts() {
-        return accounts;
+    public synchronized void forEachAccount(AccountAction action) throws IOException {
+        refresh();
+        for (IndexEntry entry : entriesById.values()) {
+            Account account = entry.getLoaded();
+            if (account == null) {
+                account = gson.fromJson(new String(readLine(entry), StandardCharsets.UTF_8), Account.class);
+            }
+            action.accept(account);
+        }
     }
     /**
-     * Deletes an account from the list and updates the JSON file.
+     * Deletes an account from the index and updates the JSON file.
      *
      * @param account The account to delete.
      * @throws IOException If an I/O error occurs while updating the file.
      */
-    public void deleteAccount(Account account) throws IOException {
-        readJson();
-        for(JsonElement element : jsonArray) {
-            JsonObject jsonObject = element.getAsJsonObject();
-            Account tmpaccount = gson.fromJson(jsonObject, Account.class);
-            if(account.getId().equals(tmpaccount.getId())) {
-                jsonArray.remove(jsonObject);
-                accounts.remove(account);
-                break;
+    public synchronized void deleteAccount(Account account) throws IOException {
+        IndexEntry entry = entriesById.remove(account.getId());
+        if (entry != null) {
+            entriesByName.remove(entry.userName, entry);
+            loadedEntries.remove(entry);
+            if (entry.isStored) {
+                deletedIds.add(entry.id);
             }
         }
+        residents.remove(account.getId());
+        isLeaderboardChanged |= leaderboard.remove(account.getUserName());
         arrayListToJsonFile();
     }
+    /**
+     * Gets the number of accounts that were found in memory when asked for.
+     *
+     * @return The number of cache hits.
+     */
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+    /**
+     * Gets the number of accounts that had to be read from the file when asked for.
+     *
+     * @return The number of cache misses.
+     */
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+    /**
+     * Gets the number of accounts evicted from the resident set.
+     *
+     * @return The number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+    /**
+     * Gets the number of saves forced because every resident account had unsaved changes.
+     *
+     * @return The number of write-backs.
+     */
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+    /**
+     * Gets the number of full accounts kept in memory.
+     *
+     * @return The size of the resident set.
+     */
+    public synchronized int getResidentCount() {
+        return residents.size();
+    }
+    /**
+     * Gets the number of accounts in the login index.
+     *
+     * @return The number of accounts.
+     */
+    public synchronized int getAccountCount() {
+        return entriesById.size();
+    }
+
+    /**
+     * An action run for every account by {@link #forEachAccount(AccountAction)}.
+     */
+    @FunctionalInterface
+    public interface AccountAction {
+        /**
+         * Runs the action for one account.
+         *
+         * @param account The account.
+         * @throws IOException If an I/O error occurs.
+         */
+        void accept(Account account) throws IOException;
+    }
+
+    /**
+     * Holds what the login index knows about an account, and the account itself while it is in memory.
+     */
+    private static class IndexEntry {
+        // Unique identifier of the account
+        private final UUID id;
+        // Username of the account
+        private final String userName;
+        // Hashed password of the account, stored in the file as its decimal string
+        private final int passwordHash;
+        // The default flag stored in the file
+        private boolean isDefault;
+        // Version of the account in the file
+        private long version;
+        // Position of the account's line in the file, -1 if it is not in the file in one line
+        private long offset = -1;
+        // Length of the account's line in bytes
+        private int length;
+        // Line to write for an account read from a file in the old layout, null otherwise
+        private byte[] pendingLine;
+        // Flag indicating the account is in the file, so it has to be removed from it when deleted
+        private boolean isStored;
+        // Position of the account's line in the file being saved
+        private long savedOffset;
+        // Length of the account's line in the file being saved
+        private int savedLength;
+        // The account while it is in memory, held weakly so an evicted account lives only as long as it is used
+        private WeakReference<Account> loaded;
+        // State of the account as last read from or written to the file, while it is in memory
+        private AccountSnapshot snapshot;
+
+        /**
+         * Constructor for creating a new IndexEntry.
+         *
+         * @param id The id of the account.
+         * @param userName The username of the account.
+         * @param passwordHash The hashed password of the account.
+         */
+        private IndexEntry(UUID id, String userName, int passwordHash) {
+            this.id = id;
+            this.userName = userName;
+            this.passwordHash = passwordHash;
+        }
+
+        /**
+         * Gets the account if it is in memory.
+         *
+         * @return The account, or null if it has to be read from the file.
+         */
+        private Account getLoaded() {
+            return loaded == null ? null : loaded.get();
+        }
+
+        /**
+         * Checks if the account in memory has changes that were not saved.
+         *
+         * @param account The account in memory.
+         * @return true if the account is new or was changed, false otherwise.
+         */
+        private boolean isDirty(Account account) {
+            return snapshot == null || snapshot.isChanged(account);
+        }
+
+        /**
+         * Drops the account's state after it was collected.
+         */
+        private void forget() {
+            loaded = null;
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Holds the state of an account as last read from or written to the JSON file, to tell local changes apart.
+     */
+    private static class AccountSnapshot {
+        // Version of the account in the file
+        private final long version;
+        // The number of runs stored in the file
+        private final int runCount;
+        // The number of enters stored in the file
+        private final int entersCount;
+        // The default flag stored in the file
+        private final boolean isDefault;
+        // The records stored in the file
+        private final Set<Integer> records;
+        // The number of timed records stored in the file
+        private final int scoreCount;
+
+        /**
+         * Constructor for creating a new AccountSnapshot.
+         *
+         * @param account The account as stored in the file.
+         */
+        private AccountSnapshot(Account account) {
+            this.version = account.getVersion();
+            this.runCount = account.runCount;
+            this.entersCount = account.entersCount;
+            this.isDefault = account.isDefault;
+            this.records = new TreeSet<>(account.getRecords());
+            this.scoreCount = account.getScores().size();
+        }
+
+        /**
+         * Checks if an account differs from this snapshot.
+         *
+         * @param account The account to compare.
+         * @return true if the account was changed, false otherwise.
+         */
+        private boolean isChanged(Account account) {
+            return account.runCount != runCount || account.entersCount != entersCount
+                || account.isDefault != isDefault || !account.getRecords().equals(records)
+                || account.getScores().size() != scoreCount;
+        }
+    }
 }
@@ -0,0 +1,497 @@
+package bl;
+
+import dal.Direction;
+import dal.Grid;
+import java.util.Arrays;
+
+/**
+ * Runs many snakes on one grid.
+ * Every snake is stored as a chain of cell ids through a per-cell link table shared by all snakes, and the grid's
+ * occupancy table maps each cell to the snake occupying it (snake id + 1). Collisions are therefore resolved with
+ * constant-time lookups per snake.
+ * <p>
+ * A tick is applied in batched phases over all snakes: pick the target cells, resolve head-to-head and
+ * head-to-body collisions, move the survivors, then respawn eaten food. Its cost grows with the number of
+ * snakes, not with their length, except for snakes that die and are removed from the board.
+ */
+public class Arena {
+    // Marks a missing cell or snake
+    private static final int NONE = -1;
+
+    // The grid shared by all snakes
+    private final Grid grid;
+    // Width of the grid
+    private final int width;
+    // Number of cells of the grid
+    private final int cellCount;
+    // Maximum number of snakes
+    private final int capacity;
+
+    // Next cell towards the head for every cell occupied by a snake
+    private final int[] nextCell;
+    // Head cell of every snake
+    private final int[] heads;
+    // Tail cell of every snake
+    private final int[] tails;
+    // Length of every snake
+    private final int[] lengths;
+    // Direction of every snake
+    private final Direction[] directions;
+    // Flag indicating every snake is alive
+    private final boolean[] alive;
+    // Number of snakes added
+    private int snakeCount;
+    // Number of snakes alive
+    private int aliveCount;
+
+    // Cell every snake moves into during the current tick, NONE if it leaves the grid
+    private final int[] targets;
+    // Flag indicating every snake eats during the current tick
+    private final boolean[] growing;
+    // Flag indicating every snake dies during the current tick
+    private final boolean[] dying;
+    // Claim round in which each cell was last claimed as a target
+    private final long[] claimedAt;
+    // Snake that claimed each cell in the round recorded in claimedAt
+    private final int[] claimedBy;
+    // Number of ticks ever applied, never restored, so claims of ticks undone by a restore cannot leak into later ones
+    private long claimRound;
+
+    // Cells holding food
+    private final int[] foods;
+    // Number of ticks applied
+    private long tickCount;
+    // State of the xorshift generator placing food and snakes
+    private long randomState;
+
+    /**
+     * Constructor for creating a new Arena.
+     *
+     * @param grid The grid shared by all snakes, expected to be empty.
+     * @param capacity The maximum number of snakes.
+     * @param foodCount The number of food cells kept on the grid.
+     * @param seed The seed of the generator placing food and snakes.
+     */
+    public Arena(Grid grid, int capacity, int foodCount, long seed) {
+        this.grid = grid;
+        this.width = grid.getXLength();
+        this.cellCount = width * grid.getYLength();
+        this.capacity = capacity;
+        this.randomState = seed == 0 ? 1L : seed;
+
+        nextCell = new int[cellCount];
+        heads = new int[capacity];
+        tails = new int[capacity];
+        lengths = new int[capacity];
+        directions = new Direction[capacity];
+        alive = new boolean[capacity];
+        targets = new int[capacity];
+        growing = new boolean[capacity];
+        dying = new boolean[capacity];
+        claimedAt = new long[cellCount];
+        claimedBy = new int[cellCount];
+        Arrays.fill(claimedAt, -1);
+
+        foods = new int[foodCount];
+        for (int i = 0; i < foodCount; i++) {
+            foods[i] = NONE;
+            spawnFood(i);
+        }
+    }
+
+    /**
+     * Adds a snake of length one on a random free cell.
+     *
+     * @param direction The initial direction of the snake.
+     * @return The id of the new snake, or NONE if the arena is full or no free cell was found.
+     */
+    public int addSnake(Direction direction) {
+        if (snakeCount == capacity) {
+            return NONE;
+        }
+        for (int attempt = 0; attempt < cellCount; attempt++) {
+            int cell = nextRandom(cellCount);
+            if (grid.getOwner(cell) == Grid.FREE && !isFood(cell)) {
+                int snake = snakeCount++;
+                heads[snake] = cell;
+                tails[snake] = cell;
+                lengths[snake] = 1;
+                directions[snake] = direction;
+                alive[snake] = true;
+                aliveCount++;
+                grid.setOwner(cell, snake + 1);
+                setTexture(cell, headTexture(direction));
+                return snake;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Sets the direction a snake moves in on the next tick.
+     *
+     * @param snake The id of the snake.
+     * @param direction The new direction.
+     */
+    public void setDirection(int snake, Direction direction) {
+        directions[snake] = direction;
+    }
+
+    /**
+     * Gets the direction a snake moves in on the next tick.
+     *
+     * @param snake The id of the snake.
+     * @return The direction of the snake.
+     */
+    public Direction getDirection(int snake) {
+        return directions[snake];
+    }
+
+    /**
+     * Steers every living snake greedily towards its food while avoiding occupied cells, as a simple bot.
+     * Snake i chases food i modulo the number of food cells.
+     */
+    public void steerBots() {
+        for (int snake = 0; snake < snakeCount; snake++) {
+            if (alive[snake]) {
+                directions[snake] = chooseBotDirection(snake);
+            }
+        }
+    }
+
+    /**
+     * Chooses the direction the greedy bot would steer a snake in, without changing the snake.
+     *
+     * @param snake The id of a living snake.
+     * @return The direction towards the snake's food avoiding occupied cells, or the current direction if every
+     * neighbouring cell is blocked.
+     */
+    public Direction chooseBotDirection(int snake) {
+        int head = heads[snake];
+        int food = foods.length == 0 ? NONE : foods[snake % foods.length];
+        Direction best = directions[snake];
+        int bestScore = Integer.MAX_VALUE;
+        for (Direction direction : Direction.values()) {
+            int cell = neighbour(head, direction);
+            if (cell == NONE || (grid.getOwner(cell) != Grid.FREE && cell != tails[snake])) {
+                continue;
+            }
+            int score = food == NONE ? 0 : manhattan(cell, food);
+            if (score < bestScore) {
+                best = direction;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Applies one tick to every living snake.
+     */
+    public void tick() {
+        // phase 1: target cells, food and wall hits, head-to-head claims
+        for (int snake = 0; snake < snakeCount; snake++) {
+            if (!alive[snake]) {
+                continue;
+            }
+            int target = neighbour(heads[snake], directions[snake]);
+            targets[snake] = target;
+            growing[snake] = target != NONE && isFood(target);
+            dying[snake] = target == NONE;
+            if (target == NONE) {
+                continue;
+            }
+            if (claimedAt[target] == claimRound) {
+                dying[snake] = true;
+                dying[claimedBy[target]] = true;
+            } else {
+                claimedAt[target] = claimRound;
+                claimedBy[target] = snake;
+            }
+        }
+
+        // phase 2: head-to-body, a tail that leaves during this tick does not block; two snakes swapping cells
+        // meet head to head, since a snake of length 1 leaves its tail cell with its head
+        for (int snake = 0; snake < snakeCount; snake++) {
+            if (!alive[snake] || dying[snake]) {
+                continue;
+            }
+            int target = targets[snake];
+            int owner = grid.getOwner(target);
+            if (owner == Grid.WALL_OWNER) {
+                dying[snake] = true;
+            } else if (owner != Grid.FREE && (tails[owner - 1] != target || growing[owner - 1])) {
+                dying[snake] = true;
+            } else if (owner != Grid.FREE && owner - 1 != snake && targets[owner - 1] == heads[snake]) {
+                dying[snake] = true;
+                dying[owner - 1] = true;
+            }
+        }
+
+        // phase 3: remove the dead and move the tails of the survivors
+        for (int snake = 0; snake < snakeCount; snake++) {
+            if (!alive[snake]) {
+                continue;
+            }
+            if (dying[snake]) {
+                removeSnake(snake);
+            } else if (!growing[snake]) {
+                int tail = tails[snake];
+                tails[snake] = lengths[snake] == 1 ? targets[snake] : nextCell[tail];
+                if (grid.getOwner(tail) == snake + 1) {
+                    grid.setOwner(tail, Grid.FREE);
+                    setTexture(tail, Grid.EMPTY);
+                }
+            }
+        }
+
+        // phase 4: move the heads of the survivors
+        for (int snake = 0; snake < snakeCount; snake++) {
+            if (!alive[snake]) {
+                continue;
+            }
+            int head = heads[snake];
+            int target = targets[snake];
+            if (lengths[snake] > 1 || growing[snake]) {
+                setTexture(head, Grid.BODY);
+            }
+            nextCell[head] = target;
+            heads[snake] = target;
+            grid.setOwner(target, snake + 1);
+            setTexture(target, headTexture(directions[snake]));
+            if (growing[snake]) {
+                lengths[snake]++;
+            }
+        }
+
+        // phase 5: replace eaten food once every head has moved, so no food lands on a cell a head is entering
+        for (int snake = 0; snake < snakeCount; snake++) {
+            if (alive[snake] && growing[snake]) {
+                replaceFood(targets[snake]);
+            }
+        }
+        tickCount++;
+        claimRound++;
+    }
+
+    /**
+     * Copies the state of the arena, including its grid, into a snapshot.
+     *
+     * @param state The snapshot to fill, created for an arena of the same size.
+     */
+    public void saveState(ArenaState state) {
+        System.arraycopy(nextCell, 0, state.nextCell, 0, cellCount);
+        System.arraycopy(heads, 0, state.heads, 0, snakeCount);
+        System.arraycopy(tails, 0, state.tails, 0, snakeCount);
+        System.arraycopy(lengths, 0, state.lengths, 0, snakeCount);
+        System.arraycopy(directions, 0, state.directions, 0, snakeCount);
+        System.arraycopy(alive, 0, state.alive, 0, snakeCount);
+        System.arraycopy(foods, 0, state.foods, 0, foods.length);
+        grid.copyCells(state.textures, state.owners);
+        state.snakeCount = snakeCount;
+        state.aliveCount = aliveCount;
+        state.tickCount = tickCount;
+        state.randomState = randomState;
+    }
+
+    /**
+     * Puts the arena back into the state of a snapshot. Only the cells that differ are written to the grid.
+     *
+     * @param state The snapshot to restore, taken from this arena.
+     */
+    public void restoreState(ArenaState state) {
+        System.arraycopy(state.nextCell, 0, nextCell, 0, cellCount);
+        System.arraycopy(state.heads, 0, heads, 0, state.snakeCount);
+        System.arraycopy(state.tails, 0, tails, 0, state.snakeCount);
+        System.arraycopy(state.lengths, 0, lengths, 0, state.snakeCount);
+        System.arraycopy(state.directions, 0, directions, 0, state.snakeCount);
+        System.arraycopy(state.alive, 0, alive, 0, state.snakeCount);
+        System.arraycopy(state.foods, 0, foods, 0, foods.length);
+        grid.restoreCells(state.textures, state.owners);
+        snakeCount = state.snakeCount;
+        aliveCount = state.aliveCount;
+        tickCount = state.tickCount;
+        randomState = state.randomState;
+    }
+
+    /**
+     * Creates an empty snapshot sized for this arena.
+     *
+     * @return A snapshot to pass to {@link #saveState(ArenaState)}.
+     */
+    public ArenaState createState() {
+        return new ArenaState(cellCount, capacity, foods.length);
+    }
+
+    /**
+     * Removes a dead snake from the board, releasing every cell it still owns.
+     *
+     * @param snake The id of the snake.
+     */
+    private void removeSnake(int snake) {
+        alive[snake] = false;
+        aliveCount--;
+        int cell = tails[snake];
+        for (int i = 0; i < lengths[snake]; i++) {
+            if (grid.getOwner(cell) == snake + 1) {
+                grid.setOwner(cell, Grid.FREE);
+                setTexture(cell, Grid.EMPTY);
+            }
+            cell = nextCell[cell];
+        }
+    }
+
+    /**
+     * Respawns the food that was eaten in a cell.
+     *
+     * @param cell The cell the food was eaten in.
+     */
+    private void replaceFood(int cell) {
+        for (int i = 0; i < foods.length; i++) {
+            if (foods[i] == cell) {
+                foods[i] = NONE;
+                spawnFood(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Places a food on a random free cell, leaving it unplaced if no free cell is found quickly.
+     *
+     * @param index The index of the food.
+     */
+    private void spawnFood(int index) {
+        for (int attempt = 0; attempt < cellCount; attempt++) {
+            int cell = nextRandom(cellCount);
+            if (grid.getOwner(cell) == Grid.FREE && !isFood(cell)) {
+                foods[index] = cell;
+                setTexture(cell, Grid.FOOD);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks if a cell holds food.
+     *
+     * @param cell The cell id.
+     * @return true if the cell holds food, false otherwise.
+     */
+    private boolean isFood(int cell) {
+        return grid.getTexture(cell) == Grid.FOOD;
+    }
+
+    /**
+     * Sets the texture of a cell.
+     *
+     * @param cell The cell id.
+     * @param texture The texture code.
+     */
+    private void setTexture(int cell, byte texture) {
+        grid.setTexture(cell, texture);
+    }
+
+    /**
+     * Gets the cell next to a cell in a direction.
+     *
+     * @param cell The cell id.
+     * @param direction The direction to look in.
+     * @return The neighbouring cell id, or NONE if it lies outside the grid.
+     */
+    private int neighbour(int cell, Direction direction) {
+        int x = cell % width;
+        return switch (direction) {
+            case UP -> cell < width ? NONE : cell - width;
+            case DOWN -> cell + width >= cellCount ? NONE : cell + width;
+            case LEFT -> x == 0 ? NONE : cell - 1;
+            case RIGHT -> x == width - 1 ? NONE : cell + 1;
+        };
+    }
+
+    /**
+     * Gets the Manhattan distance between two cells.
+     *
+     * @param from The first cell id.
+     * @param to The second cell id.
+     * @return The distance in steps.
+     */
+    private int manhattan(int from, int to) {
+        return Math.abs(from % width - to % width) + Math.abs(from / width - to / width);
+    }
+
+    /**
+     * Gets the head texture for a direction.
+     *
+     * @param direction The direction of the head.
+     * @return The texture code of the head.
+     */
+    private static byte headTexture(Direction direction) {
+        return switch (direction) {
+            case UP -> Grid.HEAD_UP;
+            case DOWN -> Grid.HEAD_DOWN;
+            case LEFT -> Grid.HEAD_LEFT;
+            case RIGHT -> Grid.HEAD_RIGHT;
+        };
+    }
+
+    /**
+     * Advances the xorshift generator and returns a value in the range [0, bound).
+     *
+     * @param bound The exclusive upper bound.
+     * @return The next random value.
+     */
+    private int nextRandom(int bound) {
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 7;
+        randomState ^= randomState << 17;
+        return (int) ((randomState >>> 33) % bound);
+    }
+
+    /**
+     * Gets the grid shared by all snakes.
+     *
+     * @return The grid.
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Gets the number of snakes still alive.
+     *
+     * @return The number of living snakes.
+     */
+    public int getAliveCount() {
+        return aliveCount;
+    }
+
+    /**
+     * Checks if a snake is alive.
+     *
+     * @param snake The id of the snake.
+     * @return true if the snake is alive, false otherwise.
+     */
+    public boolean isAlive(int snake) {
+        return alive[snake];
+    }
+
+    /**
+     * Gets the length of a snake.
+     *
+     * @param snake The id of the snake.
+     * @return The number of cells of the snake.
+     */
+    public int getLength(int snake) {
+        return lengths[snake];
+    }
+
+    /**
+     * Gets the number of ticks applied.
+     *
+     * @return The tick count.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+}
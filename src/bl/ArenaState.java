@@ -0,0 +1,101 @@
+package bl;
+
+import dal.Direction;
+
+/**
+ * Holds a copy of the complete state of an {@link Arena}, so the arena can be put back into it later.
+ * Snapshots are created once per arena size and refilled, so saving the state of a tick allocates nothing.
+ */
+public class ArenaState {
+    // Next cell towards the head for every cell occupied by a snake
+    final int[] nextCell;
+    // Texture code of every cell
+    final byte[] textures;
+    // Owner id of every cell
+    final int[] owners;
+    // Head cell of every snake
+    final int[] heads;
+    // Tail cell of every snake
+    final int[] tails;
+    // Length of every snake
+    final int[] lengths;
+    // Direction of every snake
+    final Direction[] directions;
+    // Flag indicating every snake is alive
+    final boolean[] alive;
+    // Cells holding food
+    final int[] foods;
+    // Number of snakes added
+    int snakeCount;
+    // Number of snakes alive
+    int aliveCount;
+    // Number of ticks applied
+    long tickCount;
+    // State of the generator placing food
+    long randomState;
+
+    /**
+     * Constructor for creating a new empty ArenaState.
+     *
+     * @param cellCount The number of cells of the arena's grid.
+     * @param capacity The maximum number of snakes of the arena.
+     * @param foodCount The number of food cells of the arena.
+     */
+    ArenaState(int cellCount, int capacity, int foodCount) {
+        nextCell = new int[cellCount];
+        textures = new byte[cellCount];
+        owners = new int[cellCount];
+        heads = new int[capacity];
+        tails = new int[capacity];
+        lengths = new int[capacity];
+        directions = new Direction[capacity];
+        alive = new boolean[capacity];
+        foods = new int[foodCount];
+    }
+
+    /**
+     * Computes a checksum of the snapshot. Two arenas that went through the same ticks have equal checksums,
+     * so peers can compare them to detect a simulation that diverged.
+     *
+     * @return The checksum.
+     */
+    public long checksum() {
+        long hash = 0xCBF29CE484222325L;
+        hash = mix(hash, tickCount);
+        hash = mix(hash, randomState);
+        hash = mix(hash, aliveCount);
+        for (int snake = 0; snake < snakeCount; snake++) {
+            hash = mix(hash, heads[snake]);
+            hash = mix(hash, tails[snake]);
+            hash = mix(hash, lengths[snake]);
+            hash = mix(hash, alive[snake] ? directions[snake].ordinal() : -1);
+        }
+        for (int food : foods) {
+            hash = mix(hash, food);
+        }
+        for (int cell = 0; cell < owners.length; cell++) {
+            hash = mix(hash, owners[cell] * 16L + textures[cell]);
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes a value into a running FNV-1a style checksum.
+     *
+     * @param hash The checksum so far.
+     * @param value The value to mix in.
+     * @return The new checksum.
+     */
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x100000001B3L;
+    }
+
+    /**
+     * Gets the number of ticks applied when the snapshot was taken.
+     *
+     * @return The tick count.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+}
@@ -0,0 +1,507 @@
+package bl;
+
+import dal.Cell;
+import dal.Direction;
+import dal.Grid;
+import java.util.Arrays;
+
+/**
+ * Steers the snake automatically.
+ * Each decision runs a breadth-first search from the head to the food over a grid of cell ids
+ * (id = (y - 1) * width + (x - 1)). Body cells are treated as free from the step at which the tail
+ * will have left them, so the search can follow the tail closely.
+ * <p>
+ * On boards with an even number of cells a Hamiltonian cycle is prepared once. The first step of the
+ * search is taken only as a shortcut that keeps the body in cycle order ahead of the tail, otherwise
+ * the snake follows the cycle, which can always fill the board. On other boards, and on boards with
+ * walls, which the cycle would run into, the first step is taken only if, after eating, the tail
+ * would still be reachable from the head; otherwise the snake chases its tail. Walls are never free.
+ * <p>
+ * All buffers are allocated once for the grid size, so deciding a move allocates nothing.
+ * Every decision has a time budget; a search that runs over it is abandoned in favour of the fallback move.
+ */
+public class Autopilot implements DirectionProvider {
+    // Expanded cells between two checks of the time budget
+    private static final int BUDGET_CHECK_INTERVAL = 64;
+    // Cycle distance kept free in front of the tail when taking a shortcut, leaving room to grow
+    private static final int SHORTCUT_TAIL_GAP = 3;
+    // Marks a cell unreachable in the search buffers
+    private static final int NONE = -1;
+    // Number of moves after which a wall is free, which is never
+    private static final int NEVER_FREE = Integer.MAX_VALUE;
+
+    // The grid played on, read for its walls at every decision
+    private final Grid grid;
+
+    // Width of the grid the buffers were allocated for
+    private final int width;
+    // Height of the grid the buffers were allocated for
+    private final int height;
+    // Number of cells of the grid
+    private final int cellCount;
+    // Time budget of a single decision in nanoseconds
+    private final long budgetNanos;
+
+    // Number of moves after which each cell is no longer occupied by the body
+    private final int[] freeAt;
+    // Queue of cell ids for the searches
+    private final int[] queue;
+    // Distance from the search origin, valid for cells stamped in the current search
+    private final int[] distance;
+    // Predecessor on the shortest path, valid for cells stamped in the current search
+    private final int[] parent;
+    // Search stamp per cell, avoids clearing the buffers between searches
+    private final int[] visited;
+    // Stamp of the current search
+    private int stamp;
+    // Cells of the snake after the simulated path to the food, head first
+    private final int[] virtualBody;
+    // Marks cells occupied by the simulated snake
+    private final int[] virtualStamp;
+    // Position of each cell along the Hamiltonian cycle, null if the board has none
+    private final int[] cycleOrder;
+    // Cell at each position along the Hamiltonian cycle, null if the board has none
+    private final int[] cycleCell;
+
+    // Number of decisions made
+    private long decisions;
+    // Number of decisions whose search ran over the budget
+    private long budgetOverruns;
+    // Total time spent deciding in nanoseconds
+    private long totalDecisionNanos;
+    // Longest decision in nanoseconds
+    private long maxDecisionNanos;
+    // Start of the current decision
+    private long decisionStart;
+    // Flag indicating the current decision has used up its budget
+    private boolean budgetExhausted;
+
+    /**
+     * Constructor for creating an Autopilot with a budget of one millisecond per decision.
+     *
+     * @param grid The grid the autopilot will play on.
+     */
+    public Autopilot(Grid grid) {
+        this(grid, 1_000_000L);
+    }
+
+    /**
+     * Constructor for creating an Autopilot with the given time budget per decision.
+     *
+     * @param grid The grid the autopilot will play on.
+     * @param budgetNanos The time budget of a single decision in nanoseconds.
+     */
+    public Autopilot(Grid grid, long budgetNanos) {
+        this.grid = grid;
+        this.width = grid.getXLength();
+        this.height = grid.getYLength();
+        this.cellCount = width * height;
+        this.budgetNanos = budgetNanos;
+        this.freeAt = new int[cellCount];
+        this.queue = new int[cellCount];
+        this.distance = new int[cellCount];
+        this.parent = new int[cellCount];
+        this.visited = new int[cellCount];
+        this.virtualBody = new int[cellCount + 1];
+        this.virtualStamp = new int[cellCount];
+        if (cellCount % 2 == 0) {
+            cycleOrder = new int[cellCount];
+            cycleCell = new int[cellCount];
+            buildCycle();
+        } else {
+            cycleOrder = null;
+            cycleCell = null;
+        }
+    }
+
+    /**
+     * Chooses the direction of the snake for the next update.
+     *
+     * @param logic The game being played.
+     * @return The direction to move in.
+     */
+    @Override
+    public Direction nextDirection(GameLogic logic) {
+        decisionStart = System.nanoTime();
+        budgetExhausted = false;
+        Cell[] snakeCells = logic.getSnakeCells();
+        int head = cellId(snakeCells[0]);
+        int next = decide(snakeCells, logic.getSnakeLength(), head, cellId(logic.getFood()));
+
+        long elapsed = System.nanoTime() - decisionStart;
+        decisions++;
+        totalDecisionNanos += elapsed;
+        if (elapsed > maxDecisionNanos) {
+            maxDecisionNanos = elapsed;
+        }
+        return next == NONE ? logic.getCurrentDirection() : directionTo(head, next);
+    }
+
+    /**
+     * Picks the cell the head should move into.
+     *
+     * @param snakeCells The cells of the snake, head first.
+     * @param length The number of cells of the snake.
+     * @param head The cell id of the head.
+     * @param food The cell id of the food.
+     * @return The chosen cell id, or NONE if every move is fatal.
+     */
+    private int decide(Cell[] snakeCells, int length, int head, int food) {
+        if (grid.getWallCount() == 0) {
+            Arrays.fill(freeAt, 0);
+        } else {
+            // the walls of a level can change between games on a board of the same size
+            for (int cell = 0; cell < cellCount; cell++) {
+                freeAt[cell] = grid.getOwner(cell) == Grid.WALL_OWNER ? NEVER_FREE : 0;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            freeAt[cellId(snakeCells[i])] = length - i;
+        }
+        int tail = cellId(snakeCells[length - 1]);
+
+        int pathLength = search(head, food);
+        if (cycleOrder != null && grid.getWallCount() == 0) {
+            if (pathLength > 0 && isShortcutSafe(head, firstStep(head, food), tail, food, length)) {
+                return firstStep(head, food);
+            }
+            int next = cycleCell[(cycleOrder[head] + 1) % cellCount];
+            return freeAt[next] <= 1 ? next : anyFreeNeighbour(head);
+        }
+
+        if (pathLength > 0 && isTailReachableAfterEating(snakeCells, length, head, food)) {
+            return firstStep(head, food);
+        }
+        int next = length > 1 ? longestWayToTail(head, tail) : NONE;
+        return next != NONE ? next : anyFreeNeighbour(head);
+    }
+
+    /**
+     * Runs a breadth-first search from the origin, treating body cells as free once the tail has left them.
+     *
+     * @param origin The cell id to start from.
+     * @param target The cell id to find.
+     * @return The length of the shortest path to the target, 0 if it is unreachable or the budget ran out.
+     */
+    private int search(int origin, int target) {
+        stamp++;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = origin;
+        visited[origin] = stamp;
+        distance[origin] = 0;
+        parent[origin] = NONE;
+
+        while (head < tail) {
+            if ((head % BUDGET_CHECK_INTERVAL) == BUDGET_CHECK_INTERVAL - 1 && isOverBudget()) {
+                return 0;
+            }
+            int cell = queue[head++];
+            int step = distance[cell] + 1;
+            int x = cell % width;
+            int y = cell / width;
+            for (int d = 0; d < 4; d++) {
+                int nx = x + (d == 0 ? 1 : d == 1 ? -1 : 0);
+                int ny = y + (d == 2 ? 1 : d == 3 ? -1 : 0);
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                    continue;
+                }
+                int neighbour = ny * width + nx;
+                if (visited[neighbour] == stamp || (freeAt[neighbour] > step && neighbour != target)) {
+                    continue;
+                }
+                visited[neighbour] = stamp;
+                distance[neighbour] = step;
+                parent[neighbour] = cell;
+                if (neighbour == target) {
+                    return step;
+                }
+                queue[tail++] = neighbour;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Walks the parents of the last search back from the target to the step right after the origin.
+     *
+     * @param origin The origin of the last search.
+     * @param target The target found by the last search.
+     * @return The first cell on the path.
+     */
+    private int firstStep(int origin, int target) {
+        int cell = target;
+        while (parent[cell] != origin) {
+            cell = parent[cell];
+        }
+        return cell;
+    }
+
+    /**
+     * Checks if moving into the cell keeps the body ordered along the Hamiltonian cycle.
+     * The move may skip cells of the cycle but must stay clear of the tail, and shortcuts stop once the snake fills half the board.
+     *
+     * @param head The cell id of the head.
+     * @param next The cell id the head would move into.
+     * @param tail The cell id of the tail.
+     * @param food The cell id of the food.
+     * @param length The length of the snake.
+     * @return true if the move is safe, false otherwise.
+     */
+    private boolean isShortcutSafe(int head, int next, int tail, int food, int length) {
+        if (freeAt[next] > 1) {
+            return false;
+        }
+        int toNext = cycleDistance(head, next);
+        if (toNext == 1) {
+            return true;
+        }
+        if (length * 2 > cellCount) {
+            return false;
+        }
+        int toTail = length == 1 ? cellCount : cycleDistance(head, tail);
+        return toNext < toTail - SHORTCUT_TAIL_GAP && toNext <= cycleDistance(head, food);
+    }
+
+    /**
+     * Simulates the snake following the last search to the food and checks that its tail is still reachable.
+     *
+     * @param snakeCells The cells of the snake, head first.
+     * @param length The number of cells of the snake.
+     * @param head The cell id of the head.
+     * @param food The cell id of the food.
+     * @return true if the head could reach the tail after eating, false otherwise.
+     */
+    private boolean isTailReachableAfterEating(Cell[] snakeCells, int length, int head, int food) {
+        int virtualLength = length + 1;
+        int size = 0;
+        for (int cell = food; cell != head && size < virtualLength; cell = parent[cell]) {
+            virtualBody[size++] = cell;
+        }
+        for (int i = 0; size < virtualLength; i++) {
+            virtualBody[size++] = cellId(snakeCells[i]);
+        }
+
+        stamp++;
+        int blocked = stamp;
+        for (int i = 0; i < virtualLength - 1; i++) {
+            virtualStamp[virtualBody[i]] = blocked;
+        }
+        int virtualTail = virtualBody[virtualLength - 1];
+
+        stamp++;
+        int first = 0;
+        int last = 0;
+        queue[last++] = food;
+        visited[food] = stamp;
+        while (first < last) {
+            if ((first % BUDGET_CHECK_INTERVAL) == BUDGET_CHECK_INTERVAL - 1 && isOverBudget()) {
+                return false;
+            }
+            int cell = queue[first++];
+            int x = cell % width;
+            int y = cell / width;
+            for (int d = 0; d < 4; d++) {
+                int nx = x + (d == 0 ? 1 : d == 1 ? -1 : 0);
+                int ny = y + (d == 2 ? 1 : d == 3 ? -1 : 0);
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                    continue;
+                }
+                int neighbour = ny * width + nx;
+                if (neighbour == virtualTail) {
+                    return true;
+                }
+                if (visited[neighbour] == stamp || virtualStamp[neighbour] == blocked
+                    || freeAt[neighbour] == NEVER_FREE) {
+                    continue;
+                }
+                visited[neighbour] = stamp;
+                queue[last++] = neighbour;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the neighbouring cell from which the tail is reachable by the longest shortest path.
+     * Chasing the tail the long way round changes the shape of the body, which eventually opens a safe path to the food.
+     *
+     * @param head The cell id of the head.
+     * @param tail The cell id of the tail.
+     * @return The chosen neighbouring cell id, or NONE if the tail is unreachable from every neighbour.
+     */
+    private int longestWayToTail(int head, int tail) {
+        int best = NONE;
+        int bestLength = 0;
+        int x = head % width;
+        int y = head / width;
+        for (int d = 0; d < 4; d++) {
+            int nx = x + (d == 0 ? 1 : d == 1 ? -1 : 0);
+            int ny = y + (d == 2 ? 1 : d == 3 ? -1 : 0);
+            if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                continue;
+            }
+            int neighbour = ny * width + nx;
+            if (freeAt[neighbour] > 1) {
+                continue;
+            }
+            int pathLength = neighbour == tail ? 1 : search(neighbour, tail);
+            if (pathLength > bestLength) {
+                best = neighbour;
+                bestLength = pathLength;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds any neighbouring cell the head can move into without dying.
+     *
+     * @param head The cell id of the head.
+     * @return A free neighbouring cell id, or NONE if there is none.
+     */
+    private int anyFreeNeighbour(int head) {
+        int x = head % width;
+        int y = head / width;
+        for (int d = 0; d < 4; d++) {
+            int nx = x + (d == 0 ? 1 : d == 1 ? -1 : 0);
+            int ny = y + (d == 2 ? 1 : d == 3 ? -1 : 0);
+            if (nx >= 0 && ny >= 0 && nx < width && ny < height && freeAt[ny * width + nx] <= 1) {
+                return ny * width + nx;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Checks the time budget of the current decision, counting an overrun once per decision.
+     *
+     * @return true if the budget is used up, false otherwise.
+     */
+    private boolean isOverBudget() {
+        if (!budgetExhausted && System.nanoTime() - decisionStart > budgetNanos) {
+            budgetExhausted = true;
+            budgetOverruns++;
+        }
+        return budgetExhausted;
+    }
+
+    /**
+     * Builds a Hamiltonian cycle that snakes through every row (or column) and returns along the first column (or row).
+     * One of the dimensions is even because the board has an even number of cells.
+     */
+    private void buildCycle() {
+        boolean byRows = height % 2 == 0;
+        int lines = byRows ? height : width;
+        int span = byRows ? width : height;
+        int position = 0;
+        for (int line = 0; line < lines; line++) {
+            int from = line == 0 ? 0 : 1;
+            for (int i = from; i < span; i++) {
+                int along = line % 2 == 1 ? span - i : i;
+                addToCycle(position++, byRows ? along : line, byRows ? line : along);
+            }
+        }
+        for (int line = lines - 1; line > 0; line--) {
+            addToCycle(position++, byRows ? 0 : line, byRows ? line : 0);
+        }
+    }
+
+    /**
+     * Places a cell at the given position of the Hamiltonian cycle.
+     *
+     * @param position The position along the cycle.
+     * @param x The zero-based X-coordinate of the cell.
+     * @param y The zero-based Y-coordinate of the cell.
+     */
+    private void addToCycle(int position, int x, int y) {
+        int cell = y * width + x;
+        cycleOrder[cell] = position;
+        cycleCell[position] = cell;
+    }
+
+    /**
+     * Counts the steps from one cell to another along the Hamiltonian cycle.
+     *
+     * @param from The cell id to start from.
+     * @param to The cell id to reach.
+     * @return The number of steps along the cycle.
+     */
+    private int cycleDistance(int from, int to) {
+        int steps = cycleOrder[to] - cycleOrder[from];
+        return steps < 0 ? steps + cellCount : steps;
+    }
+
+    /**
+     * Converts a cell into its id.
+     *
+     * @param cell The cell to convert.
+     * @return The cell id.
+     */
+    private int cellId(Cell cell) {
+        return (cell.getY() - 1) * width + (cell.getX() - 1);
+    }
+
+    /**
+     * Gets the direction leading from a cell into a neighbouring cell.
+     *
+     * @param from The cell id to move from.
+     * @param to The neighbouring cell id to move into.
+     * @return The direction of the move.
+     */
+    private Direction directionTo(int from, int to) {
+        if (to == from + 1) {
+            return Direction.RIGHT;
+        }
+        if (to == from - 1) {
+            return Direction.LEFT;
+        }
+        return to > from ? Direction.DOWN : Direction.UP;
+    }
+
+    /**
+     * Clears the decision statistics, for example before a new game.
+     */
+    public void resetStatistics() {
+        decisions = 0;
+        budgetOverruns = 0;
+        totalDecisionNanos = 0;
+        maxDecisionNanos = 0;
+    }
+
+    /**
+     * Gets the number of decisions made.
+     *
+     * @return The number of decisions.
+     */
+    public long getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * Gets the number of decisions whose search ran over the time budget.
+     *
+     * @return The number of budget overruns.
+     */
+    public long getBudgetOverruns() {
+        return budgetOverruns;
+    }
+
+    /**
+     * Gets the longest time spent on a single decision.
+     *
+     * @return The longest decision in nanoseconds.
+     */
+    public long getMaxDecisionNanos() {
+        return maxDecisionNanos;
+    }
+
+    /**
+     * Gets the average time spent on a decision.
+     *
+     * @return The average decision time in nanoseconds.
+     */
+    public long getAverageDecisionNanos() {
+        return decisions == 0 ? 0 : totalDecisionNanos / decisions;
+    }
+}
@@ -0,0 +1,17 @@
+package bl;
+
+import dal.Direction;
+
+/**
+ * Supplies the direction of the snake for the next update of a game.
+ * Implementations let something other than the keyboard steer the snake, such as a bot.
+ */
+public interface DirectionProvider {
+    /**
+     * Chooses the direction of the snake for the next update.
+     *
+     * @param logic The game being played.
+     * @return The direction to move in.
+     */
+    Direction nextDirection(GameLogic logic);
+}
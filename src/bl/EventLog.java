@@ -0,0 +1,451 @@
+package bl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Writes log events to a file without slowing down the thread that logs them.
+ * Events go into a ring of preallocated slots: a logging thread claims a slot, stores the level, the time, the
+ * message and up to two numbers in it and publishes it, which costs a few stores and no allocation. A background
+ * thread picks up the published slots, formats them and writes them to the file, so formatting and I/O never run
+ * on the game loop. When the ring is full the event is dropped and counted instead of making the caller wait.
+ * <p>
+ * An event below the configured level is rejected by a single comparison, before anything else is done. Loggers of
+ * {@code java.util.logging}, such as the one of JLine, are routed into the same ring by {@link #capture(String)}:
+ * their records are formatted on the background thread as well.
+ * <p>
+ * Messages of our own events are constant strings in which {0} and {1} stand for the two numbers, so logging them
+ * never builds a string on the calling thread.
+ */
+public final class EventLog implements AutoCloseable {
+    // Number of slots of the ring unless another number is asked for, a power of two
+    public static final int DEFAULT_CAPACITY = 1 << 12;
+    // Time the background thread sleeps when the ring is empty
+    private static final long POLL_NANOS = 10_000_000L;
+    // Format of the time stamp of every line
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    // Log every event is written to unless another one is installed, accepting no events
+    private static volatile EventLog instance = new EventLog(null, Level.OFF, 1);
+
+    // File the events are written to, null for a log accepting no events
+    private final Path path;
+    // Lowest level written
+    private final Level level;
+    // Integer value of the lowest level written, OFF once the log is closed
+    private volatile int threshold;
+    // Mask selecting the slot of a sequence number
+    private final int mask;
+    // Sequence number every slot was last published with, -1 for a slot never published
+    private final AtomicLongArray published;
+    // Next sequence number to claim
+    private final AtomicLong claimed = new AtomicLong();
+    // Sequence number of the next slot the background thread writes, so slots before it can be reused
+    private volatile long consumed;
+    // Number of events dropped because the ring was full
+    private final AtomicLong dropped = new AtomicLong();
+    // Level of the event in every slot
+    private final Level[] levels;
+    // Time of the event in every slot, in milliseconds since the epoch
+    private final long[] times;
+    // Name of the thread that logged the event in every slot
+    private final String[] threads;
+    // Message of the event in every slot, null for a captured record
+    private final String[] messages;
+    // First number of the event in every slot
+    private final long[] firsts;
+    // Second number of the event in every slot
+    private final long[] seconds;
+    // Record of a captured logger in every slot, null for an event of our own
+    private final LogRecord[] records;
+    // Handler routing the records of captured loggers into the ring
+    private final Handler handler = new RingHandler();
+    // Loggers routed into the ring, kept referenced so their level is not lost when they are collected
+    private final List<Logger> capturedLoggers = new ArrayList<>();
+    // Formatter of the messages of captured records, used by the background thread only
+    private final SimpleFormatter recordFormatter = new SimpleFormatter();
+    // Line being formatted, reused by the background thread
+    private final StringBuilder line = new StringBuilder(256);
+    // Thread formatting and writing the events, null until started and for a log accepting no events
+    private Thread thread;
+    // Writer of the file, opened when the first event is written
+    private Writer writer;
+    // Flag telling the background thread to write the remaining events and stop
+    private volatile boolean isClosed;
+    // Number of events written
+    private volatile long written;
+
+    /**
+     * Constructor for creating a new EventLog. Events are taken until the ring is full, and written once
+     * {@link #start()} starts the background thread.
+     *
+     * @param path The file the events are appended to, created when the first event is written; null for a log
+     *             accepting no events.
+     * @param level The lowest level written.
+     * @param capacity The number of events the ring holds, rounded up to a power of two.
+     */
+    public EventLog(Path path, Level level, int capacity) {
+        this.path = path;
+        this.level = path == null ? Level.OFF : level;
+        this.threshold = this.level.intValue();
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        published = new AtomicLongArray(size);
+        for (int slot = 0; slot < size; slot++) {
+            published.set(slot, -1);
+        }
+        levels = new Level[size];
+        times = new long[size];
+        threads = new String[size];
+        messages = new String[size];
+        firsts = new long[size];
+        seconds = new long[size];
+        records = new LogRecord[size];
+    }
+
+    /**
+     * Starts the background thread writing the events, unless the log accepts no events or it runs already.
+     */
+    public synchronized void start() {
+        if (path == null || thread != null) {
+            return;
+        }
+        thread = new Thread(this::run, "event-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gets the log events are written to.
+     *
+     * @return The installed log, or a log accepting no events if none was installed.
+     */
+    public static EventLog getInstance() {
+        return instance;
+    }
+
+    /**
+     * Installs a log as the one events are written to, starts it, and writes the remaining events of it when the JVM
+     * exits.
+     *
+     * @param log The log to install.
+     */
+    public static void install(EventLog log) {
+        log.start();
+        instance = log;
+        Runtime.getRuntime().addShutdownHook(new Thread(log::close, "event-log-shutdown"));
+    }
+
+    /**
+     * Routes a logger of {@code java.util.logging} into the ring, at the level of this log, instead of its parent's
+     * handlers.
+     *
+     * @param name The name of the logger, such as "org.jline".
+     */
+    public synchronized void capture(String name) {
+        Logger logger = Logger.getLogger(name);
+        logger.setLevel(level);
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+        capturedLoggers.add(logger);
+    }
+
+    /**
+     * Checks if events of a level are written. Callers only need it before work that is not free, such as reading
+     * a clock for one of the numbers.
+     *
+     * @param level The level.
+     * @return true if events of the level are written, false if they are rejected.
+     */
+    public boolean isLoggable(Level level) {
+        return level.intValue() >= threshold;
+    }
+
+    /**
+     * Logs an event without numbers.
+     *
+     * @param level The level of the event.
+     * @param message The message, a constant string.
+     */
+    public void log(Level level, String message) {
+        if (level.intValue() >= threshold) {
+            append(level, message, 0, 0, null);
+        }
+    }
+
+    /**
+     * Logs an event with one number, written in place of {0} in the message.
+     *
+     * @param level The level of the event.
+     * @param message The message, a constant string.
+     * @param first The number.
+     */
+    public void log(Level level, String message, long first) {
+        if (level.intValue() >= threshold) {
+            append(level, message, first, 0, null);
+        }
+    }
+
+    /**
+     * Logs an event with two numbers, written in place of {0} and {1} in the message.
+     *
+     * @param level The level of the event.
+     * @param message The message, a constant string.
+     * @param first The first number.
+     * @param second The second number.
+     */
+    public void log(Level level, String message, long first, long second) {
+        if (level.intValue() >= threshold) {
+            append(level, message, first, second, null);
+        }
+    }
+
+    /**
+     * Claims a slot, fills it and publishes it, or drops the event if the ring is full.
+     *
+     * @param level The level of the event.
+     * @param message The message, or null for a captured record.
+     * @param first The first number.
+     * @param second The second number.
+     * @param record The captured record, or null for an event of our own.
+     */
+    private void append(Level level, String message, long first, long second, LogRecord record) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed > mask) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        int slot = (int) sequence & mask;
+        levels[slot] = level;
+        times[slot] = record == null ? System.currentTimeMillis() : record.getMillis();
+        threads[slot] = Thread.currentThread().getName();
+        messages[slot] = message;
+        firsts[slot] = first;
+        seconds[slot] = second;
+        records[slot] = record;
+        published.lazySet(slot, sequence);
+    }
+
+    /**
+     * Writes published events until the log is closed, sleeping while the ring is empty.
+     */
+    private void run() {
+        while (true) {
+            boolean isClosing = isClosed;
+            int count = drain();
+            if (isClosing && count == 0) {
+                break;
+            }
+            if (count == 0) {
+                flush();
+                LockSupport.parkNanos(this, POLL_NANOS);
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Writes every published event in order and frees their slots.
+     *
+     * @return The number of events written.
+     */
+    private int drain() {
+        long next = consumed;
+        int count = 0;
+        int slot;
+        while (published.get(slot = (int) next & mask) == next) {
+            write(slot);
+            levels[slot] = null;
+            messages[slot] = null;
+            records[slot] = null;
+            next++;
+            count++;
+            // free the slots in batches, so producers do not contend with every write
+            if ((count & 63) == 0) {
+                consumed = next;
+            }
+        }
+        consumed = next;
+        written += count;
+        return count;
+    }
+
+    /**
+     * Formats the event of a slot and writes it as one line.
+     *
+     * @param slot The slot.
+     */
+    private void write(int slot) {
+        line.setLength(0);
+        TIME_FORMAT.formatTo(LocalDateTime.ofInstant(Instant.ofEpochMilli(times[slot]), ZoneId.systemDefault()), line);
+        line.append(' ').append(levels[slot].getName()).append(" [").append(threads[slot]).append("] ");
+        LogRecord record = records[slot];
+        if (record != null) {
+            line.append(record.getLoggerName()).append(": ").append(recordFormatter.formatMessage(record));
+            if (record.getThrown() != null) {
+                StringWriter trace = new StringWriter();
+                record.getThrown().printStackTrace(new PrintWriter(trace));
+                line.append(System.lineSeparator()).append(trace.toString().stripTrailing());
+            }
+        } else {
+            appendMessage(messages[slot], firsts[slot], seconds[slot]);
+        }
+        line.append(System.lineSeparator());
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            }
+            writer.append(line);
+        } catch (IOException ex) {
+            // a log that cannot be written must not take the game down; its events are lost
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Appends a message to the line, writing the numbers in place of {0} and {1}.
+     *
+     * @param message The message.
+     * @param first The first number.
+     * @param second The second number.
+     */
+    private void appendMessage(String message, long first, long second) {
+        int start = 0;
+        int index;
+        while ((index = message.indexOf('{', start)) >= 0 && index + 2 < message.length()) {
+            char digit = message.charAt(index + 1);
+            if ((digit == '0' || digit == '1') && message.charAt(index + 2) == '}') {
+                line.append(message, start, index).append(digit == '0' ? first : second);
+            } else {
+                line.append(message, start, index + 1);
+                start = index + 1;
+                continue;
+            }
+            start = index + 3;
+        }
+        line.append(message, start, message.length());
+    }
+
+    /**
+     * Flushes the file, if it was opened.
+     */
+    private void flush() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops accepting events, writes the ones still in the ring and closes the file.
+     */
+    @Override
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        threshold = Level.OFF.intValue();
+        isClosed = true;
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the lowest level written.
+     *
+     * @return The level, OFF for a log accepting no events.
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the number of events dropped because the ring was full or the file could not be written.
+     *
+     * @return The number of dropped events.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of events written.
+     *
+     * @return The number of events written, as seen by the background thread.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Handler of {@code java.util.logging} putting the records of captured loggers into the ring.
+     */
+    private class RingHandler extends Handler {
+        /**
+         * Puts a record into the ring, unless its level is below the log's.
+         *
+         * @param record The record.
+         */
+        @Override
+        public void publish(LogRecord record) {
+            if (record != null && record.getLevel().intValue() >= threshold) {
+                append(record.getLevel(), null, 0, 0, record);
+            }
+        }
+
+        /**
+         * Does nothing, the background thread flushes the file.
+         */
+        @Override
+        public void flush() {
+        }
+
+        /**
+         * Does nothing, the log closes the file.
+         */
+        @Override
+        public void close() {
+        }
+    }
+}
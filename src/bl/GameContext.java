@@ -0,0 +1,93 @@
+package bl;
+
+import dal.Direction;
+import dal.Grid;
+import java.io.IOException;
+
+/**
+ * Keeps the grid, game logic and autopilot of a session so consecutive games reuse them.
+ * Preparing the next game clears only the cells the previous game touched and resets the logic in place;
+ * arrays are reallocated only when the board grows beyond anything played before.
+ */
+public class GameContext {
+    // The grid reused by every game
+    private final Grid grid;
+    // The game logic reused by every game
+    private final GameLogic logic;
+    // The autopilot for the current board size, created on first use
+    private Autopilot autopilot;
+    // Width of the board the autopilot was created for
+    private int autopilotXLength;
+    // Height of the board the autopilot was created for
+    private int autopilotYLength;
+
+    /**
+     * Constructor for creating a new GameContext around existing game logic.
+     *
+     * @param logic The game logic to reuse, together with its grid.
+     */
+    public GameContext(GameLogic logic) {
+        this.logic = logic;
+        this.grid = logic.getGrid();
+    }
+
+    /**
+     * Prepares a new game on a board of the given size.
+     *
+     * @param xLength The length of the board in the X-direction.
+     * @param yLength The length of the board in the Y-direction.
+     * @throws IllegalArgumentException If the provided dimensions are not within the grid's limits.
+     */
+    public void prepare(int xLength, int yLength) {
+        grid.resize(xLength, yLength);
+        logic.setSpawn(1, 1, Direction.RIGHT);
+        logic.reset();
+    }
+
+    /**
+     * Prepares a new game on a level of a pack, starting from the level's first spawn point.
+     *
+     * @param pack The level pack.
+     * @param level The index of the level.
+     * @throws IOException If the level record is corrupted.
+     * @throws IllegalArgumentException If the level index is out of range.
+     */
+    public void prepareLevel(LevelPack pack, int level) throws IOException {
+        pack.load(level, grid);
+        logic.setSpawn(pack.getSpawnX(level, 0), pack.getSpawnY(level, 0), pack.getSpawnDirection(level, 0));
+        logic.reset();
+    }
+
+    /**
+     * Gets an autopilot for the current board with cleared statistics, reusing the previous one if the size is unchanged.
+     *
+     * @return The autopilot.
+     */
+    public Autopilot getAutopilot() {
+        if (autopilot == null || autopilotXLength != grid.getXLength() || autopilotYLength != grid.getYLength()) {
+            autopilot = new Autopilot(grid);
+            autopilotXLength = grid.getXLength();
+            autopilotYLength = grid.getYLength();
+        }
+        autopilot.resetStatistics();
+        return autopilot;
+    }
+
+    /**
+     * Gets the grid reused by every game.
+     *
+     * @return The grid.
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Gets the game logic reused by every game.
+     *
+     * @return The game logic.
+     */
+    public GameLogic getLogic() {
+        return logic;
+    }
+}
@@ -3,27 +3,127 @@ package bl;
 import dal.Cell;
 import dal.Direction;
 import dal.Grid;
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 
 /**
  * Manages the game logic for the snake game.
  * This class handles the movement of the snake, collisions with food, and game state (win/lose conditions).
+ * The snake's cells are kept in an array that only grows, and a finished game can be reset in place,
+ * so neither an update nor a new game allocates once the array has reached the size of the board.
+ * <p>
+ * The state is fingerprinted by a 64-bit Zobrist hash: a fixed random key for every occupied cell, for the head
+ * cell, for the food cell and for the direction, XORed together. Every update XORs out the keys of what left and
+ * XORs in the keys of what arrived, so the hash costs a few operations per tick and is always up to date. The keys
+ * come from a fixed seed, so equal states have equal hashes in every process.
+ * <p>
+ * Timed entities, such as food that expires, schedule their events in a {@link TimingWheel} keyed by tick number.
+ * The events that are due fire in one batch at the start of every update, so an update costs no more with many
+ * timed entities on the board than with none, apart from the events that actually fire.
+ * <p>
+ * With trap detection on, every update checks whether the snake has sealed itself into a region too small to
+ * survive in. A body cell frees once the tail has passed it, so the head can only leave its region of free cells
+ * through a body cell next to it, and only after that cell has freed. If the region holds fewer cells than the
+ * moves that takes, the game is certain to be lost. The check fills the region from the head, but stops as soon as
+ * the region is known to be large enough, and the escape it found is kept for the following updates as long as
+ * the head does not cut the region apart, which only takes a look at the cells around the head.
  */
 public class GameLogic {
+    // Entity id of the food in the timing wheel, other timed entities use other ids
+    public static final int FOOD_ENTITY = 0;
+    // Owner id of the snake in the grid's occupancy table
+    private static final int SNAKE_ID = 1;
+    // Marks a missing escape cell and a neighbour outside the grid
+    private static final int NO_ESCAPE = -1;
+    // Cells a fill adds to the region beyond what is needed, so its escape stays valid while the snake grows
+    private static final int TRAP_SLACK = 16;
+    // Largest number of cells of a grid, the number of keys per cell kind
+    private static final int MAX_CELLS = Grid.MAX_X_LENGTH * Grid.MAX_Y_LENGTH;
+    // Zobrist key of every cell occupied by the snake, indexed by cell id
+    private static final long[] BODY_KEYS;
+    // Zobrist key of the head cell, indexed by cell id
+    private static final long[] HEAD_KEYS;
+    // Zobrist key of the food cell, indexed by cell id
+    private static final long[] FOOD_KEYS;
+    // Zobrist key of every direction, indexed by ordinal
+    private static final long[] DIRECTION_KEYS;
+
+    static {
+        long[] seed = {0x5EED5A4E0B1A5L};
+        BODY_KEYS = createKeys(seed, MAX_CELLS);
+        HEAD_KEYS = createKeys(seed, MAX_CELLS);
+        FOOD_KEYS = createKeys(seed, MAX_CELLS);
+        DIRECTION_KEYS = createKeys(seed, Direction.values().length);
+    }
+
     // The grid on which the game is played
     private Grid grid;
-    // Array representing the snake's cells
+    // Array representing the snake's cells, only the first snakeLength entries belong to the snake
     private Cell[] snakeCells = new Cell[1];
+    // Number of cells of the snake
+    private int snakeLength = 1;
+    // The last cell of the snake before the current update
+    private final Cell lastCell;
     // The cell representing the food
     private Cell food;
     // The current direction of the snake's movement
     private Direction currentDirection = Direction.RIGHT;
+    // State of the xorshift generator used to place food, kept so a saved game resumes identically
+    private long randomState = System.nanoTime() | 1L;
+    // Number of updates applied since the game started
+    private long tickCount;
+    // Optional provider steering the snake instead of the player
+    private DirectionProvider directionProvider;
+    // Flag indicating the head moved into a cell occupied by the body or a wall
+    private boolean isHeadCollided;
+    // X-coordinate the snake starts at after a reset
+    private int spawnX = 1;
+    // Y-coordinate the snake starts at after a reset
+    private int spawnY = 1;
+    // Direction the snake starts in after a reset
+    private Direction spawnDirection = Direction.RIGHT;
+    // Flag indicating the food is on the grid
+    private boolean isFoodPlaced;
+    // Zobrist hash of the current state
+    private long zobristHash;
+    // Owner of the cell the head entered in the last update, before the snake claimed it
+    private int enteredOwner;
+    // Buffer recording every update so it can be rewound, null if rewinding is off
+    private RewindBuffer rewindBuffer;
+    // Cells released by the tail in the ticks being rewound, reused by every rewind
+    private int[] rewoundTails = new int[0];
+    // Events of the board's timed entities, fired at the start of every update
+    private final TimingWheel timers = new TimingWheel(16);
+    // Receives the events that fire and passes them on to the entity they belong to
+    private final TimingWheel.Listener timerDispatcher = this::onTimer;
+    // Listener receiving the events of entities other than the food, null if there are none
+    private TimingWheel.Listener entityListener;
+    // Number of ticks food stays in place before it expires, 0 if it never does
+    private int foodLifetime;
+    // Handle of the event expiring the food, NO_TIMER if none is pending
+    private long foodTimer = TimingWheel.NO_TIMER;
+    // Cell the food expired from in the current update, NO_CELL if it did not expire
+    private int expiredFoodCell = RewindBuffer.NO_CELL;
+    // Update in which the head entered every cell, indexed by cell id, null if trap detection is off
+    private int[] entryTicks;
+    // Queue of cell ids for filling the head's region
+    private int[] trapQueue;
+    // Fill stamp per cell, avoids clearing the buffer between fills
+    private int[] trapStamps;
+    // Stamp of the current fill
+    private int trapStamp;
+    // Flag indicating the snake is sealed into a region too small to survive in
+    private boolean isTrapped;
+    // Body cell next to the head's region that frees early enough to escape through, NO_ESCAPE if none is known
+    private int escapeCell = NO_ESCAPE;
+    // Free cell of the region next to the escape cell
+    private int escapeNeighbour;
+    // Number of cells of the head's region known to be reachable
+    private int regionSize;
 
     // A map that associates each direction with its corresponding texture
-    private Map<Direction, String> keyTextures = new HashMap<>();
+    private Map<Direction, Byte> keyTextures = new HashMap<>();
     /**
      * Constructor for creating a new GameLogic instance.
      *
@@ -37,18 +137,56 @@ public class GameLogic {
         this.grid = grid;
         snakeCells[0] = snakeHead;
         snakeHead.setTexture(keyTextures.get(currentDirection));
+        lastCell = new Cell(grid);
 
         food = new Cell(grid);
-        food.setTexture("X");
+        food.setTexture(Grid.FOOD);
 
         initializeGameTable();
         //spawnFood();
+        zobristHash = computeZobristHash();
+    }
+    /**
+     * Constructor for restoring a game from previously saved state.
+     * The grid is repainted from the given cells directly, no updates are replayed.
+     *
+     * @param grid The grid on which the game is played.
+     * @param snakeCells The cells of the snake, head first.
+     * @param food The cell holding the food.
+     * @param direction The direction the snake was moving in.
+     * @param randomState The saved state of the food generator.
+     * @param tickCount The number of updates applied before the game was saved.
+     */
+    public GameLogic(Grid grid, Cell[] snakeCells, Cell food, Direction direction, long randomState, long tickCount) {
+        keyTextures = initializeKeyTextures();
+        this.grid = grid;
+        this.snakeCells = snakeCells;
+        this.snakeLength = snakeCells.length;
+        this.lastCell = new Cell(grid);
+        this.food = food;
+        this.currentDirection = direction;
+        this.randomState = randomState == 0 ? 1L : randomState;
+        this.tickCount = tickCount;
+        timers.reset(tickCount);
+
+        snakeCells[0].setTexture(keyTextures.get(direction));
+        food.setTexture(Grid.FOOD);
+        for (Cell cell : snakeCells) {
+            grid.setTexture(cell.getX(), cell.getY(), cell.getTexture());
+            grid.setOwner(cell.getX(), cell.getY(), SNAKE_ID);
+        }
+        if (!isGameWon()) {
+            grid.setTexture(food.getX(), food.getY(), food.getTexture());
+            isFoodPlaced = true;
+        }
+        zobristHash = computeZobristHash();
     }
     /**
      * Initializes the game table by setting the texture of the snake's initial position.
      */
     private void initializeGameTable() throws Exception {
         grid.setTexture(snakeCells[0].getX(), snakeCells[0].getY(), snakeCells[0].getTexture());
+        grid.setOwner(snakeCells[0].getX(), snakeCells[0].getY(), SNAKE_ID);
     }
 
     /**
@@ -61,6 +199,62 @@ public class GameLogic {
         this.grid = grid;
         initializeGameTable();
         spawnFood();
+        zobristHash = computeZobristHash();
+    }
+
+    /**
+     * Resets the game in place for a new run on the current grid, which is expected to have been cleared
+     * except for any walls of the level. The snake shrinks back to a single cell on the spawn point, and new food is placed.
+     * Cells grown in earlier games are kept for reuse.
+     */
+    public void reset() {
+        reset(System.nanoTime());
+    }
+
+    /**
+     * Resets the game in place like {@link #reset()}, seeding the food generator so the run can be reproduced.
+     *
+     * @param seed The seed of the food generator.
+     */
+    public void reset(long seed) {
+        Cell head = snakeCells[0];
+        head.setX(spawnX);
+        head.setY(spawnY);
+        snakeLength = 1;
+        currentDirection = spawnDirection;
+        head.setTexture(keyTextures.get(currentDirection));
+        randomState = seed | 1L;
+        tickCount = 0;
+        timers.reset(0);
+        foodTimer = TimingWheel.NO_TIMER;
+        isHeadCollided = false;
+        isTrapped = false;
+        directionProvider = null;
+
+        grid.setTexture(head.getX(), head.getY(), head.getTexture());
+        grid.setOwner(head.getX(), head.getY(), SNAKE_ID);
+        isFoodPlaced = false;
+        spawnFood();
+        zobristHash = computeZobristHash();
+        if (rewindBuffer != null) {
+            rewindBuffer.clear();
+        }
+        if (entryTicks != null) {
+            restartTrapDetection();
+        }
+    }
+
+    /**
+     * Sets where the snake starts after the next reset. Defaults to the top left corner moving right.
+     *
+     * @param x The X-coordinate of the spawn point.
+     * @param y The Y-coordinate of the spawn point.
+     * @param direction The initial direction of the snake.
+     */
+    public void setSpawn(int x, int y, Direction direction) {
+        this.spawnX = x;
+        this.spawnY = y;
+        this.spawnDirection = direction;
     }
 
     /**
@@ -68,92 +262,599 @@ public class GameLogic {
      *
      * @return A HashMap associating each direction with its corresponding texture.
      */
-    private static HashMap<Direction, String> initializeKeyTextures() {
-        HashMap<Direction, String> keyTextures = new HashMap<>();
-        keyTextures.put(Direction.LEFT, "◄");
-        keyTextures.put(Direction.RIGHT, "►");
-        keyTextures.put(Direction.UP, "▲");
-        keyTextures.put(Direction.DOWN, "▼");
+    private static HashMap<Direction, Byte> initializeKeyTextures() {
+        HashMap<Direction, Byte> keyTextures = new HashMap<>();
+        keyTextures.put(Direction.LEFT, Grid.HEAD_LEFT);
+        keyTextures.put(Direction.RIGHT, Grid.HEAD_RIGHT);
+        keyTextures.put(Direction.UP, Grid.HEAD_UP);
+        keyTextures.put(Direction.DOWN, Grid.HEAD_DOWN);
 
         return keyTextures;
     }
     /**
-     * Randomly places food on the grid, ensuring it does not overlap with the snake.
+     * Randomly places food on the grid, ensuring it does not overlap with the snake or a wall.
+     * Each attempt is checked against the grid's occupancy table in constant time.
      */
     private void spawnFood() {
-        Random r = new Random();
-        boolean isFoodXYEqualSnakeXY;
         int x, y;
-        int cellCounter = snakeCells.length;
+        int cellCounter = snakeLength;
 
-        if(cellCounter != grid.getXLength()*grid.getYLength())
+        if(cellCounter != grid.getOpenCellCount())
         {
             do
             {
-                isFoodXYEqualSnakeXY = false;
-                x = r.nextInt(1, grid.getXLength() + 1);
-                y = r.nextInt(1, grid.getYLength() + 1);
-
-                for (int i = 0; i < snakeCells.length; i++)
-                {
-                    if (x == snakeCells[i].getX() && y == snakeCells[i].getY())
-                    {
-                        isFoodXYEqualSnakeXY = true;
-                    }
-
-                }
-            } while (isFoodXYEqualSnakeXY);
+                x = nextRandom(grid.getXLength()) + 1;
+                y = nextRandom(grid.getYLength()) + 1;
+            } while (grid.getOwner(x, y) != Grid.FREE);
 
 
 
             food.setX(x);
             food.setY(y);
             grid.setTexture(food.getX(), food.getY(), food.getTexture());
+            isFoodPlaced = true;
+            zobristHash ^= key(FOOD_KEYS, x, y);
         }
-
+        scheduleFoodExpiry();
+    }
+    /**
+     * Schedules the expiry of the food on the grid, replacing any expiry scheduled before.
+     * Food placed during an update expires at the start of the update the lifetime later.
+     */
+    private void scheduleFoodExpiry() {
+        timers.cancel(foodTimer);
+        foodTimer = foodLifetime > 0 && isFoodPlaced
+            ? timers.schedule(timers.getCurrentTick() + foodLifetime, FOOD_ENTITY) : TimingWheel.NO_TIMER;
+    }
+    /**
+     * Handles an event of a timed entity that is due.
+     *
+     * @param entity The entity the event belongs to.
+     * @param tick The tick the event fires in.
+     */
+    private void onTimer(int entity, long tick) {
+        if (entity == FOOD_ENTITY) {
+            expireFood();
+        } else if (entityListener != null) {
+            entityListener.onTimer(entity, tick);
+        }
+    }
+    /**
+     * Removes the food whose lifetime ran out and places new food elsewhere.
+     */
+    private void expireFood() {
+        foodTimer = TimingWheel.NO_TIMER;
+        if (!isFoodPlaced) {
+            return;
+        }
+        expiredFoodCell = grid.getCellId(food.getX(), food.getY());
+        grid.setTexture(food.getX(), food.getY(), grid.getDefaultTexture());
+        zobristHash ^= key(FOOD_KEYS, food.getX(), food.getY());
+        isFoodPlaced = false;
+        spawnFood();
+    }
+    /**
+     * Advances the xorshift generator and returns a value in the range [0, bound).
+     *
+     * @param bound The exclusive upper bound.
+     * @return The next random value.
+     */
+    private int nextRandom(int bound) {
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 7;
+        randomState ^= randomState << 17;
+        return (int) ((randomState >>> 33) % bound);
     }
     /**
      * Updates the game table based on the current direction of the snake.
-     * Handles the movement of the snake and checks for collisions with food.
+     * Fires the events of timed entities that are due, then handles the movement of the snake and checks for
+     * collisions with food.
      *
      * @param direction The new direction in which the snake is moving.
-     * @throws IOException If an I/O error occurs.
      */
-    public void updateGameTable(Direction direction) throws IOException {
-        Cell[] coordinatesBuffer = bufferCoordinates();
-        Cell lastCell = storeLastCell();
+    public void updateGameTable(Direction direction) {
+        storeLastCell();
+        Direction previousDirection = currentDirection;
+        long previousRandomState = randomState;
+        int previousLength = snakeLength;
+        expiredFoodCell = RewindBuffer.NO_CELL;
+        timers.advance(tickCount + 1, timerDispatcher);
 
+        zobristHash ^= DIRECTION_KEYS[currentDirection.ordinal()] ^ DIRECTION_KEYS[direction.ordinal()]
+            ^ key(HEAD_KEYS, snakeCells[0].getX(), snakeCells[0].getY());
         currentDirection = direction;
+        moveBody();
         updateHeadPositionBasedOnDirection();
-        moveBody(coordinatesBuffer);
-        updateGridTexture(coordinatesBuffer);
-        checkAndHandleFoodCollision(lastCell);
+        updateOccupancy();
+        updateGridTexture();
+        checkAndHandleFoodCollision();
+        tickCount++;
+        if (rewindBuffer != null) {
+            recordTick(previousDirection, previousRandomState, previousLength);
+        }
+        if (entryTicks != null && !isGameLose() && !isGameWon()) {
+            updateTrapped();
+        }
     }
     /**
-     * Buffers the current coordinates of all snake cells.
+     * Records the update just applied in the rewind buffer.
      *
-     * @return An array of cells representing the buffered coordinates.
+     * @param previousDirection The direction before the update.
+     * @param previousRandomState The state of the food generator before the update.
+     * @param previousLength The length of the snake before the update.
      */
-    private Cell[] bufferCoordinates() {
-        Cell[] buffer = new Cell[snakeCells.length];
-        for (int i = 0; i < buffer.length; i++)
-        {
-            buffer[i] = new Cell(grid);
-            buffer[i].setX(snakeCells[i].getX());
-            buffer[i].setY(snakeCells[i].getY());
+    private void recordTick(Direction previousDirection, long previousRandomState, int previousLength) {
+        Cell head = snakeCells[0];
+        boolean isGrown = snakeLength > previousLength;
+        byte flags = isGrown ? RewindBuffer.GREW : 0;
+        if (isHeadCollided) {
+            flags |= enteredOwner == Grid.WALL_OWNER ? RewindBuffer.HIT_WALL : RewindBuffer.HIT_BODY;
         }
-        return buffer;
+        int headCell = grid.isPositionValid(head.getX(), head.getY())
+            ? grid.getCellId(head.getX(), head.getY()) : RewindBuffer.NO_CELL;
+        boolean isFoodMoved = isGrown || expiredFoodCell != RewindBuffer.NO_CELL;
+        int foodCell = isFoodMoved && isFoodPlaced ? grid.getCellId(food.getX(), food.getY()) : RewindBuffer.NO_CELL;
+        rewindBuffer.record(headCell, grid.getCellId(lastCell.getX(), lastCell.getY()), foodCell, expiredFoodCell,
+            flags, previousDirection.ordinal(), previousRandomState);
     }
     /**
-     * Stores the last cell of the snake.
+     * Undoes the most recent updates, as far back as the rewind buffer reaches. The board is repaired cell by
+     * cell from the recorded deltas, in constant time per tick, and the snake's cells are rebuilt once at the end:
+     * going back a tick drops the head and, unless the snake grew in that tick, puts back the cell the tail left.
+     * A lost game becomes playable again once the losing update is undone. Timed entities start over: the food
+     * gets its full lifetime again and the pending events of other entities are dropped.
      *
-     * @return The last cell of the snake before the snake moves.
+     * @param ticks The number of updates to undo.
+     * @return The number of updates undone, less than requested if the buffer holds fewer.
      */
-    private Cell storeLastCell() {
-        Cell cell = new Cell(grid);
-        cell.setX(snakeCells[snakeCells.length-1].getX());
-        cell.setY(snakeCells[snakeCells.length-1].getY());
-        return cell;
+    public int rewind(int ticks) {
+        int count = rewindBuffer == null ? 0 : Math.min(ticks, rewindBuffer.size());
+        if (count <= 0) {
+            return 0;
+        }
+        if (rewoundTails.length < count) {
+            rewoundTails = new int[count];
+        }
+        int tailCount = 0;
+        int length = snakeLength;
+        int foodCell = RewindBuffer.NO_CELL;
+        int oldest = 0;
+        for (int age = 0; age < count; age++) {
+            int index = rewindBuffer.indexOf(age);
+            byte flags = rewindBuffer.getFlags(index);
+            boolean isGrown = (flags & RewindBuffer.GREW) != 0;
+            int headCell = rewindBuffer.getHeadCell(index);
+            int tailCell = rewindBuffer.getTailCell(index);
+            if (rewindBuffer.getFoodCell(index) != RewindBuffer.NO_CELL) {
+                grid.setTexture(rewindBuffer.getFoodCell(index), grid.getDefaultTexture());
+            }
+            // the head cell first, the tail may have left the very cell the head entered
+            if (headCell != RewindBuffer.NO_CELL) {
+                if ((flags & RewindBuffer.HIT_WALL) != 0) {
+                    grid.setTexture(headCell, Grid.WALL);
+                    grid.setOwner(headCell, Grid.WALL_OWNER);
+                } else if ((flags & RewindBuffer.HIT_BODY) != 0) {
+                    grid.setTexture(headCell, Grid.BODY);
+                } else {
+                    grid.setTexture(headCell, isGrown ? Grid.FOOD : grid.getDefaultTexture());
+                    grid.setOwner(headCell, Grid.FREE);
+                }
+            }
+            if (isGrown) {
+                length--;
+                foodCell = headCell;
+            } else {
+                grid.setTexture(tailCell, Grid.BODY);
+                grid.setOwner(tailCell, SNAKE_ID);
+                rewoundTails[tailCount++] = tailCell;
+            }
+            int expiredCell = rewindBuffer.getExpiredFoodCell(index);
+            if (expiredCell != RewindBuffer.NO_CELL) {
+                // the food expired at the start of the tick; food respawned and eaten in the tick lay in the head cell
+                if (isGrown) {
+                    grid.setTexture(headCell, grid.getDefaultTexture());
+                }
+                grid.setTexture(expiredCell, Grid.FOOD);
+                foodCell = expiredCell;
+            }
+            oldest = index;
+        }
+
+        // the snake is now its cells without the rewound heads, followed by the cells the tail left, newest first
+        for (int i = 0; i < length; i++) {
+            int source = count + i;
+            if (source < snakeLength) {
+                snakeCells[i].setX(snakeCells[source].getX());
+                snakeCells[i].setY(snakeCells[source].getY());
+            } else {
+                int cell = rewoundTails[source - snakeLength];
+                snakeCells[i].setX(cell % grid.getXLength() + 1);
+                snakeCells[i].setY(cell / grid.getXLength() + 1);
+            }
+        }
+        snakeLength = length;
+        currentDirection = Direction.values()[rewindBuffer.getDirection(oldest)];
+        randomState = rewindBuffer.getRandomState(oldest);
+        Cell head = snakeCells[0];
+        head.setTexture(keyTextures.get(currentDirection));
+        grid.setTexture(head.getX(), head.getY(), head.getTexture());
+        if (foodCell != RewindBuffer.NO_CELL) {
+            food.setX(foodCell % grid.getXLength() + 1);
+            food.setY(foodCell / grid.getXLength() + 1);
+            isFoodPlaced = true;
+        }
+        tickCount -= count;
+        isHeadCollided = false;
+        zobristHash = computeZobristHash();
+        if (entryTicks != null) {
+            restartTrapDetection();
+            updateTrapped();
+        }
+        rewindBuffer.drop(count);
+        timers.reset(tickCount);
+        foodTimer = TimingWheel.NO_TIMER;
+        scheduleFoodExpiry();
+        return count;
+    }
+    /**
+     * Sets the buffer recording every update so it can be rewound, clearing it.
+     *
+     * @param rewindBuffer The buffer, or null to stop recording.
+     */
+    public void setRewindBuffer(RewindBuffer rewindBuffer) {
+        this.rewindBuffer = rewindBuffer;
+        if (rewindBuffer != null) {
+            rewindBuffer.clear();
+        }
+    }
+    /**
+     * Gets the buffer recording every update.
+     *
+     * @return The rewind buffer, or null if rewinding is off.
+     */
+    public RewindBuffer getRewindBuffer() {
+        return rewindBuffer;
+    }
+    /**
+     * Sets how long food stays in place before it expires and new food is placed elsewhere.
+     * The food on the grid gets the new lifetime from now on.
+     *
+     * @param ticks The lifetime of food in ticks, 0 for food that never expires.
+     */
+    public void setFoodLifetime(int ticks) {
+        foodLifetime = Math.max(0, ticks);
+        scheduleFoodExpiry();
+    }
+    /**
+     * Gets how long food stays in place before it expires.
+     *
+     * @return The lifetime of food in ticks, 0 if it never expires.
+     */
+    public int getFoodLifetime() {
+        return foodLifetime;
+    }
+    /**
+     * Gets the timing wheel the events of timed entities are scheduled in. Its ticks are update numbers: an event
+     * due at tick n fires at the start of the n-th update. Entities other than the food get their events through
+     * the listener set with {@link #setTimerListener(TimingWheel.Listener)}.
+     *
+     * @return The timing wheel.
+     */
+    public TimingWheel getTimers() {
+        return timers;
+    }
+    /**
+     * Sets the listener receiving the events of timed entities other than the food.
+     *
+     * @param listener The listener, or null to ignore those events.
+     */
+    public void setTimerListener(TimingWheel.Listener listener) {
+        this.entityListener = listener;
+    }
+    /**
+     * Turns trap detection on or off. While it is on, every update checks whether the snake is sealed into a
+     * region too small to survive in, see {@link #isTrapped()}.
+     *
+     * @param enabled true to check every update, false to stop checking.
+     */
+    public void setTrapDetection(boolean enabled) {
+        isTrapped = false;
+        if (!enabled) {
+            entryTicks = null;
+            trapQueue = null;
+            trapStamps = null;
+            return;
+        }
+        allocateTrapBuffers();
+        if (!isGameLose() && !isGameWon()) {
+            updateTrapped();
+        }
+    }
+    /**
+     * Checks if trap detection is on.
+     *
+     * @return true if every update checks whether the snake is trapped, false otherwise.
+     */
+    public boolean isTrapDetectionEnabled() {
+        return entryTicks != null;
+    }
+    /**
+     * Checks if the snake has sealed itself into a region too small to survive in, so the game is certain to be
+     * lost whatever moves follow. Always false while trap detection is off.
+     *
+     * @return true if the snake is trapped, false otherwise.
+     */
+    public boolean isTrapped() {
+        return isTrapped;
+    }
+    /**
+     * Allocates the buffers of trap detection for the size of the grid and restarts it.
+     */
+    private void allocateTrapBuffers() {
+        int cellCount = grid.getXLength() * grid.getYLength();
+        entryTicks = new int[cellCount];
+        trapQueue = new int[cellCount];
+        trapStamps = new int[cellCount];
+        trapStamp = 0;
+        restartTrapDetection();
+    }
+    /**
+     * Stamps every cell of the snake with the update in which the head entered it, which for the i-th cell is
+     * i updates ago, and forgets the escape found by the last fill. Updates keep the stamps current from then on
+     * by stamping the head cell.
+     */
+    private void restartTrapDetection() {
+        if (entryTicks.length != grid.getXLength() * grid.getYLength()) {
+            allocateTrapBuffers();
+            return;
+        }
+        for (int i = 0; i < snakeLength; i++) {
+            Cell cell = snakeCells[i];
+            if (grid.isPositionValid(cell.getX(), cell.getY())) {
+                entryTicks[grid.getCellId(cell.getX(), cell.getY())] = (int) tickCount - i;
+            }
+        }
+        escapeCell = NO_ESCAPE;
+    }
+    /**
+     * Decides whether the snake is trapped after an update. The escape found by the last fill is kept while it
+     * stays valid, which only takes a look at the cells around the head, and the region is filled again otherwise.
+     */
+    private void updateTrapped() {
+        if (entryTicks.length != grid.getXLength() * grid.getYLength()) {
+            allocateTrapBuffers();
+        }
+        int head = grid.getCellId(snakeCells[0].getX(), snakeCells[0].getY());
+        entryTicks[head] = (int) tickCount;
+        if (isEscapeKept(head)) {
+            regionSize--;
+            return;
+        }
+        fillRegion(head);
+    }
+    /**
+     * Checks if the escape found by the last fill still proves the snake is not trapped. The region loses at most
+     * the cell the head entered, as long as that move did not cut it apart, and the escape cell stays next to the
+     * region as long as the head did not enter the cell it was found from. Every update brings the escape cell
+     * one move closer to freeing, unless the snake grew, so the proof holds until the snake has grown by the slack
+     * the last fill left. Once the escape cell frees it joins the region, and the next body cell the tail frees
+     * next to it takes over.
+     *
+     * @param head The cell id of the head.
+     * @return true if the snake is still not trapped, false if the region has to be filled again.
+     */
+    private boolean isEscapeKept(int head) {
+        if (escapeCell == NO_ESCAPE || head == escapeNeighbour || snakeLength < 2) {
+            return false;
+        }
+        if (grid.getOwner(escapeCell) == Grid.FREE) {
+            // the escape cell freed and joined the region, and the body cell the tail moved on to lies next to it
+            escapeNeighbour = escapeCell;
+            escapeCell = firstFreeingNeighbour(escapeNeighbour);
+            regionSize++;
+        }
+        if (escapeCell == NO_ESCAPE || grid.getOwner(escapeCell) != SNAKE_ID) {
+            return false;
+        }
+        int escape = snakeLength - ((int) tickCount - entryTicks[escapeCell]);
+        if (escape > regionSize) {
+            return false;
+        }
+        return isRegionUncut(head, grid.getCellId(snakeCells[1].getX(), snakeCells[1].getY()));
+    }
+    /**
+     * Finds the body cell next to a cell that frees first.
+     *
+     * @param cell The cell id.
+     * @return The cell id of the body cell, or NO_ESCAPE if no body cell lies next to the cell.
+     */
+    private int firstFreeingNeighbour(int cell) {
+        int width = grid.getXLength();
+        int height = grid.getYLength();
+        int x = cell % width;
+        int first = NO_ESCAPE;
+        for (int d = 0; d < 4; d++) {
+            int neighbour = neighbourOf(cell, x, d, width, height);
+            if (neighbour != NO_ESCAPE && grid.getOwner(neighbour) == SNAKE_ID
+                && (first == NO_ESCAPE || entryTicks[neighbour] - entryTicks[first] < 0)) {
+                first = neighbour;
+            }
+        }
+        return first;
+    }
+    /**
+     * Checks that the last move did not cut the head's region apart. Every free cell next to the head or the cell
+     * it left has to be connected to the others through free cells close by, so any path through the entered cell
+     * can go around it and every cell reachable from the old head is still reachable from the new one. The cells
+     * close by are the box around both cells, at most 4 by 3, filled as a bit mask.
+     *
+     * @param head The cell id of the head.
+     * @param previousHead The cell id the head left.
+     * @return true if the region is uncut, false if it may have been cut or the head has no free neighbour.
+     */
+    private boolean isRegionUncut(int head, int previousHead) {
+        int width = grid.getXLength();
+        int headY = head / width;
+        int headX = head - headY * width;
+        int previousY = previousHead / width;
+        int previousX = previousHead - previousY * width;
+        int left = Math.max(0, Math.min(headX, previousX) - 1);
+        int right = Math.min(width - 1, Math.max(headX, previousX) + 1);
+        int top = Math.max(0, Math.min(headY, previousY) - 1);
+        int bottom = Math.min(grid.getYLength() - 1, Math.max(headY, previousY) + 1);
+        int boxWidth = right - left + 1;
+        // one bit per cell of the box, row by row
+        int free = 0;
+        int firstColumn = 0;
+        for (int y = top; y <= bottom; y++) {
+            int rowBit = (y - top) * boxWidth;
+            firstColumn |= 1 << rowBit;
+            for (int x = left; x <= right; x++) {
+                if (grid.getOwner(y * width + x) == Grid.FREE) {
+                    free |= 1 << rowBit + x - left;
+                }
+            }
+        }
+        int lastColumn = firstColumn << boxWidth - 1;
+        int headBit = 1 << (headY - top) * boxWidth + headX - left;
+        int previousBit = 1 << (previousY - top) * boxWidth + previousX - left;
+        int headNeighbours = spread(headBit, boxWidth, firstColumn, lastColumn) & free;
+        if (headNeighbours == 0) {
+            return false;
+        }
+        int required = headNeighbours | spread(previousBit, boxWidth, firstColumn, lastColumn) & free;
+        int reached = headNeighbours & -headNeighbours;
+        while (true) {
+            int grown = (reached | spread(reached, boxWidth, firstColumn, lastColumn)) & free;
+            if (grown == reached) {
+                return (required & ~reached) == 0;
+            }
+            reached = grown;
+        }
+    }
+    /**
+     * Moves every cell of a bit mask of a box to its four neighbours within the box.
+     *
+     * @param cells The bit mask of the cells, one bit per cell, row by row.
+     * @param boxWidth The width of the box.
+     * @param firstColumn The bit mask of the first column of the box.
+     * @param lastColumn The bit mask of the last column of the box.
+     * @return The bit mask of the neighbours, with bits beyond the box left for the caller to mask off.
+     */
+    private static int spread(int cells, int boxWidth, int firstColumn, int lastColumn) {
+        return (cells & ~lastColumn) << 1 | (cells & ~firstColumn) >>> 1 | cells << boxWidth | cells >>> boxWidth;
+    }
+    /**
+     * Fills the region of free cells reachable from the head and decides whether the snake is trapped in it.
+     * The head can make at most one move per cell of the region before it has to leave through a body cell next
+     * to the region, and the i-th cell of the snake frees after length - i moves at the earliest, later if the snake
+     * eats. The snake is trapped if the region has fewer cells than the moves the earliest of those cells takes to
+     * free, unless the region holds every free cell and the snake can still win by filling it.
+     * <p>
+     * The head's own cell is next to the region and frees after as many moves as the snake is long, so the fill
+     * never needs more cells than that. It ends once the region is larger than needed by TRAP_SLACK cells, and
+     * the escape it found is kept for the following updates.
+     *
+     * @param head The cell id of the head.
+     */
+    private void fillRegion(int head) {
+        int width = grid.getXLength();
+        int height = grid.getYLength();
+        int now = (int) tickCount;
+        nextTrapStamp();
+        // moves until the earliest body cell next to a cell of the region frees, and that cell
+        int escape = snakeLength;
+        escapeCell = NO_ESCAPE;
+        // moves until the earliest body cell next to the head frees
+        int headEscape = snakeLength;
+        int region = 0;
+        int first = 0;
+        int last = 0;
+        trapQueue[last++] = head;
+        trapStamps[head] = trapStamp;
+        while (first < last && region + 1 < escape + TRAP_SLACK) {
+            int cell = trapQueue[first++];
+            int x = cell % width;
+            for (int d = 0; d < 4; d++) {
+                int neighbour = neighbourOf(cell, x, d, width, height);
+                if (neighbour == NO_ESCAPE || trapStamps[neighbour] == trapStamp) {
+                    continue;
+                }
+                int owner = grid.getOwner(neighbour);
+                if (owner == Grid.FREE) {
+                    trapStamps[neighbour] = trapStamp;
+                    trapQueue[last++] = neighbour;
+                    region++;
+                    if (cell == head && escapeCell == NO_ESCAPE) {
+                        escapeCell = head;
+                        escapeNeighbour = neighbour;
+                    }
+                } else if (owner == SNAKE_ID) {
+                    int moves = snakeLength - (now - entryTicks[neighbour]);
+                    if (cell == head) {
+                        headEscape = Math.min(headEscape, moves);
+                    } else if (moves < escape) {
+                        escape = moves;
+                        escapeCell = neighbour;
+                        escapeNeighbour = cell;
+                    }
+                }
+            }
+        }
+        regionSize = region;
+        if (region + 1 >= escape && escapeCell != NO_ESCAPE) {
+            isTrapped = false;
+            return;
+        }
+        escapeCell = NO_ESCAPE;
+        // a region holding every free cell may still be filled up to win the game
+        isTrapped = region + 1 < headEscape && snakeLength + region < grid.getOpenCellCount();
+    }
+    /**
+     * Starts a new fill of the trap detection buffers, clearing the stamps when they run out.
+     */
+    private void nextTrapStamp() {
+        if (++trapStamp == 0) {
+            Arrays.fill(trapStamps, 0);
+            trapStamp = 1;
+        }
+    }
+    /**
+     * Gets the neighbour of a cell in a direction.
+     *
+     * @param cell The cell id.
+     * @param x The column of the cell, passed in so a caller visiting all four neighbours divides only once.
+     * @param d The direction: 0 right, 1 left, 2 down, 3 up.
+     * @param width The width of the grid.
+     * @param height The height of the grid.
+     * @return The cell id of the neighbour, or NO_ESCAPE if it is outside the grid.
+     */
+    private static int neighbourOf(int cell, int x, int d, int width, int height) {
+        switch (d) {
+            case 0:
+                return x + 1 < width ? cell + 1 : NO_ESCAPE;
+            case 1:
+                return x > 0 ? cell - 1 : NO_ESCAPE;
+            case 2:
+                return cell + width < width * height ? cell + width : NO_ESCAPE;
+            default:
+                return cell >= width ? cell - width : NO_ESCAPE;
+        }
+    }
+    /**
+     * Updates the game table in the direction chosen by the direction provider.
+     * Keeps the current direction if no provider is set.
+     */
+    public void updateGameTable() {
+        Direction direction = directionProvider == null ? currentDirection : directionProvider.nextDirection(this);
+        updateGameTable(direction);
+    }
+    /**
+     * Stores the position of the last cell of the snake before the snake moves.
+     */
+    private void storeLastCell() {
+        lastCell.setX(snakeCells[snakeLength - 1].getX());
+        lastCell.setY(snakeCells[snakeLength - 1].getY());
     }
 
     /**
@@ -178,100 +879,137 @@ public class GameLogic {
         snakeCells[0].setTexture(keyTextures.get(currentDirection));
     }
     /**
-     * Moves the body of the snake, following the head.
-     *
-     * @param coordinatesBuffer A buffer of the snake cells' coordinates before the move.
+     * Moves the body of the snake, following the head. Must run before the head moves.
+     * Walks from the tail forward so every cell takes the position its predecessor still holds.
      */
-    private void moveBody(Cell[] coordinatesBuffer) {
-        for (int i = 1; i < coordinatesBuffer.length; i++)
+    private void moveBody() {
+        for (int i = snakeLength - 1; i > 0; i--)
         {
-            snakeCells[i].setY(coordinatesBuffer[i - 1].getY());
-            snakeCells[i].setX(coordinatesBuffer[i - 1].getX());
+            snakeCells[i].setY(snakeCells[i - 1].getY());
+            snakeCells[i].setX(snakeCells[i - 1].getX());
         }
     }
     /**
-     * Updates the textures on the grid based on the current positions of the snake cells.
-     *
-     * @param coordinatesBuffer A buffer of the snake cells' coordinates before the move.
+     * Releases the cell left by the tail and claims the cell entered by the head, noting if the head ran into the body or a wall.
      */
-    private void updateGridTexture(Cell[] coordinatesBuffer) {
-        for(var cell : snakeCells) {
-            grid.setTexture(cell.getX(), cell.getY(), cell.getTexture());
-        }
-
-        Cell tailCell = coordinatesBuffer[coordinatesBuffer.length - 1];
-        if((snakeCells[0].getX() == coordinatesBuffer[coordinatesBuffer.length - 1].getX())
-            && (snakeCells[0].getY() == coordinatesBuffer[coordinatesBuffer.length - 1].getY())
-            && (snakeCells.length != 1)) {
-            grid.setTexture(snakeCells[0].getX(), snakeCells[0].getY(), snakeCells[0].getTexture());
-        }
-        else {
-            grid.setTexture(tailCell.getX(), tailCell.getY(), grid.getDefaultTexture());
+    private void updateOccupancy() {
+        grid.setOwner(lastCell.getX(), lastCell.getY(), Grid.FREE);
+        Cell head = snakeCells[0];
+        enteredOwner = grid.getOwner(head.getX(), head.getY());
+        zobristHash ^= key(BODY_KEYS, lastCell.getX(), lastCell.getY())
+            ^ key(BODY_KEYS, head.getX(), head.getY()) ^ key(HEAD_KEYS, head.getX(), head.getY());
+        isHeadCollided = enteredOwner != Grid.FREE;
+        grid.setOwner(head.getX(), head.getY(), SNAKE_ID);
+    }
+    /**
+     * Updates the textures on the grid for the cells that changed: the cell left by the tail, the previous head and the new head.
+     */
+    private void updateGridTexture() {
+        grid.setTexture(lastCell.getX(), lastCell.getY(), grid.getDefaultTexture());
+        if (snakeLength > 1) {
+            grid.setTexture(snakeCells[1].getX(), snakeCells[1].getY(), snakeCells[1].getTexture());
         }
-
+        grid.setTexture(snakeCells[0].getX(), snakeCells[0].getY(), snakeCells[0].getTexture());
     }
     /**
      * Checks for a collision between the snake's head and the food. If a collision occurs, expands the snake.
-     *
-     * @param lastCell The last cell of the snake before the move.
      */
-    private void checkAndHandleFoodCollision(Cell lastCell) {
+    private void checkAndHandleFoodCollision() {
         if (snakeCells[0].getX() == food.getX() && snakeCells[0].getY() == food.getY())
         {
-            expandSnake(lastCell);
+            zobristHash ^= key(FOOD_KEYS, food.getX(), food.getY());
+            isFoodPlaced = false;
+            expandSnake();
             spawnFood();
         }
     }
     /**
-     * Expands the snake by adding a new cell at the end.
-     *
-     * @param lastCell The cell to be added to the end of the snake.
+     * Expands the snake by adding a new cell at the end, where the tail was before the move.
+     * Grows the cell array by doubling when it is full and reuses cells left over from earlier games.
      */
-    private void expandSnake(Cell lastCell)
+    private void expandSnake()
     {
-        Cell[] newSnakeCells = new Cell[snakeCells.length + 1];
-        System.arraycopy(snakeCells, 0, newSnakeCells, 0, snakeCells.length);
-
-        newSnakeCells[newSnakeCells.length - 1] = new Cell(grid);
-        newSnakeCells[newSnakeCells.length - 1].setX(lastCell.getX());
-        newSnakeCells[newSnakeCells.length - 1].setY(lastCell.getY());
+        if (snakeLength == snakeCells.length) {
+            Cell[] newSnakeCells = new Cell[snakeCells.length * 2];
+            System.arraycopy(snakeCells, 0, newSnakeCells, 0, snakeCells.length);
+            snakeCells = newSnakeCells;
+        }
+        if (snakeCells[snakeLength] == null) {
+            snakeCells[snakeLength] = new Cell(grid);
+        }
+        snakeCells[snakeLength].setX(lastCell.getX());
+        snakeCells[snakeLength].setY(lastCell.getY());
+        snakeLength++;
+        zobristHash ^= key(BODY_KEYS, lastCell.getX(), lastCell.getY());
 
-        snakeCells = newSnakeCells;
         grid.setTexture(lastCell.getX(), lastCell.getY(), lastCell.getTexture());
+        grid.setOwner(lastCell.getX(), lastCell.getY(), SNAKE_ID);
+    }
+    /**
+     * Computes the Zobrist hash of the current state from scratch.
+     *
+     * @return The hash of the snake's cells, its head, the food and the direction.
+     */
+    private long computeZobristHash() {
+        long hash = DIRECTION_KEYS[currentDirection.ordinal()];
+        for (int i = 0; i < snakeLength; i++) {
+            hash ^= key(BODY_KEYS, snakeCells[i].getX(), snakeCells[i].getY());
+        }
+        hash ^= key(HEAD_KEYS, snakeCells[0].getX(), snakeCells[0].getY());
+        if (isFoodPlaced) {
+            hash ^= key(FOOD_KEYS, food.getX(), food.getY());
+        }
+        return hash;
+    }
+    /**
+     * Gets the Zobrist key of a position.
+     *
+     * @param keys The keys of one cell kind.
+     * @param x The X-coordinate of the position.
+     * @param y The Y-coordinate of the position.
+     * @return The key of the position's cell, or 0 for a position outside the grid, which only a lost game's head reaches.
+     */
+    private long key(long[] keys, int x, int y) {
+        return grid.isPositionValid(x, y) ? keys[grid.getCellId(x, y)] : 0;
+    }
+    /**
+     * Creates Zobrist keys with the SplitMix64 generator.
+     *
+     * @param seed The generator state, advanced by the number of keys created.
+     * @param count The number of keys.
+     * @return The keys.
+     */
+    private static long[] createKeys(long[] seed, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            long z = (seed[0] += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            keys[i] = z ^ (z >>> 31);
+        }
+        return keys;
     }
     /**
-     * Checks if the game is lost, which occurs if the snake collides with itself or the walls.
+     * Checks if the game is lost, which occurs if the snake collides with itself, an obstacle or the edge of the grid.
      *
      * @return true if the game is lost, false otherwise.
      */
     public boolean isGameLose()
     {
-        for (int i = 0; i < snakeCells.length; i++)
-        {
-            for (int j = 0; j < snakeCells.length; j++)
-            {
-                if (i == j || snakeCells.length == 1)
-                {
-                    continue;
-                }
-                if ((snakeCells[j].getX() == snakeCells[i].getX()) && (snakeCells[j].getY() == snakeCells[i].getY()))
-                {
-                    return true;
-                }
-            }
-        }
-        return snakeCells[0].getX() == grid.getXLength() + 1 ||
+        // only the head moves into new cells, and the occupancy table records whether it found one taken by the body or a wall
+        return isHeadCollided ||
+            snakeCells[0].getX() == grid.getXLength() + 1 ||
             snakeCells[0].getX() < 1 ||
             snakeCells[0].getY() == grid.getYLength() + 1 ||
             snakeCells[0].getY() < 1;
     }
     /**
-     * Checks if the game is won, which occurs if the snake fills the entire grid.
+     * Checks if the game is won, which occurs if the snake fills every cell that is not a wall.
      *
      * @return true if the game is won, false otherwise.
      */
-    public boolean isGameWon() {
-        return getCellCounter() == grid.getXLength() * grid.getYLength();
+    public final boolean isGameWon() {
+        return getCellCounter() == grid.getOpenCellCount();
     }
     /**
      * Counts the number of cells occupied by the snake.
@@ -279,7 +1017,7 @@ public class GameLogic {
      * @return The number of cells occupied by the snake.
      */
     private int getCellCounter() {
-        return snakeCells.length;
+        return snakeLength;
     }
 
     /**
@@ -293,10 +1031,84 @@ public class GameLogic {
 
     /**
      * Gets the cells that form the snake.
+     * The array may be longer than the snake; only the first {@link #getSnakeLength()} cells belong to it.
      *
-     * @return An array of cells representing the snake.
+     * @return An array of cells representing the snake, head first.
      */
     public Cell[] getSnakeCells() {
         return snakeCells;
     }
+
+    /**
+     * Gets the number of cells of the snake.
+     *
+     * @return The length of the snake.
+     */
+    public int getSnakeLength() {
+        return snakeLength;
+    }
+
+    /**
+     * Gets the cell holding the food.
+     *
+     * @return The food cell.
+     */
+    public Cell getFood() {
+        return food;
+    }
+
+    /**
+     * Gets the direction the snake is currently moving in.
+     *
+     * @return The current direction.
+     */
+    public Direction getCurrentDirection() {
+        return currentDirection;
+    }
+
+    /**
+     * Sets the provider steering the snake, or null to steer it by the given directions only.
+     *
+     * @param directionProvider The provider to use.
+     */
+    public void setDirectionProvider(DirectionProvider directionProvider) {
+        this.directionProvider = directionProvider;
+    }
+
+    /**
+     * Gets the provider steering the snake.
+     *
+     * @return The direction provider, or null if none is set.
+     */
+    public DirectionProvider getDirectionProvider() {
+        return directionProvider;
+    }
+
+    /**
+     * Gets the state of the food generator.
+     *
+     * @return The generator state.
+     */
+    public long getRandomState() {
+        return randomState;
+    }
+
+    /**
+     * Gets the Zobrist hash of the current state: the snake's cells, its head, the food and the direction.
+     * Equal states have equal hashes, in any process; the tick count and the food generator are not included.
+     *
+     * @return The 64-bit hash.
+     */
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    /**
+     * Gets the number of updates applied since the game started.
+     *
+     * @return The tick count.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
 }
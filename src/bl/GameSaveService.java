@@ -0,0 +1,257 @@
+package bl;
+
+import dal.Account;
+import dal.Cell;
+import dal.Direction;
+import dal.Grid;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Provides suspend-to-disk for games in progress.
+ * Every account owns one save slot holding the full game state in a compact binary form,
+ * so a game can be resumed exactly where it was left without replaying any updates.
+ */
+public class GameSaveService {
+    // Marks the start of every save file ("SNKS")
+    private static final int MAGIC = 0x534E4B53;
+    // Version of the binary layout, version 2 adds the wall bitmap
+    private static final byte VERSION = 2;
+    // Oldest version that can still be loaded
+    private static final byte WALLLESS_VERSION = 1;
+    // Size of the fixed header: magic, version, width, height, speed, tick, random state, direction, food x/y, length
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 1 + 4 + 8 + 8 + 1 + 1 + 1 + 2;
+    // Largest possible save: a snake covering the biggest grid, two bytes per cell, and the wall bitmap
+    private static final int MAX_SIZE = HEADER_SIZE + Grid.MAX_X_LENGTH * Grid.MAX_Y_LENGTH * 2
+        + (Grid.MAX_X_LENGTH * Grid.MAX_Y_LENGTH + 7) / 8;
+    // Directory holding the save slots
+    private final Path directory;
+    // Buffer reused for every save and load
+    private final ByteBuffer buffer = ByteBuffer.allocate(MAX_SIZE);
+
+    /**
+     * Constructor for creating a GameSaveService storing slots in the default directory.
+     */
+    public GameSaveService() {
+        this(Path.of("Data", "saves"));
+    }
+
+    /**
+     * Constructor for creating a GameSaveService storing slots in the given directory.
+     *
+     * @param directory The directory holding the save slots.
+     */
+    public GameSaveService(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Writes the state of the game into the account's save slot, replacing any previous save.
+     * The file is written next to the slot first and then moved over it, so a crash never leaves a torn save.
+     *
+     * @param account The account owning the slot.
+     * @param logic The game to save.
+     * @param speed The game speed in updates per second.
+     * @throws IOException If an I/O error occurs while writing the slot.
+     */
+    public void save(Account account, GameLogic logic, int speed) throws IOException {
+        Grid grid = logic.getGrid();
+        Cell[] snakeCells = logic.getSnakeCells();
+        Cell food = logic.getFood();
+
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.put((byte) grid.getXLength());
+        buffer.put((byte) grid.getYLength());
+        buffer.putInt(speed);
+        buffer.putLong(logic.getTickCount());
+        buffer.putLong(logic.getRandomState());
+        buffer.put((byte) logic.getCurrentDirection().ordinal());
+        buffer.put((byte) food.getX());
+        buffer.put((byte) food.getY());
+        int length = logic.getSnakeLength();
+        buffer.putShort((short) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) snakeCells[i].getX());
+            buffer.put((byte) snakeCells[i].getY());
+        }
+        putWalls(grid);
+        buffer.flip();
+
+        Files.createDirectories(directory);
+        Path slot = getSlotPath(account);
+        Path temp = directory.resolve(account.getId() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, slot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the account's save slot and rebuilds the grid and game logic from it.
+     *
+     * @param account The account owning the slot.
+     * @return The restored game, or null if the account has no save.
+     * @throws IOException If an I/O error occurs or the slot is corrupted, such as a field out of range.
+     */
+    public SavedGame load(Account account) throws IOException {
+        Path slot = getSlotPath(account);
+        if (!Files.exists(slot)) {
+            return null;
+        }
+
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(slot, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // keep reading until the whole slot is buffered
+            }
+        }
+        buffer.flip();
+
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("save slot is corrupted");
+        }
+        byte version = buffer.get();
+        if (version != VERSION && version != WALLLESS_VERSION) {
+            throw new IOException("save slot is corrupted");
+        }
+        int width = buffer.get();
+        int height = buffer.get();
+        if (width <= 1 || height <= 1 || width > Grid.MAX_X_LENGTH || height > Grid.MAX_Y_LENGTH) {
+            throw new IOException("save slot is corrupted: grid is " + width + "x" + height);
+        }
+        Grid grid = new Grid(width, height);
+        int bitmapSize = version == VERSION ? getBitmapSize(grid) : 0;
+        int speed = buffer.getInt();
+        long tickCount = buffer.getLong();
+        long randomState = buffer.getLong();
+        int directionIndex = buffer.get();
+        if (speed < 1 || tickCount < 0 || directionIndex < 0 || directionIndex >= Direction.values().length) {
+            throw new IOException("save slot is corrupted");
+        }
+        Direction direction = Direction.values()[directionIndex];
+
+        Cell food = readCell(grid);
+
+        int length = buffer.getShort();
+        if (length < 1 || length > width * height || buffer.remaining() != length * 2 + bitmapSize) {
+            throw new IOException("save slot is corrupted");
+        }
+        Cell[] snakeCells = new Cell[length];
+        for (int i = 0; i < length; i++) {
+            snakeCells[i] = readCell(grid);
+        }
+        if (bitmapSize > 0) {
+            getWalls(grid);
+        }
+
+        GameLogic logic = new GameLogic(grid, snakeCells, food, direction, randomState, tickCount);
+        return new SavedGame(logic, speed);
+    }
+
+    /**
+     * Reads the position of a cell from the buffer.
+     *
+     * @param grid The grid the cell belongs to.
+     * @return The cell.
+     * @throws IOException If the position lies outside the grid.
+     */
+    private Cell readCell(Grid grid) throws IOException {
+        int x = buffer.get();
+        int y = buffer.get();
+        if (x < 1 || y < 1 || x > grid.getXLength() || y > grid.getYLength()) {
+            throw new IOException("save slot is corrupted: cell " + x + "," + y + " is outside the grid");
+        }
+        Cell cell = new Cell(grid);
+        cell.setX(x);
+        cell.setY(y);
+        return cell;
+    }
+
+    /**
+     * Writes the walls of the grid into the buffer as a bitmap with one bit per cell id.
+     *
+     * @param grid The grid whose walls are written.
+     */
+    private void putWalls(Grid grid) {
+        int cellCount = grid.getXLength() * grid.getYLength();
+        for (int i = 0; i < getBitmapSize(grid); i++) {
+            int bits = 0;
+            for (int bit = 0; bit < 8 && i * 8 + bit < cellCount; bit++) {
+                if (grid.getOwner(i * 8 + bit) == Grid.WALL_OWNER) {
+                    bits |= 1 << bit;
+                }
+            }
+            buffer.put((byte) bits);
+        }
+    }
+
+    /**
+     * Reads the wall bitmap from the buffer and places the walls on the grid.
+     *
+     * @param grid The grid to place the walls on.
+     * @throws IOException If the bitmap has walls beyond the last cell of the grid.
+     */
+    private void getWalls(Grid grid) throws IOException {
+        int cellCount = grid.getXLength() * grid.getYLength();
+        for (int i = 0; i < getBitmapSize(grid); i++) {
+            int bits = buffer.get() & 0xFF;
+            if (i * 8 + 8 > cellCount && bits >>> cellCount - i * 8 != 0) {
+                throw new IOException("save slot is corrupted: wall outside the grid");
+            }
+            while (bits != 0) {
+                grid.placeWall(i * 8 + Integer.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Gets the size of the wall bitmap of a grid.
+     *
+     * @param grid The grid.
+     * @return The number of bytes of the bitmap.
+     */
+    private static int getBitmapSize(Grid grid) {
+        return (grid.getXLength() * grid.getYLength() + 7) / 8;
+    }
+
+    /**
+     * Checks if the account has a saved game.
+     *
+     * @param account The account owning the slot.
+     * @return true if a save exists, false otherwise.
+     */
+    public boolean hasSave(Account account) {
+        return Files.exists(getSlotPath(account));
+    }
+
+    /**
+     * Deletes the account's save slot, if any.
+     *
+     * @param account The account owning the slot.
+     * @throws IOException If an I/O error occurs while deleting the slot.
+     */
+    public void deleteSave(Account account) throws IOException {
+        Files.deleteIfExists(getSlotPath(account));
+    }
+
+    /**
+     * Resolves the file of the account's save slot.
+     *
+     * @param account The account owning the slot.
+     * @return The path of the slot.
+     */
+    private Path getSlotPath(Account account) {
+        return directory.resolve(account.getId() + ".sav");
+    }
+}
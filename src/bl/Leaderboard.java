@@ -0,0 +1,291 @@
+package bl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps the best records of the last days for leaderboards over rolling windows: today, the last 7 days and the
+ * last 30 days.
+ * <p>
+ * Records are aggregated into one bucket per day (UTC), each holding the best record of every user that day but
+ * only for the {@link #TOP_SIZE} best users and {@link #MARGIN} more. The buckets form a ring of one slot per day of
+ * the longest window, so a bucket that has fallen out of every window is dropped in constant time when its slot is
+ * taken by a new day. A window is merged on demand from the buckets of its days, taking every user's best record;
+ * since a user among the best of a window is among the best of the day that record was set, the merged list is exact
+ * for any size up to {@link #TOP_SIZE}, and opening a window never looks at the accounts' histories.
+ * <p>
+ * A user dropped from a bucket had as many better users as the bucket keeps, so deleting an account can leave a gap
+ * only the histories could fill. The margin covers that: the list stays exact as long as no more than {@link #MARGIN}
+ * of the users a day's bucket kept are deleted. Beyond that the leaderboard may miss a user ranked near the bottom
+ * until the day leaves the window.
+ */
+public class Leaderboard {
+    // Most users a leaderboard shows
+    public static final int TOP_SIZE = 100;
+    // Users kept per day beyond TOP_SIZE, how many of a day's users can be deleted before a leaderboard may miss one
+    public static final int MARGIN = 20;
+    // Number of users kept per day
+    private static final int KEPT_SIZE = TOP_SIZE + MARGIN;
+    // Milliseconds of a day
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    // Orders entries from the best record down, users with equal records by name
+    private static final Comparator<Entry> RANKING = Comparator.comparingInt(Entry::getScore).reversed()
+        .thenComparing(Entry::getUserName);
+
+    // Bucket of every day of the longest window, indexed by day modulo the ring size, null if never used
+    private final Bucket[] buckets = new Bucket[Window.MONTH.getDays()];
+
+    /**
+     * Rolling windows a leaderboard can be opened for.
+     */
+    public enum Window {
+        // The current day
+        DAY(1, "Today"),
+        // The current day and the 6 before it
+        WEEK(7, "Last 7 days"),
+        // The current day and the 29 before it
+        MONTH(30, "Last 30 days");
+
+        // Number of days the window spans, the current one included
+        private final int days;
+        // Title of the window's leaderboard
+        private final String title;
+
+        /**
+         * Constructor for creating a new Window.
+         *
+         * @param days The number of days the window spans.
+         * @param title The title of the window's leaderboard.
+         */
+        Window(int days, String title) {
+            this.days = days;
+            this.title = title;
+        }
+
+        /**
+         * Gets the number of days the window spans.
+         *
+         * @return The number of days, the current one included.
+         */
+        public int getDays() {
+            return days;
+        }
+
+        /**
+         * Gets the title of the window's leaderboard.
+         *
+         * @return The title.
+         */
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    /**
+     * Adds a record. Records of days the longest window no longer spans are ignored.
+     *
+     * @param userName The user who set the record.
+     * @param score The record.
+     * @param time The time the record was set, in milliseconds since the epoch.
+     * @param now The current time in milliseconds since the epoch.
+     * @return true if the record changed a leaderboard, false otherwise.
+     */
+    public boolean add(String userName, int score, long time, long now) {
+        long day = dayOf(time);
+        if (day <= dayOf(now) - buckets.length) {
+            return false;
+        }
+        int slot = (int) Math.floorMod(day, (long) buckets.length);
+        Bucket bucket = buckets[slot];
+        if (bucket == null || bucket.day < day) {
+            // the day in the slot has left every window; the whole bucket goes at once
+            bucket = new Bucket(day);
+            buckets[slot] = bucket;
+        } else if (bucket.day > day) {
+            return false;
+        }
+        return bucket.add(userName, score);
+    }
+
+    /**
+     * Removes every record of a user, such as when the account is deleted.
+     *
+     * @param userName The user.
+     * @return true if a record was removed, false otherwise.
+     */
+    public boolean remove(String userName) {
+        boolean isRemoved = false;
+        for (Bucket bucket : buckets) {
+            if (bucket != null) {
+                isRemoved |= bucket.remove(userName);
+            }
+        }
+        return isRemoved;
+    }
+
+    /**
+     * Gets the best users of a window, each with their best record in it.
+     *
+     * @param window The window.
+     * @param limit The largest number of users to get, at most {@link #TOP_SIZE}.
+     * @param now The current time in milliseconds since the epoch.
+     * @return The entries from the best record down.
+     */
+    public List<Entry> top(Window window, int limit, long now) {
+        long today = dayOf(now);
+        Map<String, Integer> best = new HashMap<>();
+        for (Bucket bucket : buckets) {
+            if (bucket != null && bucket.day <= today && bucket.day > today - window.getDays()) {
+                for (Entry entry : bucket.ranking) {
+                    best.merge(entry.getUserName(), entry.getScore(), Math::max);
+                }
+            }
+        }
+        List<Entry> entries = new ArrayList<>(best.size());
+        best.forEach((userName, score) -> entries.add(new Entry(userName, score)));
+        entries.sort(RANKING);
+        return entries.subList(0, Math.min(Math.min(limit, TOP_SIZE), entries.size()));
+    }
+
+    /**
+     * Gets the buckets of the days the longest window still spans, to be stored.
+     *
+     * @param now The current time in milliseconds since the epoch.
+     * @return The day of every bucket mapped to its entries from the best record down.
+     */
+    public Map<Long, List<Entry>> getDays(long now) {
+        long today = dayOf(now);
+        Map<Long, List<Entry>> days = new HashMap<>();
+        for (Bucket bucket : buckets) {
+            if (bucket != null && bucket.day > today - buckets.length) {
+                days.put(bucket.day, new ArrayList<>(bucket.ranking));
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Gets the day a time falls on.
+     *
+     * @param time The time in milliseconds since the epoch.
+     * @return The number of days since the epoch.
+     */
+    private static long dayOf(long time) {
+        return Math.floorDiv(time, DAY_MILLIS);
+    }
+
+    /**
+     * Gets the time a day starts.
+     *
+     * @param day The number of days since the epoch.
+     * @return The time in milliseconds since the epoch.
+     */
+    public static long startOf(long day) {
+        return day * DAY_MILLIS;
+    }
+
+    /**
+     * A user's best record in a leaderboard.
+     */
+    public static class Entry {
+        // The user who set the record
+        private final String userName;
+        // The record
+        private final int score;
+
+        /**
+         * Constructor for creating a new Entry.
+         *
+         * @param userName The user who set the record.
+         * @param score The record.
+         */
+        public Entry(String userName, int score) {
+            this.userName = userName;
+            this.score = score;
+        }
+
+        /**
+         * Gets the user who set the record.
+         *
+         * @return The username.
+         */
+        public String getUserName() {
+            return userName;
+        }
+
+        /**
+         * Gets the record.
+         *
+         * @return The record.
+         */
+        public int getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * The best users of one day, each with their best record that day.
+     */
+    private static class Bucket {
+        // The day, in days since the epoch
+        private final long day;
+        // Entry of every user kept, by username
+        private final Map<String, Entry> entries = new HashMap<>();
+        // Entries kept, from the best record down
+        private final TreeSet<Entry> ranking = new TreeSet<>(RANKING);
+
+        /**
+         * Constructor for creating a new empty Bucket.
+         *
+         * @param day The day, in days since the epoch.
+         */
+        private Bucket(long day) {
+            this.day = day;
+        }
+
+        /**
+         * Adds a record, keeping only the user's best and only the best users.
+         *
+         * @param userName The user who set the record.
+         * @param score The record.
+         * @return true if the record is kept, false if the user has a better one or it is not among the best.
+         */
+        private boolean add(String userName, int score) {
+            Entry old = entries.get(userName);
+            if (old != null && old.getScore() >= score) {
+                return false;
+            }
+            Entry entry = new Entry(userName, score);
+            if (old == null && ranking.size() == KEPT_SIZE && RANKING.compare(entry, ranking.last()) > 0) {
+                return false;
+            }
+            if (old != null) {
+                ranking.remove(old);
+            }
+            entries.put(userName, entry);
+            ranking.add(entry);
+            if (ranking.size() > KEPT_SIZE) {
+                // the records kept only get better, so a later record of the dropped user counts again only if it
+                // beats them
+                entries.remove(ranking.pollLast().getUserName());
+            }
+            return true;
+        }
+
+        /**
+         * Removes the record of a user. The bucket keeps one user fewer until another record fills the place, which
+         * the margin makes up for.
+         *
+         * @param userName The user.
+         * @return true if the user had a record, false otherwise.
+         */
+        private boolean remove(String userName) {
+            Entry entry = entries.remove(userName);
+            return entry != null && ranking.remove(entry);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package bl;
+
+import dal.Direction;
+import dal.Grid;
+import dal.Level;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Provides read access to a level pack, a binary file holding many levels.
+ * The file starts with a header and an index of level offsets, followed by the levels themselves:
+ * the board size, the spawn points and a bitmap of the walls with one bit per cell id.
+ * <p>
+ * The file is memory-mapped and nothing is read up front beyond the header, so opening a pack of any size is
+ * immediate. A level is read straight from the mapping into a grid when it is played, and only the pages of
+ * the levels actually played are ever loaded into memory.
+ */
+public class LevelPack {
+    // Marks the start of every level pack ("SNKL")
+    private static final int MAGIC = 0x534E4B4C;
+    // Version of the binary layout
+    private static final byte VERSION = 1;
+    // Size of the fixed header: magic, version, level count
+    private static final int HEADER_SIZE = 4 + 1 + 4;
+    // Size of a level record before its spawn points: width, height, spawn count
+    private static final int LEVEL_HEADER_SIZE = 1 + 1 + 1;
+    // Size of a spawn point: cell id, direction
+    private static final int SPAWN_SIZE = 2 + 1;
+    // Read-only mapping of the whole file
+    private final MappedByteBuffer buffer;
+    // Number of levels in the pack
+    private final int levelCount;
+
+    /**
+     * Constructor for opening a level pack.
+     *
+     * @param path The path of the pack file.
+     * @throws IOException If an I/O error occurs, the file is too large to map or its header is corrupted.
+     */
+    public LevelPack(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("level pack is too large");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.get(4) != VERSION) {
+            throw new IOException("level pack is corrupted");
+        }
+        levelCount = buffer.getInt(5);
+        if (levelCount < 0 || HEADER_SIZE + (long) levelCount * 4 > buffer.limit()) {
+            throw new IOException("level pack is corrupted");
+        }
+    }
+
+    /**
+     * Clears and resizes the grid to a level and places the level's walls on it.
+     * The whole record is checked before the grid is touched, so a corrupted level leaves the grid as it was.
+     *
+     * @param level The index of the level.
+     * @param grid The grid to load the level into.
+     * @throws IOException If the level record is corrupted, such as a board larger than a grid can be, a spawn
+     *                     point outside the board or on a wall, or an unknown direction.
+     * @throws IllegalArgumentException If the level index is out of range.
+     */
+    public void load(int level, Grid grid) throws IOException {
+        int offset = getOffset(level);
+        if (offset < HEADER_SIZE || offset > buffer.limit() - LEVEL_HEADER_SIZE) {
+            throw new IOException("level pack is corrupted");
+        }
+        int xLength = buffer.get(offset) & 0xFF;
+        int yLength = buffer.get(offset + 1) & 0xFF;
+        if (xLength <= 1 || yLength <= 1 || xLength > Grid.MAX_X_LENGTH || yLength > Grid.MAX_Y_LENGTH) {
+            throw new IOException("level pack is corrupted: level " + level + " is " + xLength + "x" + yLength);
+        }
+        int cellCount = xLength * yLength;
+        int spawnCount = getSpawnCount(level);
+        int bitmap = offset + LEVEL_HEADER_SIZE + spawnCount * SPAWN_SIZE;
+        if (spawnCount < 1 || bitmap + (cellCount + 7) / 8 > buffer.limit()) {
+            throw new IOException("level pack is corrupted");
+        }
+        for (int spawn = 0; spawn < spawnCount; spawn++) {
+            int cell = getSpawnCell(offset, spawn);
+            if (cell >= cellCount) {
+                throw new IOException("level pack is corrupted: spawn point outside level " + level);
+            }
+            if ((buffer.get(bitmap + cell / 8) >>> cell % 8 & 1) != 0) {
+                throw new IOException("level pack is corrupted: spawn point on a wall of level " + level);
+            }
+            getSpawnDirection(level, spawn);
+        }
+        if (cellCount % 8 != 0 && (buffer.get(bitmap + cellCount / 8) & 0xFF) >>> cellCount % 8 != 0) {
+            throw new IOException("level pack is corrupted: wall outside level " + level);
+        }
+
+        grid.resize(xLength, yLength);
+        for (int i = 0; i < (cellCount + 7) / 8; i++) {
+            int bits = buffer.get(bitmap + i) & 0xFF;
+            // most levels are mostly open, so whole empty bytes are skipped
+            while (bits != 0) {
+                int cell = i * 8 + Integer.numberOfTrailingZeros(bits);
+                grid.placeWall(cell);
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of spawn points of a level.
+     *
+     * @param level The index of the level.
+     * @return The number of spawn points.
+     * @throws IllegalArgumentException If the level index is out of range.
+     */
+    public int getSpawnCount(int level) {
+        return buffer.get(getOffset(level) + 2) & 0xFF;
+    }
+
+    /**
+     * Gets the X-coordinate of a spawn point of a level.
+     *
+     * @param level The index of the level.
+     * @param spawn The index of the spawn point.
+     * @return The X-coordinate of the spawn point.
+     * @throws IllegalArgumentException If the level index is out of range.
+     */
+    public int getSpawnX(int level, int spawn) {
+        int offset = getOffset(level);
+        return getSpawnCell(offset, spawn) % (buffer.get(offset) & 0xFF) + 1;
+    }
+
+    /**
+     * Gets the Y-coordinate of a spawn point of a level.
+     *
+     * @param level The index of the level.
+     * @param spawn The index of the spawn point.
+     * @return The Y-coordinate of the spawn point.
+     * @throws IllegalArgumentException If the level index is out of range.
+     */
+    public int getSpawnY(int level, int spawn) {
+        int offset = getOffset(level);
+        return getSpawnCell(offset, spawn) / (buffer.get(offset) & 0xFF) + 1;
+    }
+
+    /**
+     * Gets the initial direction of the snake at a spawn point of a level.
+     *
+     * @param level The index of the level.
+     * @param spawn The index of the spawn point.
+     * @return The initial direction.
+     * @throws IOException If the stored direction is unknown.
+     * @throws IllegalArgumentException If the level index is out of range.
+     */
+    public Direction getSpawnDirection(int level, int spawn) throws IOException {
+        int position = getOffset(level) + LEVEL_HEADER_SIZE + spawn * SPAWN_SIZE + 2;
+        int direction = buffer.get(position);
+        if (direction < 0 || direction >= Direction.values().length) {
+            throw new IOException("level pack is corrupted: unknown direction " + direction);
+        }
+        return Direction.values()[direction];
+    }
+
+    /**
+     * Gets the number of levels in the pack.
+     *
+     * @return The number of levels.
+     */
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * Reads the cell id of a spawn point.
+     *
+     * @param offset The offset of the level record.
+     * @param spawn The index of the spawn point.
+     * @return The cell id of the spawn point.
+     */
+    private int getSpawnCell(int offset, int spawn) {
+        return buffer.getShort(offset + LEVEL_HEADER_SIZE + spawn * SPAWN_SIZE) & 0xFFFF;
+    }
+
+    /**
+     * Looks up the offset of a level record in the index.
+     *
+     * @param level The index of the level.
+     * @return The offset of the level record within the file.
+     * @throws IllegalArgumentException If the level index is out of range.
+     */
+    private int getOffset(int level) {
+        if (level < 0 || level >= levelCount) {
+            throw new IllegalArgumentException("level " + level + " is not in the pack");
+        }
+        return buffer.getInt(HEADER_SIZE + level * 4);
+    }
+
+    /**
+     * Writes levels into a new level pack, replacing any existing file.
+     *
+     * @param path The path of the pack file.
+     * @param levels The levels to write, in order.
+     * @throws IOException If an I/O error occurs while writing the file.
+     * @throws IllegalArgumentException If a level has no spawn point, too many of them, or one on a wall.
+     */
+    public static void write(Path path, List<Level> levels) throws IOException {
+        int size = HEADER_SIZE + levels.size() * 4;
+        for (Level level : levels) {
+            size += getRecordSize(level);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC);
+        out.put(VERSION);
+        out.putInt(levels.size());
+        int offset = HEADER_SIZE + levels.size() * 4;
+        for (Level level : levels) {
+            out.putInt(offset);
+            offset += getRecordSize(level);
+        }
+        for (Level level : levels) {
+            out.put((byte) level.getXLength());
+            out.put((byte) level.getYLength());
+            out.put((byte) level.getSpawnCount());
+            for (int i = 0; i < level.getSpawnCount(); i++) {
+                if (level.isWall(level.getSpawnCell(i))) {
+                    throw new IllegalArgumentException("spawn point on a wall");
+                }
+                out.putShort((short) level.getSpawnCell(i));
+                out.put((byte) level.getSpawnDirection(i).ordinal());
+            }
+            int cellCount = level.getXLength() * level.getYLength();
+            for (int i = 0; i < (cellCount + 7) / 8; i++) {
+                int bits = 0;
+                for (int bit = 0; bit < 8 && i * 8 + bit < cellCount; bit++) {
+                    if (level.isWall(i * 8 + bit)) {
+                        bits |= 1 << bit;
+                    }
+                }
+                out.put((byte) bits);
+            }
+        }
+        out.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * Computes the size of a level record.
+     *
+     * @param level The level.
+     * @return The size of its record in bytes.
+     * @throws IllegalArgumentException If the level has no spawn point or too many of them.
+     */
+    private static int getRecordSize(Level level) {
+        if (level.getSpawnCount() < 1 || level.getSpawnCount() > 255) {
+            throw new IllegalArgumentException("a level needs between 1 and 255 spawn points");
+        }
+        return LEVEL_HEADER_SIZE + level.getSpawnCount() * SPAWN_SIZE
+            + (level.getXLength() * level.getYLength() + 7) / 8;
+    }
+}
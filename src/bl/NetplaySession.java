@@ -0,0 +1,695 @@
+package bl;
+
+import dal.Direction;
+import dal.Grid;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Plays a head-to-head match between two processes in deterministic lockstep over TCP.
+ * Both peers run the same {@link Arena} from the same seed, and only the players' directions travel over the
+ * network: one message per tick and player. A direction chosen during tick t is applied in tick t plus the input
+ * delay, which gives it time to reach the other peer before it is needed.
+ * <p>
+ * A peer does not wait for the other player's direction. It predicts that the other player keeps the last direction
+ * it received and simulates ahead, at most a configurable number of ticks. The state before every tick is kept in a
+ * ring of {@link ArenaState} snapshots. When a direction arrives that differs from the prediction, the arena is put
+ * back into the snapshot of that tick and the ticks since are simulated again with the real input.
+ * <p>
+ * Each input message also carries a checksum of the newest tick whose inputs are all known, so a peer whose
+ * simulation diverged is detected. For testing on one machine, outgoing messages can be held back to simulate
+ * network latency.
+ * <p>
+ * The host sends the match settings first: a magic number, a version, the seed, the board size, the number of food
+ * cells, the input delay, the rollback window, the game speed and the match length. Every input message is the tick as an int, the
+ * direction as a byte, the checksum tick as an int (-1 for none) and the checksum as a long.
+ */
+public class NetplaySession implements AutoCloseable {
+    // Marks the start of the match settings ("SNKN")
+    private static final int MAGIC = 0x534E4B4E;
+    // Version of the protocol
+    private static final byte VERSION = 2;
+    // Size of the match settings: magic, version, seed, width, height, food, delay, rollback window, speed, length
+    private static final int SETTINGS_SIZE = 4 + 1 + 8 + 4 * 7;
+    // Size of an input message: tick, direction, checksum tick, checksum
+    private static final int MESSAGE_SIZE = 4 + 1 + 4 + 8;
+    // Number of ticks of inputs and checksums kept, larger than any tick distance between the two peers
+    private static final int WINDOW = 256;
+    // Mask turning a tick into an index of the input and checksum rings
+    private static final int WINDOW_MASK = WINDOW - 1;
+    // Largest input delay accepted
+    public static final int MAX_INPUT_DELAY = 32;
+    // Largest rollback window accepted
+    public static final int MAX_ROLLBACK = 64;
+    // Snake of the hosting player
+    private static final int HOST_SNAKE = 0;
+    // Snake of the joining player
+    private static final int GUEST_SNAKE = 1;
+    // Direction every snake starts in, indexed by snake
+    private static final Direction[] START_DIRECTIONS = {Direction.RIGHT, Direction.LEFT};
+    // Every direction, indexed by the byte sent for it
+    private static final Direction[] DIRECTIONS = Direction.values();
+    // Time between two checks whether hosting was cancelled while waiting for the other player
+    private static final long ACCEPT_POLL_MILLIS = 50;
+    // Longest time close() waits for the other peer to close its side of the connection
+    private static final long CLOSE_LINGER_NANOS = 1_000_000_000L;
+
+    // Connection to the other peer
+    private final SocketChannel channel;
+    // Grid of the match
+    private final Grid grid;
+    // Simulation of the match
+    private final Arena arena;
+    // Snake steered by this peer
+    private final int localSnake;
+    // Snake steered by the other peer
+    private final int remoteSnake;
+    // Number of ticks between choosing a direction and applying it
+    private final int inputDelay;
+    // Largest number of ticks simulated ahead of the other player's last known input
+    private final int maxRollback;
+    // Game speed in ticks per second, the same for both peers
+    private final int ticksPerSecond;
+    // Number of ticks after which the match ends if both snakes are alive, 0 for no limit
+    private final int tickLimit;
+    // Simulated one-way latency of outgoing messages, 0 to send them at once
+    private final long latencyNanos;
+
+    // Snapshot of the state before every tick of the rollback window, indexed by tick modulo its length
+    private final ArenaState[] states;
+    // Direction of this player for every tick in the window
+    private final Direction[] localInputs = new Direction[WINDOW];
+    // Direction of the other player for every tick received
+    private final Direction[] remoteInputs = new Direction[WINDOW];
+    // Direction of the other player that was used when each tick was last simulated
+    private final Direction[] usedRemoteInputs = new Direction[WINDOW];
+    // Checksum of the state after every confirmed tick in the window
+    private final long[] localChecksums = new long[WINDOW];
+    // Tick each entry of localChecksums belongs to
+    private final int[] localChecksumTicks = new int[WINDOW];
+    // Checksum the other peer sent for every tick in the window
+    private final long[] remoteChecksums = new long[WINDOW];
+    // Tick each entry of remoteChecksums belongs to
+    private final int[] remoteChecksumTicks = new int[WINDOW];
+
+    // Next tick to simulate
+    private int tick;
+    // Newest tick this player's direction was sent for
+    private int lastLocalTick;
+    // Newest tick the other player's direction is known for
+    private int lastRemoteTick;
+    // Direction the other player chose most recently, the prediction for every later tick
+    private Direction lastRemoteInput;
+    // Newest tick whose inputs are all known and simulated
+    private int confirmedTick = -1;
+    // Oldest tick simulated with a wrong prediction since the last rollback, Integer.MAX_VALUE if none
+    private int rollbackFrom = Integer.MAX_VALUE;
+    // Tick whose checksums differed between the peers, -1 while the peers agree
+    private int desyncTick = -1;
+
+    // Bytes received and not yet parsed
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MESSAGE_SIZE * WINDOW);
+    // Bytes waiting to be written to the socket
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(MESSAGE_SIZE * WINDOW * 4);
+    // Messages held back by the simulated latency, in sending order
+    private final ArrayDeque<PendingMessage> pending = new ArrayDeque<>();
+
+    // Number of rollbacks
+    private long rollbacks;
+    // Number of ticks simulated again by rollbacks
+    private long replayedTicks;
+    // Total time spent on rollbacks
+    private long totalRollbackNanos;
+    // Longest rollback
+    private long maxRollbackNanos;
+    // Number of calls to advance() that had to wait for the other player
+    private long stalls;
+
+    /**
+     * Constructor for creating a new NetplaySession on an open connection.
+     *
+     * @param channel The connection to the other peer, in blocking mode.
+     * @param settings The match settings as sent by the host, positioned after the magic number and version.
+     * @param localSnake The snake steered by this peer.
+     * @param latencyMillis The simulated one-way latency of outgoing messages in milliseconds, 0 for none.
+     * @throws IOException If the connection cannot be switched to non-blocking mode.
+     */
+    private NetplaySession(SocketChannel channel, ByteBuffer settings, int localSnake, int latencyMillis)
+        throws IOException {
+        long seed = settings.getLong();
+        int width = settings.getInt();
+        int height = settings.getInt();
+        int foodCount = settings.getInt();
+        this.inputDelay = settings.getInt();
+        this.maxRollback = settings.getInt();
+        this.ticksPerSecond = settings.getInt();
+        this.tickLimit = settings.getInt();
+        if (inputDelay < 0 || inputDelay > MAX_INPUT_DELAY || maxRollback < 1 || maxRollback > MAX_ROLLBACK
+            || foodCount < 1 || ticksPerSecond < 1 || tickLimit < 0) {
+            throw new IOException("invalid match settings");
+        }
+        this.channel = channel;
+        this.localSnake = localSnake;
+        this.remoteSnake = 1 - localSnake;
+        this.latencyNanos = latencyMillis * 1_000_000L;
+
+        grid = new Grid(width, height);
+        arena = new Arena(grid, 2, foodCount, seed);
+        arena.addSnake(START_DIRECTIONS[HOST_SNAKE]);
+        arena.addSnake(START_DIRECTIONS[GUEST_SNAKE]);
+
+        // the inputs of the first ticks were never chosen, both peers use the start directions for them
+        for (int t = 0; t < inputDelay; t++) {
+            localInputs[t] = START_DIRECTIONS[localSnake];
+            remoteInputs[t] = START_DIRECTIONS[remoteSnake];
+        }
+        lastLocalTick = inputDelay - 1;
+        lastRemoteTick = inputDelay - 1;
+        lastRemoteInput = START_DIRECTIONS[remoteSnake];
+        Arrays.fill(localChecksumTicks, -1);
+        Arrays.fill(remoteChecksumTicks, -1);
+
+        states = new ArenaState[maxRollback + 2];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = arena.createState();
+        }
+        arena.saveState(states[0]);
+
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Waits for the other player to connect and starts a match as the host. The wait can be cancelled, such as by
+     * the player pressing ESC.
+     *
+     * @param port The port to listen on.
+     * @param seed The seed of the match.
+     * @param width The width of the board.
+     * @param height The height of the board.
+     * @param inputDelay The number of ticks between choosing a direction and applying it.
+     * @param maxRollback The largest number of ticks to simulate ahead of the other player's inputs.
+     * @param ticksPerSecond The game speed.
+     * @param tickLimit The number of ticks after which the match ends if both snakes are alive, 0 for no limit.
+     * @param latencyMillis The simulated one-way latency of outgoing messages in milliseconds, 0 for none.
+     * @param isCancelled Checked while waiting for the other player; returning true gives up waiting.
+     * @return The session, connected to the other player.
+     * @throws InterruptedIOException If the wait was cancelled or the thread was interrupted.
+     * @throws IOException If the connection fails or a setting is out of range.
+     */
+    public static NetplaySession host(int port, long seed, int width, int height, int inputDelay, int maxRollback,
+                                      int ticksPerSecond, int tickLimit, int latencyMillis,
+                                      BooleanSupplier isCancelled) throws IOException {
+        ByteBuffer settings = ByteBuffer.allocate(SETTINGS_SIZE);
+        settings.putInt(MAGIC).put(VERSION).putLong(seed).putInt(width).putInt(height)
+            .putInt(Math.max(1, width * height / 200)).putInt(inputDelay).putInt(maxRollback).putInt(ticksPerSecond)
+            .putInt(tickLimit);
+        settings.flip();
+
+        SocketChannel channel;
+        try (ServerSocketChannel server = ServerSocketChannel.open(); Selector selector = Selector.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            // an accepted connection is in blocking mode whatever the mode of the server
+            while ((channel = server.accept()) == null) {
+                if (isCancelled.getAsBoolean()) {
+                    throw new InterruptedIOException("hosting was cancelled");
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("interrupted while waiting for the other player");
+                }
+                selector.select(ACCEPT_POLL_MILLIS);
+                selector.selectedKeys().clear();
+            }
+        }
+        try {
+            while (settings.hasRemaining()) {
+                channel.write(settings);
+            }
+            settings.position(4 + 1);
+            return new NetplaySession(channel, settings, HOST_SNAKE, latencyMillis);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Connects to a hosting player and starts the match with the host's settings.
+     *
+     * @param host The host name or address of the hosting player.
+     * @param port The port the hosting player listens on.
+     * @param latencyMillis The simulated one-way latency of outgoing messages in milliseconds, 0 for none.
+     * @return The session, connected to the other player.
+     * @throws IOException If the connection fails or the host is not a compatible game.
+     */
+    public static NetplaySession join(String host, int port, int latencyMillis) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        try {
+            ByteBuffer settings = ByteBuffer.allocate(SETTINGS_SIZE);
+            while (settings.hasRemaining()) {
+                if (channel.read(settings) < 0) {
+                    throw new EOFException("host closed the connection");
+                }
+            }
+            settings.flip();
+            if (settings.getInt() != MAGIC || settings.get() != VERSION) {
+                throw new IOException("host is not a compatible game");
+            }
+            return new NetplaySession(channel, settings, GUEST_SNAKE, latencyMillis);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Exchanges inputs with the other peer and simulates the next tick if the other player is not too far behind.
+     * Rollbacks caused by late inputs happen here as well. Call it once per tick; when it returns false, call it
+     * again on the next tick with the player's current direction.
+     *
+     * @param direction The direction this player chose, applied after the input delay.
+     * @return true if a tick was simulated, false if the session waits for the other player or the match is over.
+     * @throws IOException If the connection fails or the other player left.
+     */
+    public boolean advance(Direction direction) throws IOException {
+        pump();
+        if (isOver() || tick - lastRemoteTick > maxRollback) {
+            if (!isOver()) {
+                stalls++;
+            }
+            return false;
+        }
+        int inputTick = tick + inputDelay;
+        // after a rollback ended the match earlier and a later one undid that, the inputs already sent stand
+        if (inputTick > lastLocalTick) {
+            localInputs[inputTick & WINDOW_MASK] = direction;
+            send(inputTick, direction);
+            lastLocalTick = inputTick;
+        }
+        simulate(tick);
+        tick++;
+        confirmTicks();
+        flush();
+        return true;
+    }
+
+    /**
+     * Sends due messages, reads every message received and rolls back if one of them contradicts a prediction.
+     *
+     * @throws IOException If the connection fails or the other player left.
+     */
+    private void pump() throws IOException {
+        long now = System.nanoTime();
+        while (!pending.isEmpty() && pending.peekFirst().dueAt <= now) {
+            writeBuffer.put(pending.pollFirst().data);
+        }
+        flush();
+
+        int read = channel.read(readBuffer);
+        readBuffer.flip();
+        while (readBuffer.remaining() >= MESSAGE_SIZE) {
+            int inputTick = readBuffer.getInt();
+            byte direction = readBuffer.get();
+            if (inputTick != lastRemoteTick + 1 || direction < 0 || direction >= DIRECTIONS.length) {
+                throw new IOException("corrupted input message");
+            }
+            receive(inputTick, DIRECTIONS[direction], readBuffer.getInt(), readBuffer.getLong());
+        }
+        readBuffer.compact();
+        if (read < 0 && !isConfirmed()) {
+            throw new EOFException("the other player left");
+        }
+
+        if (rollbackFrom < tick) {
+            rollback(rollbackFrom);
+        }
+        rollbackFrom = Integer.MAX_VALUE;
+        confirmTicks();
+    }
+
+    /**
+     * Records an input of the other player and the checksum it sent.
+     *
+     * @param inputTick The tick the input is applied in.
+     * @param direction The direction chosen.
+     * @param checksumTick The tick the checksum belongs to, -1 for none.
+     * @param checksum The checksum of the other peer's state after that tick.
+     */
+    private void receive(int inputTick, Direction direction, int checksumTick, long checksum) {
+        remoteInputs[inputTick & WINDOW_MASK] = direction;
+        lastRemoteTick = inputTick;
+        lastRemoteInput = direction;
+        if (inputTick < tick && usedRemoteInputs[inputTick & WINDOW_MASK] != direction) {
+            rollbackFrom = Math.min(rollbackFrom, inputTick);
+        }
+        if (checksumTick >= 0) {
+            remoteChecksums[checksumTick & WINDOW_MASK] = checksum;
+            remoteChecksumTicks[checksumTick & WINDOW_MASK] = checksumTick;
+            compareChecksums(checksumTick);
+        }
+    }
+
+    /**
+     * Puts the arena back into the state before a tick and simulates every tick since again. If the real inputs end
+     * the match earlier than the predicted ones did, the replay stops at the tick that ends it, as the other peer's
+     * simulation did, and the ticks simulated after it are forgotten.
+     *
+     * @param from The oldest tick simulated with a wrong prediction.
+     */
+    private void rollback(int from) {
+        long start = System.nanoTime();
+        arena.restoreState(states[from % states.length]);
+        int end = tick;
+        tick = from;
+        while (tick < end && !isOver()) {
+            simulate(tick);
+            tick++;
+        }
+        // the snapshots after the new tick are never restored: a rollback only goes back to ticks before it, and
+        // simulating on overwrites them
+        long nanos = System.nanoTime() - start;
+        rollbacks++;
+        replayedTicks += tick - from;
+        totalRollbackNanos += nanos;
+        maxRollbackNanos = Math.max(maxRollbackNanos, nanos);
+    }
+
+    /**
+     * Simulates one tick with the known or predicted inputs and keeps the state after it.
+     *
+     * @param t The tick to simulate.
+     */
+    private void simulate(int t) {
+        Direction remote = t <= lastRemoteTick ? remoteInputs[t & WINDOW_MASK] : lastRemoteInput;
+        usedRemoteInputs[t & WINDOW_MASK] = remote;
+        steer(localSnake, localInputs[t & WINDOW_MASK]);
+        steer(remoteSnake, remote);
+        arena.tick();
+        arena.saveState(states[(t + 1) % states.length]);
+    }
+
+    /**
+     * Turns a snake unless the direction would reverse it into its own body.
+     *
+     * @param snake The id of the snake.
+     * @param direction The direction chosen for the snake.
+     */
+    private void steer(int snake, Direction direction) {
+        if (arena.isAlive(snake) && (arena.getLength(snake) == 1 || !isOpposite(direction, arena.getDirection(snake)))) {
+            arena.setDirection(snake, direction);
+        }
+    }
+
+    /**
+     * Checks if two directions point opposite ways.
+     *
+     * @param first The first direction.
+     * @param second The second direction.
+     * @return true if the directions are opposite, false otherwise.
+     */
+    private static boolean isOpposite(Direction first, Direction second) {
+        return switch (first) {
+            case UP -> second == Direction.DOWN;
+            case DOWN -> second == Direction.UP;
+            case LEFT -> second == Direction.RIGHT;
+            case RIGHT -> second == Direction.LEFT;
+        };
+    }
+
+    /**
+     * Computes the checksums of the ticks whose inputs have all become known since the last call.
+     */
+    private void confirmTicks() {
+        int newest = Math.min(tick - 1, lastRemoteTick);
+        for (int t = confirmedTick + 1; t <= newest; t++) {
+            localChecksums[t & WINDOW_MASK] = states[(t + 1) % states.length].checksum();
+            localChecksumTicks[t & WINDOW_MASK] = t;
+            compareChecksums(t);
+        }
+        confirmedTick = Math.max(confirmedTick, newest);
+    }
+
+    /**
+     * Compares the checksums of both peers for a tick if both are known, and records the first mismatch.
+     *
+     * @param t The tick to compare.
+     */
+    private void compareChecksums(int t) {
+        int index = t & WINDOW_MASK;
+        if (desyncTick < 0 && localChecksumTicks[index] == t && remoteChecksumTicks[index] == t
+            && localChecksums[index] != remoteChecksums[index]) {
+            desyncTick = t;
+        }
+    }
+
+    /**
+     * Queues an input message for the other peer, holding it back if latency is simulated.
+     *
+     * @param inputTick The tick the input is applied in.
+     * @param direction The direction chosen.
+     */
+    private void send(int inputTick, Direction direction) {
+        int checksumTick = confirmedTick;
+        long checksum = checksumTick >= 0 ? localChecksums[checksumTick & WINDOW_MASK] : 0;
+        if (latencyNanos == 0) {
+            writeBuffer.putInt(inputTick).put((byte) direction.ordinal()).putInt(checksumTick).putLong(checksum);
+            return;
+        }
+        ByteBuffer message = ByteBuffer.allocate(MESSAGE_SIZE);
+        message.putInt(inputTick).put((byte) direction.ordinal()).putInt(checksumTick).putLong(checksum).flip();
+        pending.addLast(new PendingMessage(System.nanoTime() + latencyNanos, message));
+    }
+
+    /**
+     * Writes as much of the queued bytes as the socket accepts without blocking.
+     *
+     * @throws IOException If the connection fails.
+     */
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining() && channel.write(writeBuffer) > 0) {
+            // keep writing while the socket accepts bytes
+        }
+        writeBuffer.compact();
+    }
+
+    /**
+     * Checks if the match is over and the other player's inputs confirmed every tick simulated.
+     *
+     * @return true if the result of the match is final, false otherwise.
+     */
+    public boolean isFinished() {
+        return isOver() && isConfirmed();
+    }
+
+    /**
+     * Checks if the newest tick simulated ended the match, which a rollback may still undo.
+     *
+     * @return true if a snake died or the match length is reached, false otherwise.
+     */
+    private boolean isOver() {
+        return arena.getAliveCount() < 2 || (tickLimit > 0 && tick >= tickLimit);
+    }
+
+    /**
+     * Checks if the other player's inputs for every tick simulated are known, so no rollback can change the state.
+     *
+     * @return true if the state of the newest tick is final, false if it rests on predictions.
+     */
+    public boolean isConfirmed() {
+        return confirmedTick == tick - 1;
+    }
+
+    /**
+     * Checks if this player won the finished match.
+     *
+     * @return true if only this player's snake is alive, false otherwise.
+     */
+    public boolean isWon() {
+        return arena.isAlive(localSnake) && !arena.isAlive(remoteSnake);
+    }
+
+    /**
+     * Checks if this player lost the finished match.
+     *
+     * @return true if only the other player's snake is alive, false otherwise.
+     */
+    public boolean isLost() {
+        return !arena.isAlive(localSnake) && arena.isAlive(remoteSnake);
+    }
+
+    /**
+     * Gets the grid of the match, showing the state of the newest tick simulated.
+     *
+     * @return The grid.
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Gets the simulation of the match. Its state includes predicted ticks and may still be rolled back.
+     *
+     * @return The arena.
+     */
+    public Arena getArena() {
+        return arena;
+    }
+
+    /**
+     * Gets the snake steered by this peer.
+     *
+     * @return The id of the local snake.
+     */
+    public int getLocalSnake() {
+        return localSnake;
+    }
+
+    /**
+     * Gets the game speed agreed by the peers.
+     *
+     * @return The number of ticks per second.
+     */
+    public int getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    /**
+     * Gets the number of ticks simulated.
+     *
+     * @return The tick count.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Gets the checksum of the newest confirmed tick, which must be equal on both peers.
+     *
+     * @return The checksum, or 0 if no tick is confirmed yet.
+     */
+    public long getConfirmedChecksum() {
+        return confirmedTick < 0 ? 0 : localChecksums[confirmedTick & WINDOW_MASK];
+    }
+
+    /**
+     * Gets the first tick the two peers disagreed about.
+     *
+     * @return The tick, or -1 if the simulations never diverged.
+     */
+    public int getDesyncTick() {
+        return desyncTick;
+    }
+
+    /**
+     * Gets the number of rollbacks.
+     *
+     * @return The number of rollbacks.
+     */
+    public long getRollbacks() {
+        return rollbacks;
+    }
+
+    /**
+     * Gets the number of ticks simulated again by rollbacks.
+     *
+     * @return The number of replayed ticks.
+     */
+    public long getReplayedTicks() {
+        return replayedTicks;
+    }
+
+    /**
+     * Gets the average time of a rollback, including restoring the snapshot and replaying the ticks.
+     *
+     * @return The average rollback time in nanoseconds.
+     */
+    public long getAverageRollbackNanos() {
+        return rollbacks == 0 ? 0 : totalRollbackNanos / rollbacks;
+    }
+
+    /**
+     * Gets the longest time of a rollback.
+     *
+     * @return The longest rollback time in nanoseconds.
+     */
+    public long getMaxRollbackNanos() {
+        return maxRollbackNanos;
+    }
+
+    /**
+     * Gets the number of times the session waited for the other player instead of simulating.
+     *
+     * @return The number of stalls.
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    /**
+     * Sends the messages still held back, unless the other peer has already left, and closes the connection.
+     * Closing a socket with unread bytes resets the connection, which throws away bytes the other peer has not
+     * read yet, such as the last inputs it needs to confirm the match. So this side is shut down first and the
+     * other peer's messages are drained until it closes too, for at most a second.
+     *
+     * @throws IOException If an I/O error occurs while closing.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                writeBuffer.put(pending.pollFirst().data);
+            }
+            writeBuffer.flip();
+            long deadline = System.nanoTime() + CLOSE_LINGER_NANOS;
+            while (writeBuffer.hasRemaining() && System.nanoTime() < deadline) {
+                if (channel.write(writeBuffer) == 0) {
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+            channel.shutdownOutput();
+            while (System.nanoTime() < deadline && channel.read(readBuffer.clear()) >= 0) {
+                LockSupport.parkNanos(1_000_000);
+            }
+        } catch (IOException ex) {
+            // the other peer leaves once it has every input it needs, so it no longer wants the rest
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Holds an outgoing message until the simulated latency has passed.
+     */
+    private static class PendingMessage {
+        // Time the message may be sent, in System.nanoTime() units
+        private final long dueAt;
+        // The encoded message
+        private final ByteBuffer data;
+
+        /**
+         * Constructor for creating a new PendingMessage.
+         *
+         * @param dueAt The time the message may be sent.
+         * @param data The encoded message.
+         */
+        private PendingMessage(long dueAt, ByteBuffer data) {
+            this.dueAt = dueAt;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package bl;
+
+/**
+ * Keeps what changed in each of the last ticks of a game, so {@link GameLogic#rewind(int)} can undo them.
+ * A tick is recorded as a small delta rather than a copy of the board: the cell the head entered, the cell the
+ * tail left, the cell new food was placed in, the cell food expired from, what the head ran into, the direction
+ * before the tick and the state of the food generator before the tick. The deltas are kept in a ring of fixed
+ * capacity, so the memory used is bounded and the oldest ticks are forgotten once it is full.
+ */
+public class RewindBuffer {
+    // Flag of a tick in which the snake ate and grew
+    static final byte GREW = 1;
+    // Flag of a tick in which the head ran into the body
+    static final byte HIT_BODY = 2;
+    // Flag of a tick in which the head ran into a wall
+    static final byte HIT_WALL = 4;
+    // Marks a missing cell
+    static final short NO_CELL = -1;
+    // Bytes recorded per tick: four cells, flags, direction, generator state
+    private static final int BYTES_PER_TICK = 2 * 4 + 1 + 1 + 8;
+
+    // Cell the head entered in every recorded tick, NO_CELL if it left the grid
+    private final short[] headCells;
+    // Cell the tail left in every recorded tick
+    private final short[] tailCells;
+    // Cell new food was placed in during every recorded tick, NO_CELL if none
+    private final short[] foodCells;
+    // Cell the food expired from during every recorded tick, NO_CELL if none
+    private final short[] expiredFoodCells;
+    // Flags of every recorded tick
+    private final byte[] flags;
+    // Ordinal of the direction before every recorded tick
+    private final byte[] directions;
+    // State of the food generator before every recorded tick
+    private final long[] randomStates;
+    // Index the next tick is recorded at
+    private int next;
+    // Number of recorded ticks
+    private int size;
+
+    /**
+     * Constructor for creating a new RewindBuffer.
+     *
+     * @param capacity The number of ticks that can be rewound.
+     * @throws IllegalArgumentException If the capacity is not positive.
+     */
+    public RewindBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        headCells = new short[capacity];
+        tailCells = new short[capacity];
+        foodCells = new short[capacity];
+        expiredFoodCells = new short[capacity];
+        flags = new byte[capacity];
+        directions = new byte[capacity];
+        randomStates = new long[capacity];
+    }
+
+    /**
+     * Records a tick, forgetting the oldest one if the buffer is full.
+     *
+     * @param headCell The cell the head entered, or NO_CELL.
+     * @param tailCell The cell the tail left.
+     * @param foodCell The cell new food was placed in, or NO_CELL.
+     * @param expiredFoodCell The cell the food expired from, or NO_CELL.
+     * @param tickFlags The flags of the tick.
+     * @param direction The ordinal of the direction before the tick.
+     * @param randomState The state of the food generator before the tick.
+     */
+    void record(int headCell, int tailCell, int foodCell, int expiredFoodCell, byte tickFlags, int direction,
+        long randomState) {
+        headCells[next] = (short) headCell;
+        tailCells[next] = (short) tailCell;
+        foodCells[next] = (short) foodCell;
+        expiredFoodCells[next] = (short) expiredFoodCell;
+        flags[next] = tickFlags;
+        directions[next] = (byte) direction;
+        randomStates[next] = randomState;
+        next = next + 1 == headCells.length ? 0 : next + 1;
+        size = Math.min(size + 1, headCells.length);
+    }
+
+    /**
+     * Gets the ring index of a recorded tick.
+     *
+     * @param age The age of the tick, 0 for the newest.
+     * @return The index of the tick in the ring.
+     */
+    int indexOf(int age) {
+        int index = next - 1 - age;
+        return index < 0 ? index + headCells.length : index;
+    }
+
+    /**
+     * Forgets the newest ticks after they were undone.
+     *
+     * @param count The number of ticks to forget.
+     */
+    void drop(int count) {
+        next = indexOf(count - 1);
+        size -= count;
+    }
+
+    /**
+     * Gets the cell the head entered in a recorded tick.
+     *
+     * @param index The ring index of the tick.
+     * @return The cell id, or NO_CELL.
+     */
+    int getHeadCell(int index) {
+        return headCells[index];
+    }
+
+    /**
+     * Gets the cell the tail left in a recorded tick.
+     *
+     * @param index The ring index of the tick.
+     * @return The cell id.
+     */
+    int getTailCell(int index) {
+        return tailCells[index];
+    }
+
+    /**
+     * Gets the cell new food was placed in during a recorded tick.
+     *
+     * @param index The ring index of the tick.
+     * @return The cell id, or NO_CELL.
+     */
+    int getFoodCell(int index) {
+        return foodCells[index];
+    }
+
+    /**
+     * Gets the cell the food expired from during a recorded tick.
+     *
+     * @param index The ring index of the tick.
+     * @return The cell id, or NO_CELL.
+     */
+    int getExpiredFoodCell(int index) {
+        return expiredFoodCells[index];
+    }
+
+    /**
+     * Gets the flags of a recorded tick.
+     *
+     * @param index The ring index of the tick.
+     * @return The flags.
+     */
+    byte getFlags(int index) {
+        return flags[index];
+    }
+
+    /**
+     * Gets the direction before a recorded tick.
+     *
+     * @param index The ring index of the tick.
+     * @return The ordinal of the direction.
+     */
+    int getDirection(int index) {
+        return directions[index];
+    }
+
+    /**
+     * Gets the state of the food generator before a recorded tick.
+     *
+     * @param index The ring index of the tick.
+     * @return The generator state.
+     */
+    long getRandomState(int index) {
+        return randomStates[index];
+    }
+
+    /**
+     * Forgets every recorded tick.
+     */
+    public void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Gets the number of ticks that can currently be rewound.
+     *
+     * @return The number of recorded ticks.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of ticks the buffer holds when full.
+     *
+     * @return The capacity in ticks.
+     */
+    public int getCapacity() {
+        return headCells.length;
+    }
+
+    /**
+     * Gets the memory used by the recorded deltas, which does not depend on the board or the snake.
+     *
+     * @return The size of the buffer's arrays in bytes.
+     */
+    public long getMemoryBytes() {
+        return (long) BYTES_PER_TICK * headCells.length;
+    }
+}
@@ -0,0 +1,40 @@
+package bl;
+
+/**
+ * Holds a game restored from a save slot together with the speed it was played at.
+ */
+public class SavedGame {
+    // The restored game logic, already bound to its grid
+    private final GameLogic logic;
+    // The game speed in updates per second
+    private final int speed;
+
+    /**
+     * Constructor for creating a new SavedGame.
+     *
+     * @param logic The restored game logic.
+     * @param speed The game speed in updates per second.
+     */
+    public SavedGame(GameLogic logic, int speed) {
+        this.logic = logic;
+        this.speed = speed;
+    }
+
+    /**
+     * Gets the restored game logic.
+     *
+     * @return The restored game logic.
+     */
+    public GameLogic getLogic() {
+        return logic;
+    }
+
+    /**
+     * Gets the game speed.
+     *
+     * @return The game speed in updates per second.
+     */
+    public int getSpeed() {
+        return speed;
+    }
+}
@@ -0,0 +1,479 @@
+package bl;
+
+import dal.Grid;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Streams a running game to spectators connecting over TCP.
+ * A new viewer first receives a keyframe holding the whole board, then one delta per tick listing the cells that
+ * changed. Every frame is encoded once by the game thread and the same bytes are written to every viewer, so the
+ * encoding cost does not depend on the number of viewers.
+ * <p>
+ * All network work happens on a single selector thread with non-blocking sockets. A viewer that falls too far
+ * behind has its backlog replaced by a fresh keyframe, and a viewer that keeps falling behind is disconnected,
+ * so a slow viewer never holds up the game.
+ * <p>
+ * Frames are laid out as a type byte, the payload length as an int and the payload. A keyframe payload is the
+ * tick as a long, the width and height as bytes and one texture code per cell id. A delta payload is the tick as
+ * a long, the number of changed cells as a short and, for each of them, the cell id as a short and the new
+ * texture code as a byte.
+ */
+public class SpectatorService implements AutoCloseable {
+    // Frame type of a keyframe
+    public static final byte KEYFRAME = 1;
+    // Frame type of a delta
+    public static final byte DELTA = 2;
+    // Size of the frame header: type, payload length
+    private static final int FRAME_HEADER_SIZE = 1 + 4;
+    // Size of the keyframe payload before the cells: tick, width, height
+    private static final int KEYFRAME_HEADER_SIZE = 8 + 1 + 1;
+    // Size of the delta payload before the cells: tick, count
+    private static final int DELTA_HEADER_SIZE = 8 + 2;
+    // Size of a changed cell in a delta: cell id, texture code
+    private static final int DELTA_CELL_SIZE = 2 + 1;
+    // Number of frames a viewer may have queued before it is resynced
+    private static final int MAX_QUEUED_FRAMES = 64;
+    // Number of resyncs in a row after which a viewer is disconnected
+    private static final int MAX_RESYNCS = 3;
+
+    // Socket accepting viewers
+    private final ServerSocketChannel server;
+    // Selector of the network thread
+    private final Selector selector;
+    // Thread doing all network work
+    private final Thread thread;
+    // Frames encoded by the game thread and not yet handed to the viewers
+    private final ConcurrentLinkedQueue<ByteBuffer> published = new ConcurrentLinkedQueue<>();
+    // Connected viewers, owned by the network thread
+    private final List<Viewer> viewers = new ArrayList<>();
+    // Buffer anything the viewers send is read into and discarded
+    private final ByteBuffer discard = ByteBuffer.allocate(256);
+    // Flag telling the network thread to stop
+    private volatile boolean isClosed;
+
+    // Textures of the board at the last published frame, owned by the game thread
+    private byte[] previous = new byte[0];
+    // Width of the board at the last published frame
+    private int previousXLength;
+    // Height of the board at the last published frame
+    private int previousYLength;
+    // Buffer the changed cells of a delta are collected in, owned by the game thread
+    private byte[] changes = new byte[0];
+
+    // Textures of the board as the viewers know it, owned by the network thread
+    private byte[] mirror = new byte[0];
+    // Width of the mirrored board, 0 before the first frame
+    private int mirrorXLength;
+    // Height of the mirrored board
+    private int mirrorYLength;
+    // Tick of the mirrored board
+    private long mirrorTick;
+    // Keyframe of the mirrored board, encoded on demand and shared until the next frame
+    private ByteBuffer cachedKeyframe;
+
+    // Number of frames published
+    private volatile long framesPublished;
+    // Number of viewers connected
+    private volatile int viewerCount;
+    // Number of times a viewer was resynced
+    private volatile long resyncs;
+    // Number of viewers disconnected for falling behind
+    private volatile long droppedViewers;
+
+    /**
+     * Constructor for creating a new SpectatorService listening on a port of the loopback interface, so only
+     * viewers on this host can watch.
+     *
+     * @param port The TCP port to listen on, 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public SpectatorService(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Constructor for creating a new SpectatorService listening on a port of a given address.
+     *
+     * @param address The address to listen on, such as the wildcard address to let viewers on other hosts watch.
+     * @param port The TCP port to listen on, 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public SpectatorService(InetAddress address, int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(address, port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::run, "spectators");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Publishes the board after a tick. Encodes a delta of the cells changed since the previous call, or a keyframe
+     * if the board size changed, and hands it to the network thread without waiting for it.
+     * Must only be called from the game thread.
+     *
+     * @param grid The board to publish.
+     * @param tick The number of the tick.
+     */
+    public void publish(Grid grid, long tick) {
+        int xLength = grid.getXLength();
+        int yLength = grid.getYLength();
+        int cellCount = xLength * yLength;
+        ByteBuffer frame;
+        if (xLength != previousXLength || yLength != previousYLength) {
+            previousXLength = xLength;
+            previousYLength = yLength;
+            previous = new byte[cellCount];
+            changes = new byte[cellCount * DELTA_CELL_SIZE];
+            for (int cell = 0; cell < cellCount; cell++) {
+                previous[cell] = grid.getTexture(cell);
+            }
+            frame = encodeKeyframe(previous, xLength, yLength, tick);
+        } else {
+            int count = 0;
+            for (int cell = 0; cell < cellCount; cell++) {
+                byte texture = grid.getTexture(cell);
+                if (texture != previous[cell]) {
+                    previous[cell] = texture;
+                    int offset = count++ * DELTA_CELL_SIZE;
+                    changes[offset] = (byte) (cell >>> 8);
+                    changes[offset + 1] = (byte) cell;
+                    changes[offset + 2] = texture;
+                }
+            }
+            int payload = DELTA_HEADER_SIZE + count * DELTA_CELL_SIZE;
+            frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload);
+            frame.put(DELTA).putInt(payload).putLong(tick).putShort((short) count);
+            frame.put(changes, 0, count * DELTA_CELL_SIZE);
+            frame.flip();
+        }
+        published.add(frame.asReadOnlyBuffer());
+        framesPublished++;
+        selector.wakeup();
+    }
+
+    /**
+     * Encodes a keyframe of a whole board.
+     *
+     * @param textures The texture code of every cell id.
+     * @param xLength The width of the board.
+     * @param yLength The height of the board.
+     * @param tick The tick of the board.
+     * @return The encoded frame, ready to be written.
+     */
+    private static ByteBuffer encodeKeyframe(byte[] textures, int xLength, int yLength, long tick) {
+        int payload = KEYFRAME_HEADER_SIZE + xLength * yLength;
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload);
+        frame.put(KEYFRAME).putInt(payload).putLong(tick).put((byte) xLength).put((byte) yLength);
+        frame.put(textures, 0, xLength * yLength);
+        frame.flip();
+        return frame.asReadOnlyBuffer();
+    }
+
+    /**
+     * Runs the network thread: hands published frames to the viewers, accepts new viewers and writes pending data.
+     */
+    private void run() {
+        try {
+            while (!isClosed) {
+                selector.select();
+                ByteBuffer frame;
+                while ((frame = published.poll()) != null) {
+                    applyToMirror(frame);
+                    for (Viewer viewer : viewers) {
+                        viewer.enqueue(frame);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable() && isDisconnected((SocketChannel) key.channel())) {
+                        disconnect((Viewer) key.attachment());
+                    }
+                }
+
+                for (int i = viewers.size() - 1; i >= 0; i--) {
+                    Viewer viewer = viewers.get(i);
+                    if (viewer.isOverrun) {
+                        droppedViewers++;
+                        disconnect(viewer);
+                    } else if (!viewer.flush()) {
+                        disconnect(viewer);
+                    }
+                }
+                viewerCount = viewers.size();
+            }
+        } catch (IOException ex) {
+            // the selector failed, which leaves nothing to serve
+        } finally {
+            for (int i = viewers.size() - 1; i >= 0; i--) {
+                disconnect(viewers.get(i));
+            }
+            viewerCount = 0;
+        }
+    }
+
+    /**
+     * Accepts all pending viewers and queues a keyframe for each of them.
+     *
+     * @throws IOException If an I/O error occurs while accepting.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Viewer viewer = new Viewer(channel);
+            viewer.key = channel.register(selector, SelectionKey.OP_READ, viewer);
+            viewers.add(viewer);
+            if (mirrorXLength > 0) {
+                viewer.enqueueKeyframe();
+            }
+        }
+    }
+
+    /**
+     * Checks if a viewer closed its connection. Anything a viewer sends is ignored.
+     *
+     * @param channel The channel of the viewer.
+     * @return true if the connection is closed, false otherwise.
+     */
+    private boolean isDisconnected(SocketChannel channel) {
+        discard.clear();
+        try {
+            return channel.read(discard) == -1;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Closes the connection of a viewer and forgets it.
+     *
+     * @param viewer The viewer.
+     */
+    private void disconnect(Viewer viewer) {
+        viewers.remove(viewer);
+        viewer.key.cancel();
+        try {
+            viewer.channel.close();
+        } catch (IOException ex) {
+            // the viewer is gone either way
+        }
+    }
+
+    /**
+     * Applies a published frame to the board as the viewers know it.
+     *
+     * @param frame The encoded frame.
+     */
+    private void applyToMirror(ByteBuffer frame) {
+        cachedKeyframe = null;
+        mirrorTick = frame.getLong(FRAME_HEADER_SIZE);
+        if (frame.get(0) == KEYFRAME) {
+            mirrorXLength = frame.get(FRAME_HEADER_SIZE + 8) & 0xFF;
+            mirrorYLength = frame.get(FRAME_HEADER_SIZE + 9) & 0xFF;
+            mirror = new byte[mirrorXLength * mirrorYLength];
+            frame.get(FRAME_HEADER_SIZE + KEYFRAME_HEADER_SIZE, mirror);
+            cachedKeyframe = frame;
+            return;
+        }
+        int count = frame.getShort(FRAME_HEADER_SIZE + 8) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int offset = FRAME_HEADER_SIZE + DELTA_HEADER_SIZE + i * DELTA_CELL_SIZE;
+            mirror[frame.getShort(offset) & 0xFFFF] = frame.get(offset + 2);
+        }
+    }
+
+    /**
+     * Gets a keyframe of the board as the viewers know it, encoding it at most once per frame.
+     *
+     * @return The encoded keyframe.
+     */
+    private ByteBuffer getKeyframe() {
+        if (cachedKeyframe == null) {
+            cachedKeyframe = encodeKeyframe(mirror, mirrorXLength, mirrorYLength, mirrorTick);
+        }
+        return cachedKeyframe;
+    }
+
+    /**
+     * Gets the local port viewers connect to.
+     *
+     * @return The port number.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of connected viewers.
+     *
+     * @return The number of viewers.
+     */
+    public int getViewerCount() {
+        return viewerCount;
+    }
+
+    /**
+     * Gets the number of frames published.
+     *
+     * @return The number of frames.
+     */
+    public long getFramesPublished() {
+        return framesPublished;
+    }
+
+    /**
+     * Gets the number of times a slow viewer had its backlog replaced by a keyframe.
+     *
+     * @return The number of resyncs.
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     * Gets the number of viewers disconnected for falling behind repeatedly.
+     *
+     * @return The number of dropped viewers.
+     */
+    public long getDroppedViewers() {
+        return droppedViewers;
+    }
+
+    /**
+     * Disconnects every viewer and stops listening.
+     *
+     * @throws IOException If an I/O error occurs while closing the socket.
+     */
+    @Override
+    public void close() throws IOException {
+        isClosed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        server.close();
+        selector.close();
+    }
+
+    /**
+     * Represents a connected viewer and the frames still to be written to it.
+     */
+    private class Viewer {
+        // Connection to the viewer
+        private final SocketChannel channel;
+        // Frames waiting to be written, shared with the other viewers
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        // Selection key of the connection
+        private SelectionKey key;
+        // View of the frame being written, possibly partially
+        private ByteBuffer current;
+        // Flag indicating a keyframe was queued, so deltas can follow
+        private boolean hasKeyframe;
+        // Flag indicating the socket buffer is full and the selector waits for it to drain
+        private boolean isWaitingForWrite;
+        // Number of resyncs since the viewer last caught up
+        private int resyncsInRow;
+        // Flag indicating the viewer fell behind too often and has to be disconnected
+        private boolean isOverrun;
+
+        /**
+         * Constructor for creating a new Viewer.
+         *
+         * @param channel The connection to the viewer.
+         */
+        private Viewer(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Queues a keyframe of the current board.
+         */
+        private void enqueueKeyframe() {
+            queue.add(getKeyframe());
+            hasKeyframe = true;
+        }
+
+        /**
+         * Queues a frame for the viewer. A viewer that joined before the first frame gets a keyframe instead,
+         * and a viewer that has fallen too far behind has its backlog replaced by a keyframe.
+         *
+         * @param frame The encoded frame.
+         */
+        private void enqueue(ByteBuffer frame) {
+            if (!hasKeyframe) {
+                enqueueKeyframe();
+            } else if (queue.size() >= MAX_QUEUED_FRAMES) {
+                queue.clear();
+                enqueueKeyframe();
+                resyncs++;
+                isOverrun = ++resyncsInRow > MAX_RESYNCS;
+            } else {
+                queue.add(frame);
+            }
+        }
+
+        /**
+         * Writes as much queued data as the socket accepts without blocking.
+         *
+         * @return false if the connection failed, true otherwise.
+         */
+        private boolean flush() {
+            try {
+                while (current != null || !queue.isEmpty()) {
+                    if (current == null) {
+                        current = queue.poll().duplicate();
+                    }
+                    channel.write(current);
+                    if (current.hasRemaining()) {
+                        setWaitingForWrite(true);
+                        return true;
+                    }
+                    current = null;
+                }
+                resyncsInRow = 0;
+                setWaitingForWrite(false);
+                return true;
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+
+        /**
+         * Subscribes to or unsubscribes from the socket becoming writable, touching the key only on a change.
+         *
+         * @param isWaiting true to wait for the socket to become writable.
+         */
+        private void setWaitingForWrite(boolean isWaiting) {
+            if (isWaiting != isWaitingForWrite) {
+                isWaitingForWrite = isWaiting;
+                key.interestOps(isWaiting ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package bl;
+
+import dal.Account;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Writes account statistics into a columnar file for analysis.
+ * Accounts are added one at a time and collected into row groups of at most {@link #ROW_GROUP_SIZE} accounts.
+ * Every row group stores each field in a block of its own with an encoding chosen for the field, so a reader
+ * can skip the columns it does not need. Only one row group is held in memory, whatever the number of accounts.
+ * <p>
+ * The file starts with a magic number and a version. Every row group starts with its number of rows and its
+ * length in bytes, followed by one block per column: the column id, the encoding, the block length and the data.
+ * A row group of zero rows followed by the total number of rows ends the file.
+ * Scores are stored per account in ascending order as the first score followed by the gaps between scores,
+ * all as varints.
+ */
+public class StatsExporter implements AutoCloseable {
+    // Marks the start of every statistics file ("SNKX")
+    public static final int MAGIC = 0x534E4B58;
+    // Version of the binary layout
+    public static final byte VERSION = 1;
+    // Maximum number of accounts per row group
+    public static final int ROW_GROUP_SIZE = 4096;
+    // Column of the account ids, two longs per account
+    public static final byte ID = 0;
+    // Column of the usernames, a varint length and UTF-8 bytes per account
+    public static final byte USERNAME = 1;
+    // Column of the run counts, a varint per account
+    public static final byte RUN_COUNT = 2;
+    // Column of the enters counts, a varint per account
+    public static final byte ENTERS_COUNT = 3;
+    // Column of the number of scores, a varint per account
+    public static final byte SCORE_COUNT = 4;
+    // Column of the scores, delta-encoded varints per account
+    public static final byte SCORES = 5;
+    // Number of columns
+    public static final int COLUMN_COUNT = 6;
+    // Encoding of fixed-size values
+    public static final byte PLAIN = 0;
+    // Encoding of unsigned varints
+    public static final byte VARINT = 1;
+    // Encoding of ascending runs stored as gaps between varints
+    public static final byte DELTA_VARINT = 2;
+    // Size of a block header: column id, encoding, length
+    public static final int BLOCK_HEADER_SIZE = 1 + 1 + 4;
+    // Encoding of every column, indexed by column id
+    private static final byte[] ENCODINGS = {PLAIN, PLAIN, VARINT, VARINT, VARINT, DELTA_VARINT};
+
+    // Stream the file is written to
+    private final DataOutputStream out;
+    // Data of every column of the current row group
+    private final ColumnBuffer[] columns = new ColumnBuffer[COLUMN_COUNT];
+    // Number of accounts in the current row group
+    private int rows;
+    // Number of accounts written
+    private long totalRows;
+
+    /**
+     * Constructor for creating a new StatsExporter, replacing any existing file.
+     *
+     * @param path The path of the statistics file.
+     * @throws IOException If the file cannot be created.
+     */
+    public StatsExporter(Path path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            columns[i] = new ColumnBuffer();
+        }
+    }
+
+    /**
+     * Adds an account to the export, writing the current row group once it is full.
+     *
+     * @param account The account to add.
+     * @throws IOException If an I/O error occurs while writing a row group.
+     */
+    public void add(Account account) throws IOException {
+        UUID id = account.getId();
+        columns[ID].putLong(id.getMostSignificantBits());
+        columns[ID].putLong(id.getLeastSignificantBits());
+        byte[] userName = account.getUserName().getBytes(StandardCharsets.UTF_8);
+        columns[USERNAME].putVarint(userName.length);
+        columns[USERNAME].putBytes(userName);
+        columns[RUN_COUNT].putVarint(account.runCount);
+        columns[ENTERS_COUNT].putVarint(account.entersCount);
+        columns[SCORE_COUNT].putVarint(account.getRecords().size());
+        int previous = 0;
+        for (int score : account.getRecords()) {
+            columns[SCORES].putVarint(score - previous);
+            previous = score;
+        }
+        if (++rows == ROW_GROUP_SIZE) {
+            writeRowGroup();
+        }
+    }
+
+    /**
+     * Writes the current row group and empties the column buffers for the next one.
+     *
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    private void writeRowGroup() throws IOException {
+        int length = 0;
+        for (ColumnBuffer column : columns) {
+            length += BLOCK_HEADER_SIZE + column.size;
+        }
+        out.writeInt(rows);
+        out.writeInt(length);
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            out.writeByte(i);
+            out.writeByte(ENCODINGS[i]);
+            out.writeInt(columns[i].size);
+            out.write(columns[i].data, 0, columns[i].size);
+            columns[i].size = 0;
+        }
+        totalRows += rows;
+        rows = 0;
+    }
+
+    /**
+     * Gets the number of accounts added.
+     *
+     * @return The number of accounts.
+     */
+    public long getRowCount() {
+        return totalRows + rows;
+    }
+
+    /**
+     * Writes the last row group and the end of the file and closes it.
+     *
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rows > 0) {
+                writeRowGroup();
+            }
+            out.writeInt(0);
+            out.writeLong(totalRows);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Holds the encoded data of one column of a row group, growing as needed and reused by every row group.
+     */
+    private static class ColumnBuffer {
+        // Encoded bytes
+        private byte[] data = new byte[1024];
+        // Number of encoded bytes
+        private int size;
+
+        /**
+         * Appends an unsigned varint: seven bits per byte, low bits first, the high bit marking more bytes.
+         *
+         * @param value The non-negative value to append.
+         */
+        private void putVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        /**
+         * Appends a long in big-endian order.
+         *
+         * @param value The value to append.
+         */
+        private void putLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                data[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        /**
+         * Appends raw bytes.
+         *
+         * @param bytes The bytes to append.
+         */
+        private void putBytes(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Grows the buffer if the given number of bytes would not fit.
+         *
+         * @param extra The number of bytes about to be appended.
+         */
+        private void ensureCapacity(int extra) {
+            if (size + extra > data.length) {
+                byte[] grown = new byte[Math.max(size + extra, data.length * 2)];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package bl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Answers score queries over a statistics file written by {@link StatsExporter} without building accounts.
+ * The file is streamed one row group at a time and only the score columns are decoded; every other column is
+ * skipped unread. Scores are counted in a histogram, so memory depends on the highest score rather than on the
+ * number of accounts or scores.
+ */
+public class StatsReader {
+    // Path of the statistics file
+    private final Path path;
+    // Number of accounts in the file
+    private long accountCount;
+    // Number of scores in the file
+    private long scoreCount;
+    // Number of occurrences of every score, indexed by score
+    private long[] histogram = new long[0];
+
+    /**
+     * Constructor for creating a new StatsReader and reading the scores of a statistics file.
+     *
+     * @param path The path of the statistics file.
+     * @throws IOException If an I/O error occurs or the file is corrupted.
+     */
+    public StatsReader(Path path) throws IOException {
+        this.path = path;
+        scanScores();
+    }
+
+    /**
+     * Streams the file and counts every score.
+     *
+     * @throws IOException If an I/O error occurs or the file is corrupted.
+     */
+    private void scanScores() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != StatsExporter.MAGIC || in.readByte() != StatsExporter.VERSION) {
+                throw new IOException("statistics file is corrupted");
+            }
+            int[] scoreCounts = new int[StatsExporter.ROW_GROUP_SIZE];
+            int rows;
+            while ((rows = in.readInt()) != 0) {
+                if (rows < 0 || rows > StatsExporter.ROW_GROUP_SIZE) {
+                    throw new IOException("statistics file is corrupted");
+                }
+                in.readInt();
+                accountCount += rows;
+                for (int i = 0; i < StatsExporter.COLUMN_COUNT; i++) {
+                    byte column = in.readByte();
+                    in.readByte();
+                    int length = in.readInt();
+                    if (column == StatsExporter.SCORE_COUNT) {
+                        for (int row = 0; row < rows; row++) {
+                            scoreCounts[row] = (int) readVarint(in);
+                        }
+                    } else if (column == StatsExporter.SCORES) {
+                        for (int row = 0; row < rows; row++) {
+                            int score = 0;
+                            for (int j = 0; j < scoreCounts[row]; j++) {
+                                score += (int) readVarint(in);
+                                count(score);
+                            }
+                        }
+                    } else {
+                        in.skipNBytes(length);
+                    }
+                }
+            }
+            if (in.readLong() != accountCount) {
+                throw new IOException("statistics file is corrupted");
+            }
+        }
+    }
+
+    /**
+     * Adds a score to the histogram, growing it if the score is higher than any seen before.
+     *
+     * @param score The score.
+     */
+    private void count(int score) {
+        if (score >= histogram.length) {
+            long[] grown = new long[Math.max(score + 1, histogram.length * 2)];
+            System.arraycopy(histogram, 0, grown, 0, histogram.length);
+            histogram = grown;
+        }
+        histogram[score]++;
+        scoreCount++;
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param in The stream to read from.
+     * @return The value.
+     * @throws IOException If an I/O error occurs or the varint is too long.
+     */
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("statistics file is corrupted");
+    }
+
+    /**
+     * Gets a percentile of all scores using the nearest-rank method.
+     *
+     * @param percent The percentile, between 0 and 100.
+     * @return The lowest score that at least the given percentage of scores do not exceed, or -1 if there are no scores.
+     */
+    public int getScorePercentile(double percent) {
+        if (scoreCount == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * scoreCount));
+        long seen = 0;
+        for (int score = 0; score < histogram.length; score++) {
+            seen += histogram[score];
+            if (seen >= rank) {
+                return score;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    /**
+     * Gets the number of accounts in the file.
+     *
+     * @return The number of accounts.
+     */
+    public long getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * Gets the number of scores in the file.
+     *
+     * @return The number of scores.
+     */
+    public long getScoreCount() {
+        return scoreCount;
+    }
+}
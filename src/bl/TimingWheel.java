@@ -0,0 +1,331 @@
+package bl;
+
+import java.util.Arrays;
+
+/**
+ * Schedules the events of timed board entities, such as food that expires, by tick number, and fires the events
+ * that are due in one batch when the game advances a tick.
+ * <p>
+ * The wheel is hierarchical: four levels of 64 buckets, each level spanning 64 times as many ticks as the one
+ * below. An event goes into the bucket of the lowest level whose span reaches its tick, so scheduling and
+ * cancelling only link or unlink it, in constant time. Advancing a tick fires the events of one bucket of the
+ * lowest level, and every 64 ticks the events of the next bucket of the level above are moved down. An event is
+ * moved at most once per level, so the cost of a tick grows with the number of events that fire, not with the
+ * number of events pending. Events further away than the top level spans wait in an overflow bucket, which is
+ * sorted out whenever the top level turns over.
+ * <p>
+ * Events live in parallel arrays and are linked into one ring per bucket, so scheduling allocates nothing unless
+ * more events are pending than ever before.
+ */
+public class TimingWheel {
+    // Handle of no event, never returned by schedule()
+    public static final long NO_TIMER = -1;
+    // Number of bits of a tick selecting the bucket within a level
+    private static final int BUCKET_BITS = 6;
+    // Number of buckets per level
+    private static final int BUCKETS_PER_LEVEL = 1 << BUCKET_BITS;
+    // Mask selecting the bucket within a level
+    private static final int BUCKET_MASK = BUCKETS_PER_LEVEL - 1;
+    // Number of levels
+    private static final int LEVELS = 4;
+    // Index of the bucket holding events beyond the span of the top level
+    private static final int OVERFLOW = LEVELS * BUCKETS_PER_LEVEL;
+    // Marks an empty bucket, the end of the free list and an unused slot
+    private static final int NONE = -1;
+
+    // First event of every bucket, NONE for an empty bucket
+    private final int[] heads = new int[OVERFLOW + 1];
+    // Tick every event is due at
+    private long[] ticks;
+    // Entity every event belongs to
+    private int[] entities;
+    // Next event in the ring of the bucket, or the next unused slot
+    private int[] next;
+    // Previous event in the ring of the bucket
+    private int[] previous;
+    // Bucket holding every event, NONE for an unused slot
+    private int[] buckets;
+    // Generation of every slot, increased when its event fires or is cancelled so stale handles are ignored
+    private int[] generations;
+    // First unused slot
+    private int free = NONE;
+    // Number of pending events
+    private int size;
+    // Last tick the wheel advanced to
+    private long currentTick;
+
+    /**
+     * Listener receiving the events that are due.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Handles an event that is due.
+         *
+         * @param entity The entity the event was scheduled for.
+         * @param tick The tick the event fires in.
+         */
+        void onTimer(int entity, long tick);
+    }
+
+    /**
+     * Constructor for creating a new TimingWheel at tick 0.
+     *
+     * @param capacity The number of pending events room is made for up front; more are allowed.
+     */
+    public TimingWheel(int capacity) {
+        Arrays.fill(heads, NONE);
+        ticks = new long[0];
+        entities = new int[0];
+        next = new int[0];
+        previous = new int[0];
+        buckets = new int[0];
+        generations = new int[0];
+        grow(Math.max(1, capacity));
+    }
+
+    /**
+     * Schedules an event. An event for a tick the wheel already reached fires with the next advance.
+     *
+     * @param tick The tick the event is due at.
+     * @param entity The entity the event belongs to, passed back to the listener.
+     * @return The handle to cancel the event with.
+     */
+    public long schedule(long tick, int entity) {
+        if (free == NONE) {
+            grow(ticks.length * 2);
+        }
+        int slot = free;
+        free = next[slot];
+        ticks[slot] = Math.max(tick, currentTick + 1);
+        entities[slot] = entity;
+        link(slot, bucketOf(ticks[slot]));
+        size++;
+        return (long) generations[slot] << 32 | slot;
+    }
+
+    /**
+     * Cancels a pending event.
+     *
+     * @param handle The handle returned when the event was scheduled.
+     * @return true if the event was pending, false if it already fired, was cancelled or the handle is NO_TIMER.
+     */
+    public boolean cancel(long handle) {
+        if (!isPending(handle)) {
+            return false;
+        }
+        int slot = (int) handle;
+        unlink(slot);
+        release(slot);
+        return true;
+    }
+
+    /**
+     * Checks if an event is still pending.
+     *
+     * @param handle The handle returned when the event was scheduled.
+     * @return true if the event neither fired nor was cancelled, false otherwise.
+     */
+    public boolean isPending(long handle) {
+        if (handle < 0) {
+            return false;
+        }
+        int slot = (int) handle;
+        return slot < buckets.length && buckets[slot] != NONE && generations[slot] == (int) (handle >>> 32);
+    }
+
+    /**
+     * Advances the wheel tick by tick up to a tick, firing every event that becomes due, in the order of their
+     * ticks. Events the listener schedules for later ticks fire when those ticks are reached.
+     *
+     * @param tick The tick to advance to.
+     * @param listener The listener receiving the events.
+     * @return The number of events fired.
+     */
+    public int advance(long tick, Listener listener) {
+        int fired = 0;
+        while (currentTick < tick) {
+            currentTick++;
+            if ((currentTick & BUCKET_MASK) == 0) {
+                cascade();
+            }
+            int bucket = (int) (currentTick & BUCKET_MASK);
+            int slot;
+            while ((slot = heads[bucket]) != NONE) {
+                int entity = entities[slot];
+                unlink(slot);
+                release(slot);
+                fired++;
+                listener.onTimer(entity, currentTick);
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * Drops every pending event and moves the wheel to a tick, as when a game restarts or goes back in time.
+     *
+     * @param tick The tick the wheel is at afterwards.
+     */
+    public void reset(long tick) {
+        Arrays.fill(heads, NONE);
+        free = NONE;
+        for (int slot = buckets.length - 1; slot >= 0; slot--) {
+            if (buckets[slot] != NONE) {
+                generations[slot] = (generations[slot] + 1) & Integer.MAX_VALUE;
+                buckets[slot] = NONE;
+            }
+            next[slot] = free;
+            free = slot;
+        }
+        size = 0;
+        currentTick = tick;
+    }
+
+    /**
+     * Moves the events of the buckets whose span starts at the current tick down to lower levels, starting from the
+     * highest level that turned over so events can move down several levels at once.
+     */
+    private void cascade() {
+        int top = 1;
+        while (top + 1 < LEVELS && (currentTick & (1L << BUCKET_BITS * (top + 1)) - 1) == 0) {
+            top++;
+        }
+        if (top == LEVELS - 1 && (currentTick & (1L << BUCKET_BITS * LEVELS) - 1) == 0) {
+            relink(OVERFLOW);
+        }
+        for (int level = top; level >= 1; level--) {
+            relink(level * BUCKETS_PER_LEVEL + (int) (currentTick >>> BUCKET_BITS * level & BUCKET_MASK));
+        }
+    }
+
+    /**
+     * Takes every event out of a bucket and puts it into the bucket its tick belongs to now.
+     *
+     * @param bucket The bucket to empty.
+     */
+    private void relink(int bucket) {
+        int slot = heads[bucket];
+        heads[bucket] = NONE;
+        if (slot == NONE) {
+            return;
+        }
+        // the ring is detached from the bucket, so the walk ends at its old tail
+        int last = previous[slot];
+        while (true) {
+            int following = next[slot];
+            link(slot, bucketOf(ticks[slot]));
+            if (slot == last) {
+                return;
+            }
+            slot = following;
+        }
+    }
+
+    /**
+     * Gets the bucket an event due at a tick belongs in, seen from the current tick.
+     *
+     * @param tick The tick the event is due at, after the current tick.
+     * @return The index of the bucket.
+     */
+    private int bucketOf(long tick) {
+        long delta = tick - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << BUCKET_BITS * (level + 1)) {
+                return level * BUCKETS_PER_LEVEL + (int) (tick >>> BUCKET_BITS * level & BUCKET_MASK);
+            }
+        }
+        return OVERFLOW;
+    }
+
+    /**
+     * Appends an event to the ring of a bucket.
+     *
+     * @param slot The slot of the event.
+     * @param bucket The bucket.
+     */
+    private void link(int slot, int bucket) {
+        buckets[slot] = bucket;
+        int head = heads[bucket];
+        if (head == NONE) {
+            heads[bucket] = slot;
+            next[slot] = slot;
+            previous[slot] = slot;
+        } else {
+            int tail = previous[head];
+            next[tail] = slot;
+            previous[slot] = tail;
+            next[slot] = head;
+            previous[head] = slot;
+        }
+    }
+
+    /**
+     * Removes an event from the ring of its bucket.
+     *
+     * @param slot The slot of the event.
+     */
+    private void unlink(int slot) {
+        int bucket = buckets[slot];
+        if (next[slot] == slot) {
+            heads[bucket] = NONE;
+        } else {
+            next[previous[slot]] = next[slot];
+            previous[next[slot]] = previous[slot];
+            if (heads[bucket] == slot) {
+                heads[bucket] = next[slot];
+            }
+        }
+        buckets[slot] = NONE;
+    }
+
+    /**
+     * Returns the slot of an event that fired or was cancelled to the free list.
+     *
+     * @param slot The slot of the event.
+     */
+    private void release(int slot) {
+        generations[slot] = (generations[slot] + 1) & Integer.MAX_VALUE;
+        next[slot] = free;
+        free = slot;
+        size--;
+    }
+
+    /**
+     * Grows the slot arrays and adds the new slots to the free list.
+     *
+     * @param capacity The new number of slots.
+     */
+    private void grow(int capacity) {
+        int oldCapacity = ticks.length;
+        ticks = Arrays.copyOf(ticks, capacity);
+        entities = Arrays.copyOf(entities, capacity);
+        next = Arrays.copyOf(next, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+        buckets = Arrays.copyOf(buckets, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        for (int slot = capacity - 1; slot >= oldCapacity; slot--) {
+            buckets[slot] = NONE;
+            next[slot] = free;
+            free = slot;
+        }
+    }
+
+    /**
+     * Gets the number of pending events.
+     *
+     * @return The number of events scheduled and neither fired nor cancelled.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the last tick the wheel advanced to.
+     *
+     * @return The current tick.
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+}
@@ -0,0 +1,221 @@
+package bl;
+
+import dal.Direction;
+import java.util.Arrays;
+
+/**
+ * Remembers search results by the Zobrist hash of the state they were found for, so a search reaching a state it
+ * already evaluated, through another order of moves or in an earlier decision, can reuse the result.
+ * <p>
+ * The table has a fixed number of entries, allocated up front in parallel arrays, so storing and probing allocate
+ * nothing. Entries are grouped in buckets of two. The first slot of a bucket keeps the deepest result and is only
+ * replaced by a result searched at least as deep, or by any result once its own is from an earlier generation.
+ * The second slot takes every other result. Deep results thus survive a flood of shallow ones, and a new search
+ * generation lets stale results be replaced without clearing the table.
+ */
+public class TranspositionTable {
+    // Bound type of a score that is exact
+    public static final byte EXACT = 0;
+    // Bound type of a score that is a lower bound, the real score may be higher
+    public static final byte LOWER_BOUND = 1;
+    // Bound type of a score that is an upper bound, the real score may be lower
+    public static final byte UPPER_BOUND = 2;
+    // Returned by probe() if the table holds no result for a hash
+    public static final int NOT_FOUND = -1;
+    // Number of slots per bucket
+    private static final int BUCKET_SIZE = 2;
+    // Every direction, indexed by the byte stored for it
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // Mask turning a hash into the index of its bucket's first slot
+    private final int bucketMask;
+    // Hash of the state of every slot
+    private final long[] hashes;
+    // Score of every slot
+    private final int[] scores;
+    // Depth the score of every slot was searched to
+    private final short[] depths;
+    // Bound type of the score of every slot
+    private final byte[] bounds;
+    // Best direction found for every slot, -1 for none
+    private final byte[] bestDirections;
+    // Generation every slot was stored in, 0 for an empty slot
+    private final byte[] generations;
+    // Current generation, between 1 and 127
+    private byte generation = 1;
+
+    // Number of probes that found a result
+    private long hits;
+    // Number of probes that found nothing
+    private long misses;
+    // Number of stores that replaced the result of another state
+    private long replacements;
+
+    /**
+     * Constructor for creating a new TranspositionTable.
+     *
+     * @param capacity The maximum number of results, rounded up to a power of two of at least two.
+     */
+    public TranspositionTable(int capacity) {
+        int slots = capacity <= BUCKET_SIZE ? BUCKET_SIZE : Integer.highestOneBit(capacity - 1) << 1;
+        bucketMask = slots - BUCKET_SIZE;
+        hashes = new long[slots];
+        scores = new int[slots];
+        depths = new short[slots];
+        bounds = new byte[slots];
+        bestDirections = new byte[slots];
+        generations = new byte[slots];
+    }
+
+    /**
+     * Looks up the result stored for a state.
+     *
+     * @param hash The Zobrist hash of the state.
+     * @return The slot holding the result, to pass to the getters, or NOT_FOUND.
+     */
+    public int probe(long hash) {
+        int bucket = bucketOf(hash);
+        for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++) {
+            if (generations[slot] != 0 && hashes[slot] == hash) {
+                hits++;
+                return slot;
+            }
+        }
+        misses++;
+        return NOT_FOUND;
+    }
+
+    /**
+     * Stores the result of a search, replacing the result for the same state if there is one.
+     *
+     * @param hash The Zobrist hash of the state.
+     * @param depth The depth the state was searched to.
+     * @param score The score found.
+     * @param bound The bound type of the score: EXACT, LOWER_BOUND or UPPER_BOUND.
+     * @param bestDirection The best direction found, or null for none.
+     */
+    public void store(long hash, int depth, int score, byte bound, Direction bestDirection) {
+        int bucket = bucketOf(hash);
+        int slot;
+        if (generations[bucket] != 0 && hashes[bucket] == hash) {
+            slot = bucket;
+        } else if (generations[bucket + 1] != 0 && hashes[bucket + 1] == hash) {
+            slot = bucket + 1;
+        } else if (generations[bucket] == 0 || generations[bucket] != generation || depth >= depths[bucket]) {
+            slot = bucket;
+        } else {
+            slot = bucket + 1;
+        }
+        if (generations[slot] != 0 && hashes[slot] != hash) {
+            replacements++;
+        }
+        hashes[slot] = hash;
+        depths[slot] = (short) Math.min(depth, Short.MAX_VALUE);
+        scores[slot] = score;
+        bounds[slot] = bound;
+        bestDirections[slot] = bestDirection == null ? -1 : (byte) bestDirection.ordinal();
+        generations[slot] = generation;
+    }
+
+    /**
+     * Starts a new search generation. Results of earlier generations stay readable but lose their protection
+     * against replacement.
+     */
+    public void newGeneration() {
+        generation = (byte) (generation == Byte.MAX_VALUE ? 1 : generation + 1);
+    }
+
+    /**
+     * Removes every result.
+     */
+    public void clear() {
+        Arrays.fill(generations, (byte) 0);
+        generation = 1;
+    }
+
+    /**
+     * Gets the index of the first slot of the bucket a hash belongs to.
+     *
+     * @param hash The Zobrist hash.
+     * @return The index of the bucket's first slot.
+     */
+    private int bucketOf(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & bucketMask;
+    }
+
+    /**
+     * Gets the score stored in a slot.
+     *
+     * @param slot The slot returned by probe().
+     * @return The score.
+     */
+    public int getScore(int slot) {
+        return scores[slot];
+    }
+
+    /**
+     * Gets the depth the score stored in a slot was searched to.
+     *
+     * @param slot The slot returned by probe().
+     * @return The depth.
+     */
+    public int getDepth(int slot) {
+        return depths[slot];
+    }
+
+    /**
+     * Gets the bound type of the score stored in a slot.
+     *
+     * @param slot The slot returned by probe().
+     * @return EXACT, LOWER_BOUND or UPPER_BOUND.
+     */
+    public byte getBound(int slot) {
+        return bounds[slot];
+    }
+
+    /**
+     * Gets the best direction stored in a slot.
+     *
+     * @param slot The slot returned by probe().
+     * @return The best direction, or null if none was stored.
+     */
+    public Direction getBestDirection(int slot) {
+        return bestDirections[slot] < 0 ? null : DIRECTIONS[bestDirections[slot]];
+    }
+
+    /**
+     * Gets the maximum number of results the table holds.
+     *
+     * @return The number of slots.
+     */
+    public int getCapacity() {
+        return hashes.length;
+    }
+
+    /**
+     * Gets the number of probes that found a result.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of probes that found nothing.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of stores that replaced the result of another state.
+     *
+     * @return The number of replacements.
+     */
+    public long getReplacements() {
+        return replacements;
+    }
+}
@@ -0,0 +1,381 @@
+package bl;
+
+import dal.Cell;
+import dal.Direction;
+import dal.Grid;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps many independent games at once, for training agents.
+ * Every game keeps its own grid and logic, reset in place when an episode ends. Observations are written into a
+ * caller-supplied direct buffer laid out as [env][channel][y][x] with one byte per cell and three channels
+ * (head, body, food). Only the cells an update touched are rewritten, so a step costs the same on any board size.
+ * An episode ends as lost as soon as the snake has sealed itself into a region too small to survive in, instead of
+ * playing out the moves until it dies.
+ * <p>
+ * The games are split into equal slices: the calling thread steps the first one and worker threads step the rest.
+ * Workers are woken by parking and unparking, so a step allocates nothing.
+ */
+public final class VectorEnvironment implements AutoCloseable {
+    // Observation channel of the snake head
+    public static final int HEAD_CHANNEL = 0;
+    // Observation channel of the snake body
+    public static final int BODY_CHANNEL = 1;
+    // Observation channel of the food
+    public static final int FOOD_CHANNEL = 2;
+    // Number of observation channels
+    public static final int CHANNELS = 3;
+    // Reward for eating food
+    private static final float FOOD_REWARD = 1f;
+    // Reward for losing the game
+    private static final float DEATH_REWARD = -1f;
+    // Number of busy checks before a waiting thread parks
+    private static final int SPIN_LIMIT = 1 << 10;
+    // Directions indexed by action, matching Direction ordinals
+    private static final Direction[] ACTIONS = Direction.values();
+
+    // Number of games
+    private final int envCount;
+    // Width of every board
+    private final int xLength;
+    // Number of cells of every board
+    private final int cellCount;
+    // Steps without eating after which an episode is cut off
+    private final int starvationLimit;
+    // Grid of every game
+    private final Grid[] grids;
+    // Logic of every game
+    private final GameLogic[] logics;
+    // Seed state used to derive the seed of every new episode
+    private final long[] seeds;
+    // Steps since every game last ate
+    private final int[] hungerSteps;
+    // Buffer the observations are written to
+    private final ByteBuffer observations;
+    // Result of the last step, reused by every step
+    private final StepResult result;
+
+    // First game of every slice, the last entry is the number of games
+    private final int[] sliceStarts;
+    // Worker threads stepping every slice but the first
+    private final Thread[] workers;
+    // Number of workers still stepping the current generation
+    private final AtomicInteger pending = new AtomicInteger();
+    // Number of steps started, workers step once per increment
+    private volatile int generation;
+    // Flag telling the workers to stop
+    private volatile boolean isClosed;
+    // Actions of the current step
+    private int[] currentActions;
+    // Thread waiting for the current step to finish
+    private volatile Thread stepThread;
+    // First failure of a worker during the current step, rethrown by step(), null if none
+    private volatile Throwable workerFailure;
+
+    /**
+     * Constructor for creating a new VectorEnvironment.
+     *
+     * @param envCount The number of games.
+     * @param xLength The length of every board in the X-direction.
+     * @param yLength The length of every board in the Y-direction.
+     * @param threadCount The number of threads stepping the games, including the calling thread.
+     * @param seed The seed all episode seeds are derived from.
+     * @param observations A direct buffer of at least envCount * 3 * xLength * yLength bytes.
+     * @throws IllegalArgumentException If the buffer is not direct or too small.
+     */
+    public VectorEnvironment(int envCount, int xLength, int yLength, int threadCount, long seed, ByteBuffer observations) {
+        this.envCount = envCount;
+        this.xLength = xLength;
+        this.cellCount = xLength * yLength;
+        this.starvationLimit = cellCount * 2;
+        if (!observations.isDirect() || observations.capacity() < (long) envCount * CHANNELS * cellCount) {
+            throw new IllegalArgumentException("observation buffer must be direct and hold every env");
+        }
+        this.observations = observations;
+        this.result = new StepResult(envCount);
+
+        grids = new Grid[envCount];
+        logics = new GameLogic[envCount];
+        seeds = new long[envCount];
+        hungerSteps = new int[envCount];
+        for (int env = 0; env < envCount; env++) {
+            grids[env] = new Grid(xLength, yLength);
+            try {
+                logics[env] = new GameLogic(grids[env], new Cell(grids[env]));
+                logics[env].setTrapDetection(true);
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+            seeds[env] = seed + env * 0x9E3779B97F4A7C15L;
+            resetEnv(env);
+        }
+
+        int slices = Math.max(1, Math.min(threadCount, envCount));
+        sliceStarts = new int[slices + 1];
+        for (int i = 0; i <= slices; i++) {
+            sliceStarts[i] = (int) ((long) envCount * i / slices);
+        }
+        workers = new Thread[slices - 1];
+        for (int i = 0; i < workers.length; i++) {
+            int slice = i + 1;
+            workers[i] = new Thread(() -> runWorker(slice), "env-worker-" + slice);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Applies one action to every game. Games that end are reset, and their observation shows the new episode.
+     *
+     * The actions are checked before any game is stepped, so a wrong one leaves every game as it was.
+     *
+     * @param actions The action of every game, as a Direction ordinal.
+     * @return The rewards and done flags of this step; the same object is reused by every step.
+     * @throws IllegalArgumentException If there are fewer actions than games or an action is not a Direction ordinal.
+     */
+    public StepResult step(int[] actions) {
+        if (actions.length < envCount) {
+            throw new IllegalArgumentException("expected " + envCount + " actions but got " + actions.length);
+        }
+        for (int env = 0; env < envCount; env++) {
+            if (actions[env] < 0 || actions[env] >= ACTIONS.length) {
+                throw new IllegalArgumentException("action " + actions[env] + " of env " + env + " is out of range");
+            }
+        }
+        currentActions = actions;
+        stepThread = Thread.currentThread();
+        pending.set(workers.length);
+        generation++;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+
+        try {
+            stepSlice(0);
+        } finally {
+            // the workers must be done with this step before the next one is published, even if this slice failed
+            int spins = 0;
+            while (pending.get() != 0) {
+                if (spins++ < SPIN_LIMIT) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+        Throwable failure = workerFailure;
+        if (failure != null) {
+            workerFailure = null;
+            if (failure instanceof Error error) {
+                throw error;
+            }
+            throw (RuntimeException) failure;
+        }
+        return result;
+    }
+
+    /**
+     * Runs a worker, stepping its slice once per generation until the environment is closed.
+     *
+     * @param slice The index of the slice the worker steps.
+     */
+    private void runWorker(int slice) {
+        int seen = 0;
+        while (true) {
+            int spins = 0;
+            int current;
+            while ((current = generation) == seen && !isClosed) {
+                if (spins++ < SPIN_LIMIT) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            if (isClosed) {
+                return;
+            }
+            seen = current;
+            try {
+                stepSlice(slice);
+            } catch (RuntimeException | Error ex) {
+                // handed to step(); the worker stays alive so later steps do not wait for it forever
+                if (workerFailure == null) {
+                    workerFailure = ex;
+                }
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(stepThread);
+                }
+            }
+        }
+    }
+
+    /**
+     * Steps every game of a slice.
+     *
+     * @param slice The index of the slice.
+     */
+    private void stepSlice(int slice) {
+        int[] actions = currentActions;
+        for (int env = sliceStarts[slice]; env < sliceStarts[slice + 1]; env++) {
+            stepEnv(env, actions[env]);
+        }
+    }
+
+    /**
+     * Steps one game and updates its reward, done flag and observation.
+     *
+     * @param env The index of the game.
+     * @param action The action, as a Direction ordinal.
+     */
+    private void stepEnv(int env, int action) {
+        GameLogic logic = logics[env];
+        Cell[] cells = logic.getSnakeCells();
+        int length = logic.getSnakeLength();
+        int oldHead = cellId(cells[0]);
+        int oldTail = cellId(cells[length - 1]);
+        int oldFood = cellId(logic.getFood());
+
+        logic.updateGameTable(ACTIONS[action]);
+
+        float reward = 0f;
+        boolean isDone;
+        if (logic.isGameLose() || logic.isTrapped()) {
+            reward = DEATH_REWARD;
+            isDone = true;
+        } else if (logic.getSnakeLength() > length) {
+            reward = FOOD_REWARD;
+            hungerSteps[env] = 0;
+            isDone = logic.isGameWon();
+        } else {
+            isDone = ++hungerSteps[env] >= starvationLimit;
+        }
+        result.rewards[env] = reward;
+        result.dones[env] = isDone;
+
+        if (isDone) {
+            resetEnv(env);
+            return;
+        }
+        writeCell(env, oldTail);
+        writeCell(env, oldHead);
+        writeCell(env, cellId(cells[0]));
+        writeCell(env, oldFood);
+        writeCell(env, cellId(logic.getFood()));
+    }
+
+    /**
+     * Starts a new episode of a game and rewrites its whole observation.
+     *
+     * @param env The index of the game.
+     */
+    private void resetEnv(int env) {
+        seeds[env] += 0x9E3779B97F4A7C15L;
+        grids[env].clear();
+        logics[env].reset(mix(seeds[env]));
+        hungerSteps[env] = 0;
+
+        int base = env * CHANNELS * cellCount;
+        for (int i = 0; i < CHANNELS * cellCount; i++) {
+            observations.put(base + i, (byte) 0);
+        }
+        writeCell(env, cellId(logics[env].getSnakeCells()[0]));
+        writeCell(env, cellId(logics[env].getFood()));
+    }
+
+    /**
+     * Writes the three channels of one cell of a game from its grid.
+     *
+     * @param env The index of the game.
+     * @param cell The cell id.
+     */
+    private void writeCell(int env, int cell) {
+        byte texture = grids[env].getTexture(cell);
+        int base = env * CHANNELS * cellCount + cell;
+        observations.put(base + HEAD_CHANNEL * cellCount, (byte) (texture >= Grid.HEAD_UP ? 1 : 0));
+        observations.put(base + BODY_CHANNEL * cellCount, (byte) (texture == Grid.BODY ? 1 : 0));
+        observations.put(base + FOOD_CHANNEL * cellCount, (byte) (texture == Grid.FOOD ? 1 : 0));
+    }
+
+    /**
+     * Converts a cell into its id.
+     *
+     * @param cell The cell to convert.
+     * @return The cell id.
+     */
+    private int cellId(Cell cell) {
+        return (cell.getY() - 1) * xLength + (cell.getX() - 1);
+    }
+
+    /**
+     * Scrambles a seed with the SplitMix64 finaliser so neighbouring seeds give unrelated episodes.
+     *
+     * @param seed The seed to scramble.
+     * @return The scrambled seed.
+     */
+    private static long mix(long seed) {
+        seed = (seed ^ (seed >>> 30)) * 0xBF58476D1CE4E5B9L;
+        seed = (seed ^ (seed >>> 27)) * 0x94D049BB133111EBL;
+        return seed ^ (seed >>> 31);
+    }
+
+    /**
+     * Gets the number of games.
+     *
+     * @return The number of games.
+     */
+    public int getEnvCount() {
+        return envCount;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Holds the rewards and done flags of a step.
+     */
+    public static class StepResult {
+        // Reward of every game
+        private final float[] rewards;
+        // Flag per game indicating its episode ended in this step
+        private final boolean[] dones;
+
+        /**
+         * Constructor for creating a new StepResult.
+         *
+         * @param envCount The number of games.
+         */
+        private StepResult(int envCount) {
+            rewards = new float[envCount];
+            dones = new boolean[envCount];
+        }
+
+        /**
+         * Gets the reward of every game.
+         *
+         * @return The rewards, indexed by game.
+         */
+        public float[] getRewards() {
+            return rewards;
+        }
+
+        /**
+         * Gets the done flag of every game.
+         *
+         * @return The done flags, indexed by game.
+         */
+        public boolean[] getDones() {
+            return dones;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package dal;
 
 import dal.exception.AccountValidException;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
@@ -16,12 +18,16 @@ public class Account {
 
     // Unique identifier for the account
     private UUID id;
+    // Number of times the account was written to the shared account file
+    private long version;
     // Username of the account
     private String userName;
     // Hashed password of the account
     private String password;
     // Sorted set of integers to store game records
     private SortedSet<Integer> records = new TreeSet<>(Comparator.naturalOrder());
+    // Every record with the time it was set, oldest first; records set before times were kept are missing
+    private List<Score> scores = new ArrayList<>();
     // The number of runs (games played) by the account
     public int runCount;
     // Flag to indicate if this is a default account
@@ -110,6 +116,24 @@ public class Account {
         return id;
     }
 
+    /**
+     * Gets the version of the account in the shared account file.
+     *
+     * @return The version, 0 if the account was never written.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the account in the shared account file.
+     *
+     * @param version The new version.
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
      * Gets the username of the account.
      *
@@ -128,13 +152,23 @@ public class Account {
         return password;
     }
     /**
-     * Adds a new game record to the account.
+     * Adds a new game record to the account, set now.
      *
      * @param record The new game record to add.
      */
 
     public void addRecord(int record) {
+        addRecord(record, System.currentTimeMillis());
+    }
+    /**
+     * Adds a new game record to the account, set at a given time.
+     *
+     * @param record The new game record to add.
+     * @param time The time the record was set, in milliseconds since the epoch.
+     */
+    public void addRecord(int record, long time) {
         records.add(record);
+        getScores().add(new Score(record, time));
     }
     /**
      * Gets the sorted set of game records of the account.
@@ -144,4 +178,16 @@ public class Account {
     public SortedSet<Integer> getRecords() {
         return records;
     }
+    /**
+     * Gets every record of the account with the time it was set.
+     *
+     * @return The list of timed records, oldest first.
+     */
+    public List<Score> getScores() {
+        // accounts saved before times were kept are read without the list
+        if (scores == null) {
+            scores = new ArrayList<>();
+        }
+        return scores;
+    }
 }
\ No newline at end of file
@@ -11,8 +11,8 @@ public class Cell {
     private int y = 1;
     // The grid to which this cell belongs
     private final Grid grid;
-    // The texture or symbol representing the cell's appearance
-    private String texture = "■";
+    // The texture code representing the cell's appearance
+    private byte texture = Grid.BODY;
 
     /**
      * Constructor for creating a new Cell with a reference to the grid it belongs to.
@@ -43,11 +43,11 @@ public class Cell {
     }
 
     /**
-     * Sets the texture or symbol that visually represents this cell.
+     * Sets the texture code that visually represents this cell.
      *
-     * @param texture The string representing the texture or symbol of this cell.
+     * @param texture The texture code of this cell.
      */
-    public void setTexture(String texture) {
+    public void setTexture(byte texture) {
         this.texture = texture;
     }
     /**
@@ -69,11 +69,11 @@ public class Cell {
         return y;
     }
     /**
-     * Gets the texture or symbol representing this cell's appearance.
+     * Gets the texture code representing this cell's appearance.
      *
-     * @return A string representing the texture or symbol of this cell.
+     * @return The texture code of this cell.
      */
-    public String getTexture() {
+    public byte getTexture() {
         return texture;
     }
 }
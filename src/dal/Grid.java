@@ -1,17 +1,63 @@
 package dal;
+
+import java.util.Arrays;
+
 /**
  * Represents the grid or play area of the snake game.
  * The grid is composed of cells arranged in a 2D array, and it defines the space in which the snake can move.
+ * Each cell holds a small texture code; {@link #getGlyph(byte)} gives the symbol drawn for it.
+ * Alongside the textures the grid keeps an occupancy table mapping every cell id
+ * ((y - 1) * xLength + (x - 1)) to the id of the snake occupying it, shared by every snake on the board.
+ * Walls and obstacles are marked in the occupancy table with their own owner id, so every occupancy check also
+ * treats them as taken.
+ * Every cell written since the last clear is recorded in a dirty list, so clearing or resizing the grid
+ * for the next game only touches those cells, and the arrays are only reallocated when the grid grows.
  */
 public class Grid {
-    // 2D array representing the cells of the grid
-    private String[][] table;
+    // Texture code of an empty cell
+    public static final byte EMPTY = 0;
+    // Texture code of a snake body cell
+    public static final byte BODY = 1;
+    // Texture code of the food
+    public static final byte FOOD = 2;
+    // Texture code of the snake head moving up
+    public static final byte HEAD_UP = 3;
+    // Texture code of the snake head moving down
+    public static final byte HEAD_DOWN = 4;
+    // Texture code of the snake head moving right
+    public static final byte HEAD_RIGHT = 5;
+    // Texture code of the snake head moving left
+    public static final byte HEAD_LEFT = 6;
+    // Texture code of a wall or obstacle
+    public static final byte WALL = 7;
+    // Owner id of a cell no snake occupies
+    public static final int FREE = 0;
+    // Owner id of a wall or obstacle
+    public static final int WALL_OWNER = -1;
+    // Largest length of a grid in the X-direction
+    public static final int MAX_X_LENGTH = 70;
+    // Largest length of a grid in the Y-direction
+    public static final int MAX_Y_LENGTH = 30;
+    // Symbols drawn for each texture code
+    private static final String[] GLYPHS = {".", "■", "X", "▲", "▼", "►", "◄", "█"};
+    // 2D array representing the texture codes of the cells of the grid
+    private byte[][] table;
+    // Owner id of every cell, indexed by cell id
+    private int[] owners;
+    // Flag per cell id indicating the cell is in the dirty list
+    private boolean[] isDirty;
+    // Ids of the cells written since the last clear
+    private int[] dirtyCells;
+    // Number of cells in the dirty list
+    private int dirtyCount;
+    // Number of walls placed since the last clear
+    private int wallCount;
     // The length of the grid in the X-direction
     private int xLength;
     // The length of the grid in the Y-direction
     private int yLength;
     // Default texture to represent an empty cell
-    private static final String defaultTexture = ".";
+    private static final byte defaultTexture = EMPTY;
     // Error message for invalid grid dimensions
     private static final String TYPICAL_EXCEPTION = "Lengths must be reserved.";
 
@@ -24,12 +70,27 @@ public class Grid {
      * @throws IllegalArgumentException If the provided dimensions are not within the specified limits.
      */
     public Grid(int xLength, int yLength) {
-        if (xLength <= 1 || yLength <= 1 || xLength >70 || yLength > 30) {
+        if (xLength <= 1 || yLength <= 1 || xLength > MAX_X_LENGTH || yLength > MAX_Y_LENGTH) {
             throw new IllegalArgumentException(TYPICAL_EXCEPTION);
         }
         this.xLength = xLength;
         this.yLength = yLength;
-        this.table = new String[yLength][xLength];
+        allocate(xLength, yLength);
+    }
+
+    /**
+     * Allocates the arrays of the grid for the given capacity and fills them with the default texture.
+     *
+     * @param xCapacity The largest length in the X-direction the arrays can hold.
+     * @param yCapacity The largest length in the Y-direction the arrays can hold.
+     */
+    private void allocate(int xCapacity, int yCapacity) {
+        this.table = new byte[yCapacity][xCapacity];
+        this.owners = new int[xCapacity * yCapacity];
+        this.isDirty = new boolean[xCapacity * yCapacity];
+        this.dirtyCells = new int[xCapacity * yCapacity];
+        this.dirtyCount = 0;
+        this.wallCount = 0;
         initializeTable();
     }
 
@@ -37,10 +98,8 @@ public class Grid {
      * Initializes the grid by filling it with the default texture.
      */
     private void initializeTable() {
-        for (int i = 0; i < yLength; i++) {
-            for (int j = 0; j < xLength; j++) {
-                table[i][j] = defaultTexture;
-            }
+        for (int i = 0; i < table.length; i++) {
+            Arrays.fill(table[i], defaultTexture);
         }
     }
 
@@ -51,19 +110,213 @@ public class Grid {
      * @param y The Y-coordinate of the position.
      * @param texture The texture to set at the specified position.
      */
-    public void setTexture(int x, int y, String texture) {
+    public void setTexture(int x, int y, byte texture) {
         if (isPositionValid(x, y)) {
             table[y - 1][x - 1] = texture;
+            markDirty(getCellId(x, y));
         }
     }
+    /**
+     * Sets the texture of a cell.
+     *
+     * @param cell The cell id.
+     * @param texture The texture to set.
+     */
+    public void setTexture(int cell, byte texture) {
+        table[cell / xLength][cell % xLength] = texture;
+        markDirty(cell);
+    }
+    /**
+     * Gets the texture of a cell.
+     *
+     * @param cell The cell id.
+     * @return The texture code of the cell.
+     */
+    public byte getTexture(int cell) {
+        return table[cell / xLength][cell % xLength];
+    }
+    /**
+     * Gets the id of the snake occupying a cell.
+     *
+     * @param cell The cell id.
+     * @return The owner id, or FREE if no snake occupies the cell.
+     */
+    public int getOwner(int cell) {
+        return owners[cell];
+    }
+    /**
+     * Sets the id of the snake occupying a cell.
+     *
+     * @param cell The cell id.
+     * @param owner The owner id, or FREE to release the cell.
+     */
+    public void setOwner(int cell, int owner) {
+        owners[cell] = owner;
+        markDirty(cell);
+    }
+    /**
+     * Gets the id of the snake occupying a position, treating positions outside the grid as free.
+     *
+     * @param x The X-coordinate of the position.
+     * @param y The Y-coordinate of the position.
+     * @return The owner id, or FREE if no snake occupies the position.
+     */
+    public int getOwner(int x, int y) {
+        return isPositionValid(x, y) ? owners[getCellId(x, y)] : FREE;
+    }
+    /**
+     * Sets the id of the snake occupying a position, ignoring positions outside the grid.
+     *
+     * @param x The X-coordinate of the position.
+     * @param y The Y-coordinate of the position.
+     * @param owner The owner id, or FREE to release the position.
+     */
+    public void setOwner(int x, int y, int owner) {
+        if (isPositionValid(x, y)) {
+            setOwner(getCellId(x, y), owner);
+        }
+    }
+    /**
+     * Turns a cell into a wall, which no snake or food may occupy until the grid is cleared.
+     *
+     * @param cell The cell id.
+     */
+    public void placeWall(int cell) {
+        if (owners[cell] != WALL_OWNER) {
+            wallCount++;
+        }
+        table[cell / xLength][cell % xLength] = WALL;
+        owners[cell] = WALL_OWNER;
+        markDirty(cell);
+    }
+    /**
+     * Gets the number of walls on the grid.
+     *
+     * @return The number of wall cells.
+     */
+    public int getWallCount() {
+        return wallCount;
+    }
+    /**
+     * Gets the number of cells that are not walls, which a snake has to fill to win.
+     *
+     * @return The number of open cells.
+     */
+    public int getOpenCellCount() {
+        return xLength * yLength - wallCount;
+    }
+    /**
+     * Copies the texture code and the owner of every cell into arrays indexed by cell id.
+     *
+     * @param textures The array receiving the texture codes, at least as long as the number of cells.
+     * @param cellOwners The array receiving the owner ids, at least as long as the number of cells.
+     */
+    public void copyCells(byte[] textures, int[] cellOwners) {
+        for (int y = 0; y < yLength; y++) {
+            System.arraycopy(table[y], 0, textures, y * xLength, xLength);
+        }
+        System.arraycopy(owners, 0, cellOwners, 0, xLength * yLength);
+    }
+    /**
+     * Sets the texture code and the owner of every cell from arrays indexed by cell id, as filled by
+     * {@link #copyCells(byte[], int[])}. Only cells that differ are written and marked dirty.
+     *
+     * @param textures The texture code of every cell.
+     * @param cellOwners The owner id of every cell.
+     */
+    public void restoreCells(byte[] textures, int[] cellOwners) {
+        for (int y = 0; y < yLength; y++) {
+            byte[] row = table[y];
+            int rowStart = y * xLength;
+            for (int x = 0; x < xLength; x++) {
+                int cell = rowStart + x;
+                if (row[x] != textures[cell] || owners[cell] != cellOwners[cell]) {
+                    row[x] = textures[cell];
+                    owners[cell] = cellOwners[cell];
+                    markDirty(cell);
+                }
+            }
+        }
+    }
+    /**
+     * Records a written cell in the dirty list, once until the next clear.
+     *
+     * @param cell The cell id.
+     */
+    private void markDirty(int cell) {
+        if (!isDirty[cell]) {
+            isDirty[cell] = true;
+            dirtyCells[dirtyCount++] = cell;
+        }
+    }
+    /**
+     * Resets every cell written since the last clear, walls included, to the default texture and no owner.
+     * Costs time proportional to the number of written cells, not to the size of the grid.
+     */
+    public void clear() {
+        for (int i = 0; i < dirtyCount; i++) {
+            int cell = dirtyCells[i];
+            table[cell / xLength][cell % xLength] = defaultTexture;
+            owners[cell] = FREE;
+            isDirty[cell] = false;
+        }
+        dirtyCount = 0;
+        wallCount = 0;
+    }
+    /**
+     * Clears the grid and changes both of its lengths at once.
+     * The arrays are kept when the new size fits into them and reallocated only when the grid grows beyond them.
+     *
+     * @param xLength The new length of the grid in the X-direction.
+     * @param yLength The new length of the grid in the Y-direction.
+     * @throws IllegalArgumentException If the provided dimensions are not within the specified limits.
+     */
+    public void resize(int xLength, int yLength) {
+        if (xLength <= 1 || yLength <= 1 || xLength > MAX_X_LENGTH || yLength > MAX_Y_LENGTH) {
+            throw new IllegalArgumentException(TYPICAL_EXCEPTION);
+        }
+        clear();
+        if (yLength > table.length || xLength > table[0].length) {
+            allocate(Math.max(xLength, table[0].length), Math.max(yLength, table.length));
+        }
+        this.xLength = xLength;
+        this.yLength = yLength;
+    }
+    /**
+     * Converts a position into its cell id.
+     *
+     * @param x The X-coordinate of the position.
+     * @param y The Y-coordinate of the position.
+     * @return The cell id.
+     */
+    public int getCellId(int x, int y) {
+        return (y - 1) * xLength + (x - 1);
+    }
     /**
      * Gets the default texture.
      *
      * @return The default texture.
      */
-    public String getDefaultTexture() {
+    public byte getDefaultTexture() {
         return defaultTexture;
     }
+    /**
+     * Gets the symbol drawn for a texture code.
+     *
+     * @param texture The texture code.
+     * @return The symbol of the texture.
+     */
+    public static String getGlyph(byte texture) {
+        return GLYPHS[texture];
+    }
+    /**
+     * Gets the number of texture codes.
+     *
+     * @return The number of texture codes.
+     */
+    public static int getTextureCount() {
+        return GLYPHS.length;
+    }
     /**
      * Validates if the given position is within the bounds of the grid.
      *
@@ -71,16 +324,17 @@ public class Grid {
      * @param y The Y-coordinate of the position.
      * @return true if the position is valid, false otherwise.
      */
-    private boolean isPositionValid(int x, int y) {
+    public boolean isPositionValid(int x, int y) {
         return x > 0 && y > 0 && x <= xLength && y <= yLength;
     }
 
     /**
      * Gets the current state of the grid.
+     * The arrays may be larger than the grid; only the first yLength rows and xLength columns belong to it.
      *
-     * @return A 2D array representing the current state of the grid.
+     * @return A 2D array of the texture codes of the grid.
      */
-    public String[][] getTable() {
+    public byte[][] getTable() {
         return table;
     }
 
@@ -103,33 +357,23 @@ public class Grid {
     }
 
     /**
-     * Sets the length of the grid in the X-direction and reinitializes the grid.
+     * Sets the length of the grid in the X-direction and clears the grid.
      *
      * @param xLength The new length of the grid in the X-direction.
      * @throws IllegalArgumentException If the provided length is not within the specified limits.
      */
     public void setxLength(int xLength) {
-        if(xLength <= 1 || xLength >70)
-            throw new IllegalArgumentException(TYPICAL_EXCEPTION);
-
-        this.xLength = xLength;
-        this.table = new String[yLength][xLength];
-        initializeTable();
+        resize(xLength, yLength);
     }
     /**
-     * Sets the length of the grid in the Y-direction and reinitializes the grid.
+     * Sets the length of the grid in the Y-direction and clears the grid.
      *
      * @param yLength The new length of the grid in the Y-direction.
      * @throws IllegalArgumentException If the provided length is not within the specified limits.
      */
 
     public void setyLength(int yLength) {
-        if(yLength <= 1 || yLength >30)
-            throw new IllegalArgumentException(TYPICAL_EXCEPTION);
-
-        this.yLength = yLength;
-        this.table = new String[yLength][xLength];
-        initializeTable();
+        resize(xLength, yLength);
     }
 }
 
@@ -0,0 +1,116 @@
+package dal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a level of the snake game: a board size, the walls and obstacles on it and the points snakes start from.
+ * Positions are 1-based like the positions of the grid.
+ */
+public class Level {
+    // The length of the board in the X-direction
+    private final int xLength;
+    // The length of the board in the Y-direction
+    private final int yLength;
+    // Flag per cell id indicating the cell is a wall
+    private final boolean[] walls;
+    // Spawn points of the level as cell ids
+    private final List<Integer> spawnCells = new ArrayList<>();
+    // Initial direction of the snake at each spawn point
+    private final List<Direction> spawnDirections = new ArrayList<>();
+
+    /**
+     * Constructor for creating a new empty Level.
+     *
+     * @param xLength The length of the board in the X-direction.
+     * @param yLength The length of the board in the Y-direction.
+     * @throws IllegalArgumentException If the provided dimensions are not within the grid's limits.
+     */
+    public Level(int xLength, int yLength) {
+        if (xLength <= 1 || yLength <= 1 || xLength > Grid.MAX_X_LENGTH || yLength > Grid.MAX_Y_LENGTH) {
+            throw new IllegalArgumentException("Lengths must be reserved.");
+        }
+        this.xLength = xLength;
+        this.yLength = yLength;
+        this.walls = new boolean[xLength * yLength];
+    }
+
+    /**
+     * Places a wall or obstacle on a position.
+     *
+     * @param x The X-coordinate of the position.
+     * @param y The Y-coordinate of the position.
+     */
+    public void addWall(int x, int y) {
+        walls[(y - 1) * xLength + (x - 1)] = true;
+    }
+
+    /**
+     * Adds a point a snake can start from.
+     *
+     * @param x The X-coordinate of the spawn point.
+     * @param y The Y-coordinate of the spawn point.
+     * @param direction The initial direction of the snake.
+     */
+    public void addSpawn(int x, int y, Direction direction) {
+        spawnCells.add((y - 1) * xLength + (x - 1));
+        spawnDirections.add(direction);
+    }
+
+    /**
+     * Checks if a cell is a wall.
+     *
+     * @param cell The cell id.
+     * @return true if the cell is a wall, false otherwise.
+     */
+    public boolean isWall(int cell) {
+        return walls[cell];
+    }
+
+    /**
+     * Gets the number of spawn points.
+     *
+     * @return The number of spawn points.
+     */
+    public int getSpawnCount() {
+        return spawnCells.size();
+    }
+
+    /**
+     * Gets a spawn point.
+     *
+     * @param index The index of the spawn point.
+     * @return The cell id of the spawn point.
+     */
+    public int getSpawnCell(int index) {
+        return spawnCells.get(index);
+    }
+
+    /**
+     * Gets the initial direction of the snake at a spawn point.
+     *
+     * @param index The index of the spawn point.
+     * @return The initial direction.
+     */
+    public Direction getSpawnDirection(int index) {
+        return spawnDirections.get(index);
+    }
+
+    /**
+     * Gets the length of the board in the X-direction.
+     *
+     * @return The length of the board in the X-direction.
+     */
+    public int getXLength() {
+        return xLength;
+    }
+
+    /**
+     * Gets the length of the board in the Y-direction.
+     *
+     * @return The length of the board in the Y-direction.
+     */
+    public int getYLength() {
+        return yLength;
+    }
+}
@@ -0,0 +1,61 @@
+package dal;
+
+/**
+ * Represents one game record of an account together with the time it was set.
+ */
+public class Score {
+    // The number of cells the snake had when the game was won
+    private final int value;
+    // The time the record was set, in milliseconds since the epoch
+    private final long time;
+
+    /**
+     * Constructor for creating a new Score.
+     *
+     * @param value The number of cells the snake had.
+     * @param time The time the record was set, in milliseconds since the epoch.
+     */
+    public Score(int value, long time) {
+        this.value = value;
+        this.time = time;
+    }
+
+    /**
+     * Gets the value of the record.
+     *
+     * @return The number of cells the snake had.
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the time the record was set.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Checks if another object is a score with the same value set at the same time.
+     *
+     * @param other The object to compare.
+     * @return true if both scores are equal, false otherwise.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Score score && score.value == value && score.time == time;
+    }
+
+    /**
+     * Gets the hash code of the score.
+     *
+     * @return The hash code, consistent with equals.
+     */
+    @Override
+    public int hashCode() {
+        return 31 * value + Long.hashCode(time);
+    }
+}
@@ -0,0 +1,209 @@
+package ui;
+
+import dal.Grid;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.jline.terminal.Terminal;
+import org.jline.utils.Curses;
+import org.jline.utils.InfoCmp;
+
+/**
+ * Draws game frames to the terminal.
+ * Each frame, including the screen clear, is assembled into one byte buffer that lives for the whole session
+ * and is written to the terminal output stream with a single flush, so frames never interleave with other output.
+ * Glyphs come pre-encoded from a {@link GlyphAtlas} and lines are placed through a cached {@link ScreenLayout},
+ * so building a frame only copies bytes.
+ * <p>
+ * On terminals that can set the foreground colour, head, body, food and walls are drawn in colours of their own.
+ * Neighbouring cells of the same colour form a run and a colour sequence is only written where a run starts,
+ * so a frame costs a few bytes per snake segment or food item more than a monochrome one. Terminals without the
+ * capability, such as dumb terminals, get the monochrome frames.
+ */
+public class FrameRenderer {
+    // Colour of every texture code, as ANSI colour numbers, -1 for the terminal's default colour
+    private static final int[] COLORS = {-1, 2, 1, 3, 3, 3, 3, 4};
+
+    // Cached placement of the board on the screen
+    private final ScreenLayout layout;
+    // Pre-encoded glyphs and control sequences
+    private final GlyphAtlas atlas;
+    // Output stream of the terminal, used for every frame
+    private final OutputStream output;
+    // Buffer the frames are assembled in, grown only when a frame does not fit
+    private byte[] frame = new byte[8192];
+
+    // Number of frames drawn
+    private long frames;
+    // Number of flushes of the terminal output
+    private long flushes;
+    // Number of bytes written
+    private long bytesWritten;
+
+    /**
+     * Constructor for creating a new FrameRenderer.
+     *
+     * @param terminal The terminal the frames are drawn on.
+     */
+    public FrameRenderer(Terminal terminal) {
+        this.layout = new ScreenLayout(terminal);
+        this.output = terminal.output();
+        String clear = terminal.getStringCapability(InfoCmp.Capability.clear_screen);
+        StringBuilder sb = new StringBuilder();
+        if (clear != null) {
+            Curses.tputs(sb, clear);
+        }
+        this.atlas = new GlyphAtlas(sb.toString(), getColorSequences(terminal));
+    }
+
+    /**
+     * Builds the SGR sequence selecting the colour of every texture code on a terminal.
+     * Like JLine's own styled output, the sequences are written directly and the terminal only has to report
+     * at least eight colours; dumb terminals report none.
+     *
+     * @param terminal The terminal the frames are drawn on.
+     * @return The colour sequences indexed by texture code, or null if the terminal cannot show colours.
+     */
+    private static String[] getColorSequences(Terminal terminal) {
+        Integer colors = terminal.getNumericCapability(InfoCmp.Capability.max_colors);
+        if (colors == null || colors < 8) {
+            return null;
+        }
+        String[] sequences = new String[Grid.getTextureCount()];
+        for (int texture = 0; texture < sequences.length; texture++) {
+            sequences[texture] = COLORS[texture] < 0 ? "\033[39m" : "\033[3" + COLORS[texture] + "m";
+        }
+        return sequences;
+    }
+
+    /**
+     * Draws the grid centred on the screen with the snake length below it.
+     *
+     * @param grid The grid to draw.
+     * @param cellCounter The number of cells occupied by the snake.
+     * @throws IOException If an I/O error occurs while writing the frame.
+     */
+    public void render(Grid grid, int cellCounter) throws IOException {
+        render(grid.getTable(), grid.getXLength(), grid.getYLength(), cellCounter);
+    }
+
+    /**
+     * Draws a snapshot of a grid centred on the screen with the snake length below it.
+     *
+     * @param snapshot The snapshot to draw.
+     * @throws IOException If an I/O error occurs while writing the frame.
+     */
+    public void render(FrameSnapshot snapshot) throws IOException {
+        render(snapshot.getTable(), snapshot.getXLength(), snapshot.getYLength(), snapshot.getCellCounter());
+    }
+
+    /**
+     * Draws rows of texture codes centred on the screen with the snake length below them.
+     *
+     * @param table The texture codes, one row per line; rows may be longer than the board.
+     * @param xLength The length of the board in the X-direction.
+     * @param yLength The length of the board in the Y-direction.
+     * @param cellCounter The number of cells occupied by the snake.
+     * @throws IOException If an I/O error occurs while writing the frame.
+     */
+    private void render(byte[][] table, int xLength, int yLength, int cellCounter) throws IOException {
+        // the rows followed by the counter line
+        layout.update(xLength, yLength + 1);
+        boolean isPadded = !layout.isCursorAddressed();
+
+        int cellLength = atlas.getMaxTextureLength() + atlas.getMaxStyleLength();
+        ensureCapacity(atlas.getClearLength() + layout.getLinePrefix(0).length + atlas.getMaxStyleLength()
+            + (yLength + 1) * (layout.getLinePrefix(yLength).length + xLength * cellLength + 1) + 12);
+        int length = atlas.putClear(frame, 0);
+        byte defaultStyle = atlas.getDefaultStyle();
+        byte currentStyle = defaultStyle;
+        for (int y = 0; y < yLength; y++) {
+            length = putPrefix(y, length);
+            byte[] row = table[y];
+            for (int x = 0; x < xLength; x++) {
+                byte style = atlas.getStyle(row[x]);
+                if (style != currentStyle) {
+                    length = atlas.putStyle(style, frame, length);
+                    currentStyle = style;
+                }
+                length = atlas.putTexture(row[x], frame, length);
+            }
+            if (isPadded) {
+                length = atlas.putNewline(frame, length);
+            }
+        }
+        if (currentStyle != defaultStyle) {
+            length = atlas.putStyle(defaultStyle, frame, length);
+        }
+        length = putPrefix(yLength, length);
+        length = atlas.putNumber(cellCounter, frame, length);
+        if (isPadded) {
+            length = atlas.putNewline(frame, length);
+        }
+
+        output.write(frame, 0, length);
+        output.flush();
+        frames++;
+        flushes++;
+        bytesWritten += length;
+    }
+
+    /**
+     * Copies the prefix placing a line into the frame.
+     *
+     * @param line The index of the line.
+     * @param position The position to copy to.
+     * @return The position after the prefix.
+     */
+    private int putPrefix(int line, int position) {
+        byte[] prefix = layout.getLinePrefix(line);
+        System.arraycopy(prefix, 0, frame, position, prefix.length);
+        return position + prefix.length;
+    }
+
+    /**
+     * Grows the frame buffer if the next frame would not fit.
+     *
+     * @param capacity The number of bytes the frame needs.
+     */
+    private void ensureCapacity(int capacity) {
+        if (frame.length < capacity) {
+            frame = new byte[Math.max(capacity, frame.length * 2)];
+        }
+    }
+
+    /**
+     * Checks if the frames are drawn in colour.
+     *
+     * @return true if the terminal can set colours, false if the frames are monochrome.
+     */
+    public boolean isColored() {
+        return atlas.isColored();
+    }
+
+    /**
+     * Gets the number of frames drawn.
+     *
+     * @return The number of frames.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Gets the number of writes flushed to the terminal, each of which costs at least one system call.
+     *
+     * @return The number of flushes.
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Gets the average number of bytes written per frame.
+     *
+     * @return The average bytes per frame.
+     */
+    public long getBytesPerFrame() {
+        return frames == 0 ? 0 : bytesWritten / frames;
+    }
+}
@@ -0,0 +1,98 @@
+package ui;
+
+import dal.Grid;
+
+/**
+ * Holds a copy of the board taken after a game update, to be drawn later by another thread.
+ * Snapshots are recycled by {@link RenderLoop}: the rows are only reallocated when a larger board is copied.
+ */
+public class FrameSnapshot {
+    // Copied texture codes, one row per line; rows may be longer than the board
+    private byte[][] table = new byte[0][0];
+    // The length of the board in the X-direction
+    private int xLength;
+    // The length of the board in the Y-direction
+    private int yLength;
+    // Number of cells occupied by the snake
+    private int cellCounter;
+    // Number of the update this snapshot was taken after, counted from 1
+    private long sequence;
+    // Time the snapshot was published, in System.nanoTime() units
+    private long publishedAt;
+
+    /**
+     * Copies the visible part of the grid into this snapshot.
+     *
+     * @param grid The grid to copy.
+     * @param cellCounter The number of cells occupied by the snake.
+     * @param sequence The number of the update the snapshot is taken after.
+     */
+    void copyFrom(Grid grid, int cellCounter, long sequence) {
+        xLength = grid.getXLength();
+        yLength = grid.getYLength();
+        if (table.length < yLength || (yLength > 0 && table[0].length < xLength)) {
+            table = new byte[Math.max(yLength, table.length)][xLength];
+        }
+        byte[][] source = grid.getTable();
+        for (int y = 0; y < yLength; y++) {
+            System.arraycopy(source[y], 0, table[y], 0, xLength);
+        }
+        this.cellCounter = cellCounter;
+        this.sequence = sequence;
+        this.publishedAt = System.nanoTime();
+    }
+
+    /**
+     * Gets the copied texture codes.
+     *
+     * @return The rows of texture codes; only the first yLength rows and xLength columns belong to the board.
+     */
+    public byte[][] getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the length of the board in the X-direction.
+     *
+     * @return The length of the board in the X-direction.
+     */
+    public int getXLength() {
+        return xLength;
+    }
+
+    /**
+     * Gets the length of the board in the Y-direction.
+     *
+     * @return The length of the board in the Y-direction.
+     */
+    public int getYLength() {
+        return yLength;
+    }
+
+    /**
+     * Gets the number of cells occupied by the snake.
+     *
+     * @return The snake length.
+     */
+    public int getCellCounter() {
+        return cellCounter;
+    }
+
+    /**
+     * Gets the number of the update this snapshot was taken after.
+     *
+     * @return The sequence number, 0 if nothing was copied yet.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the time the snapshot was published.
+     *
+     * @return The publication time in System.nanoTime() units.
+     */
+    public long getPublishedAt() {
+        return publishedAt;
+    }
+}
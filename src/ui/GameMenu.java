@@ -1,19 +1,35 @@
 package ui;
 
 import bl.AccountService;
+import bl.Arena;
+import bl.Autopilot;
+import bl.EventLog;
+import bl.GameContext;
 import bl.GameLogic;
+import bl.GameSaveService;
+import bl.Leaderboard;
+import bl.LevelPack;
+import bl.NetplaySession;
+import bl.RewindBuffer;
+import bl.SavedGame;
+import bl.SpectatorService;
 import dal.Account;
-import dal.Cell;
 import dal.Direction;
 import dal.Grid;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.InputMismatchException;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
 import org.jline.terminal.Terminal;
 import org.jline.terminal.TerminalBuilder;
 import org.jline.utils.InfoCmp;
@@ -24,28 +40,58 @@ import org.jline.utils.NonBlockingReader;
  * This class interacts with the terminal for input/output operations and maintains the state of the game and current user.
  */
 public class GameMenu {
-    // Scanner for reading user input
-    private Scanner scanner = new Scanner(System.in);
+    // Scanner for reading user input from the terminal
+    private Scanner scanner;
+    // Stream the menus and messages are printed to, the terminal's output
+    private PrintStream out;
     // The grid of the game
     private Grid grid;
     // The logic handler of the game
     private GameLogic logic;
+    // Grid and logic reused by consecutive games
+    private GameContext context;
     // Reader for non-blocking input
     private NonBlockingReader reader;
     // Terminal interface for user interaction
     private Terminal terminal;
+    // Renderer drawing the game frames
+    private FrameRenderer frameRenderer;
+    // Render thread of the current or last game
+    private RenderLoop renderLoop;
     // The current direction of the snake
     private Direction currentDirection = Direction.RIGHT;
     // Flag indicating if the game is suspended
     private boolean isGameSuspended = false;
     // Service for managing accounts
-    private AccountService accService = AccountService.getInstance();
+    private AccountService accService;
     // The currently logged-in account
     private Account logedAccount;
     // The speed of the game
     private int gameSpeed;
     // Counter for the cells
     int cellCounter;
+    // Service for suspending and resuming games
+    private GameSaveService saveService;
+    // Interval between automatic checkpoints of the running game
+    private static final long CHECKPOINT_INTERVAL_MS = 5000;
+    // Number of seconds of play the R key rewinds, and the number of seconds kept for rewinding
+    private static final int REWIND_SECONDS = 10;
+    // Buffer recording the ticks of player games for rewinding, sized for the game speed
+    private RewindBuffer rewindBuffer;
+    // Flag indicating the player asked to rewind
+    private boolean isRewindRequested = false;
+    // Number of seconds food stays in place before it moves elsewhere, 0 if it never does
+    private int foodLifetimeSeconds;
+    // Largest number of ticks an online match simulates ahead of the other player
+    private static final int NETPLAY_ROLLBACK = 16;
+    // File of the level pack offered in the menu
+    private static final Path LEVEL_PACK_PATH = Path.of("Data", "levels.pack");
+    // The level pack, opened on first use
+    private LevelPack levelPack;
+    // Service streaming the running game to spectators, null if spectating is off
+    private SpectatorService spectators;
+    // Log the events of the games are written to
+    private final EventLog log = EventLog.getInstance();
 
     /**
      * Constructor for creating a new GameMenu.
@@ -55,16 +101,54 @@ public class GameMenu {
      * @throws IOException If an I/O error occurs while initializing the terminal or reader.
      */
     public GameMenu(GameLogic logic) throws IOException { //
-        terminal = TerminalBuilder.builder()
+        this(logic, TerminalBuilder.builder()
             .dumb(true)
             .encoding(StandardCharsets.UTF_8)
-            .build();
+            .build(), AccountService.getInstance(), new GameSaveService());
+    }
+
+    /**
+     * Constructor for creating a GameMenu on a given terminal with given services, such as a virtual terminal on
+     * in-memory streams and services working on a directory of their own, for driving the menu from a script.
+     * All input is read from the terminal and all output is written to it.
+     *
+     * @param logic The game logic to be used.
+     * @param terminal The terminal to read from and draw on.
+     * @param accService The service managing the accounts.
+     * @param saveService The service suspending and resuming games.
+     */
+    public GameMenu(GameLogic logic, Terminal terminal, AccountService accService, GameSaveService saveService) {
+        this.terminal = terminal;
+        this.accService = accService;
+        this.saveService = saveService;
+        scanner = new Scanner(terminal.input(), StandardCharsets.UTF_8);
+        out = new PrintStream(terminal.output(), true, StandardCharsets.UTF_8);
         reader = terminal.reader();
+        frameRenderer = new FrameRenderer(terminal);
         grid = logic.getGrid();
         this.logic = logic;
+        context = new GameContext(logic);
         cellCounter = 1;
     }
 
+    /**
+     * Sets the service streaming every game played from this menu to spectators.
+     *
+     * @param spectators The spectator service, or null to stop streaming.
+     */
+    public void setSpectatorService(SpectatorService spectators) {
+        this.spectators = spectators;
+    }
+
+    /**
+     * Sets how long food stays in place before it expires and new food is placed elsewhere.
+     *
+     * @param seconds The lifetime of food in seconds of play, 0 for food that never expires.
+     */
+    public void setFoodLifetime(int seconds) {
+        this.foodLifetimeSeconds = Math.max(0, seconds);
+    }
+
     /**
      * Displays the main menu and handles user navigation through the menu options.
      *
@@ -84,18 +168,15 @@ public class GameMenu {
      * Displays the main menu and handles user navigation through the menu options.
      */
     private void handleLoggedUser() {
-        for(Account account : accService.getAccounts()) {
-            if(account.isDefault) {
-               if(account.entersCount % 6 == 5) {
-                   account.entersCount = 0;
-                   return;
-               }
-               else {
-                   account.entersCount++;
-                   logedAccount = account;
-                   accService.arrayListToJsonFile();
-                   return;
-               }
+        Account account = accService.getDefaultAccount();
+        if(account != null) {
+            if(account.entersCount % 6 == 5) {
+                account.entersCount = 0;
+            }
+            else {
+                account.entersCount++;
+                logedAccount = account;
+                accService.arrayListToJsonFile();
             }
         }
     }
@@ -110,7 +191,7 @@ public class GameMenu {
         handleLoggedUser();
         while (logedAccount == null) {
             clearScreen();
-            System.out.print(getCenteredText("Provide your username:"));
+            out.print(getCenteredText("Provide your username:"));
             String usernameInput = scanner.nextLine();
 
             if (!Account.isUsernameValid(usernameInput)) {
@@ -134,7 +215,7 @@ public class GameMenu {
      */
     private void handleExistingUser(String username) throws IOException {
         clearScreen();
-        System.out.print(getCenteredText("Provide password for current account:"));
+        out.print(getCenteredText("Provide password for current account:"));
         String passwordInput = scanner.nextLine();
 
         if (!accService.isPassCorrectForCurrentUser(username, passwordInput)) {
@@ -154,7 +235,7 @@ public class GameMenu {
      */
     private void handleNewUser(String username) throws IOException {
         clearScreen();
-        System.out.println(getCenteredText("Provide password for new user:"));
+        out.println(getCenteredText("Provide password for new user:"));
         String passwordInput = scanner.nextLine();
 
         if (!Account.isPassValid(passwordInput)) {
@@ -167,7 +248,7 @@ public class GameMenu {
         accService.addAccount(logedAccount);
         accService.arrayListToJsonFile();
         clearScreen();
-        System.out.println(getCenteredText("Thanks for registering. Click any button."));
+        out.println(getCenteredText("Thanks for registering. Click any button."));
         terminal.input().read();
         clearScreen();
     }
@@ -178,7 +259,7 @@ public class GameMenu {
      * @throws IOException If an I/O error occurs while displaying the invalid username message, ensuring the message is properly presented to the user.
      */
     private void displayInvalidUsernameMessage() throws IOException {
-        System.out.println("Invalid username.");
+        out.println("Invalid username.");
         reader.read();
     }
     /**
@@ -188,7 +269,7 @@ public class GameMenu {
      */
     private void displayIncorrectPasswordMessage() throws IOException {
         clearScreen();
-        System.out.print(getCenteredText("Your password isn't correct. Provide the correct password for the current user:"));
+        out.print(getCenteredText("Your password isn't correct. Provide the correct password for the current user:"));
         terminal.input().read();
     }
 
@@ -199,7 +280,7 @@ public class GameMenu {
      */
     private void displayInvalidPasswordMessage() throws IOException {
         clearScreen();
-        System.out.println(getCenteredText("Password invalid. Please input another password:"));
+        out.println(getCenteredText("Password invalid. Please input another password:"));
         terminal.input().read();
     }
     /**
@@ -213,10 +294,15 @@ public class GameMenu {
             2. Your records
             3. World records
             4. Delete account
+            6. Watch autopilot
+            7. Watch bot arena%s%s
+            9. Play online match
             ESC. Exit
-            Enter. Logout""", logedAccount.getUserName());
+            Enter. Logout""", logedAccount.getUserName(),
+            saveService.hasSave(logedAccount) ? "\n5. Resume saved game" : "",
+            Files.exists(LEVEL_PACK_PATH) ? "\n8. Play level" : "");
 
-        System.out.print(getCenteredText(gameMenuText));
+        out.print(getCenteredText(gameMenuText));
 
     }
     /**
@@ -224,6 +310,7 @@ public class GameMenu {
      */
     private void clearScreen() {
         terminal.puts(InfoCmp.Capability.clear_screen);
+        terminal.flush();
     }
     /**
      * Handles the user's input within the main game menu, responding to menu selection and facilitating transitions
@@ -239,6 +326,11 @@ public class GameMenu {
             case '2' -> showCurrentAccRecords();
             case '3' -> showAllRecords();
             case '4' -> deleteAccount();
+            case '5' -> resumeGame();
+            case '6' -> startAutopilotGame();
+            case '7' -> startArena();
+            case '8' -> startLevelGame();
+            case '9' -> startNetplay();
             case '\r' ->  {
                 logedAccount.isDefault = false;
                 logedAccount.entersCount = 0;
@@ -256,26 +348,59 @@ public class GameMenu {
      */
     private void deleteAccount() throws Exception {
         clearScreen();
+        saveService.deleteSave(logedAccount);
         accService.deleteAccount(logedAccount);
         logedAccount = null;
-        System.out.println(getCenteredText("Account successfully deleted"));
+        out.println(getCenteredText("Account successfully deleted"));
         terminal.input().read();
         loginSystem();
     }
     /**
-     * Displays a list of all game records across all users, presenting a competitive leaderboard of high scores.
+     * Displays the leaderboard of all time and switches to the leaderboards of today, the last 7 days and the last
+     * 30 days on their keys; any other key returns to the menu.
      *
-     * @throws IOException If an I/O error occurs while gathering or displaying the records, ensuring accurate and efficient data presentation.
+     * @throws IOException If an I/O error occurs while gathering or displaying the records.
      */
     private void showAllRecords() throws IOException {
+        String title = "All time";
+        String records = getAllTimeRecords();
+        while (true) {
+            clearScreen();
+            out.println(getCenteredText(title + records
+                + "\n\nd. Today  w. Last 7 days  m. Last 30 days  a. All time"));
+            Leaderboard.Window window;
+            switch (terminal.input().read()) {
+                case 'd' -> window = Leaderboard.Window.DAY;
+                case 'w' -> window = Leaderboard.Window.WEEK;
+                case 'm' -> window = Leaderboard.Window.MONTH;
+                case 'a' -> {
+                    title = "All time";
+                    records = getAllTimeRecords();
+                    continue;
+                }
+                default -> {
+                    return;
+                }
+            }
+            title = window.getTitle();
+            records = getWindowRecords(accService.getLeaderboard(window));
+        }
+    }
+    /**
+     * Lists the best record of every user across all time, from the best down.
+     *
+     * @return The lines of the list, each starting with a line break.
+     * @throws IOException If an I/O error occurs while gathering the records.
+     */
+    private String getAllTimeRecords() throws IOException {
         //Map<Integer, String> userRecords = new TreeMap<>(Collections.reverseOrder());
         Map<String, Integer> userRecords = new TreeMap<>(Collections.reverseOrder());
 
-        for (Account account : accService.getAccounts()) {
+        accService.forEachAccount(account -> {
             for (int record : account.getRecords()) {
                 userRecords.put(account.getUserName(), record);
             }
-        }
+        });
 
         LinkedHashMap<String, Integer> sortedRecordsMap = new LinkedHashMap<>();
         userRecords.entrySet()
@@ -289,10 +414,20 @@ public class GameMenu {
             sb.append("\n" + i + ". " + sortedRecordsMap.get(username) + " — " + username);
             i++;
         }
-
-        clearScreen();
-        System.out.println(getCenteredText(sb.toString()));
-        terminal.input().read();
+        return sb.toString();
+    }
+    /**
+     * Lists the entries of a windowed leaderboard.
+     *
+     * @param entries The entries from the best record down.
+     * @return The lines of the list, each starting with a line break.
+     */
+    private String getWindowRecords(List<Leaderboard.Entry> entries) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < entries.size(); i++) {
+            sb.append("\n" + (i + 1) + ". " + entries.get(i).getScore() + " — " + entries.get(i).getUserName());
+        }
+        return sb.length() == 0 ? "\nNo records yet" : sb.toString();
     }
     /**
      * Displays the current user's game records, providing a personal view of their game history and achievements.
@@ -308,7 +443,7 @@ public class GameMenu {
             recordslist.append("\n" + record + ",");
         }
         recordslist.deleteCharAt(recordslist.length() - 1);
-        System.out.println(getCenteredText(recordslist.toString()));
+        out.println(getCenteredText(recordslist.toString()));
         terminal.input().read();
     }
     /**
@@ -318,17 +453,286 @@ public class GameMenu {
      */
     private void startGame() throws Exception {
         setPreference();
-        Grid gridBuffer = new Grid(grid.getXLength(), grid.getYLength());
-        Cell snakeHead = new Cell(gridBuffer);
-        GameLogic logicBuffer = new GameLogic(gridBuffer, snakeHead);
         logedAccount.runCount++;
+        playCurrentGame();
+    }
+
+    /**
+     * Initiates a game on a level of the level pack, asking the user for the level and the game speed.
+     *
+     * @throws Exception If an error occurs while loading the level or during the game.
+     */
+    private void startLevelGame() throws Exception {
+        if (!Files.exists(LEVEL_PACK_PATH)) {
+            return;
+        }
+        try {
+            if (levelPack == null) {
+                levelPack = new LevelPack(LEVEL_PACK_PATH);
+            }
+        } catch (IOException ex) {
+            showLevelPackError(ex);
+            return;
+        }
+        clearScreen();
+        out.println(getCenteredText(String.format("provide level (1-%d):", levelPack.getLevelCount())));
+        int level = readIntegerFromUser();
+        clearScreen();
+        out.println(getCenteredText("provide game speed (game updates per second):"));
+        int speed = readIntegerFromUser();
+        if (level < 1 || level > levelPack.getLevelCount() || speed < 1) {
+            clearScreen();
+            out.println(getCenteredText("oops. your input is wrong. Check provided values. Returning.."));
+            terminal.input().read();
+            return;
+        }
+
+        gameSpeed = speed;
+        try {
+            context.prepareLevel(levelPack, level - 1);
+        } catch (IOException ex) {
+            showLevelPackError(ex);
+            return;
+        }
+        grid = context.getGrid();
+        logic = context.getLogic();
+        currentDirection = logic.getCurrentDirection();
+        logedAccount.runCount++;
+        playCurrentGame();
+    }
+
+    /**
+     * Tells the user the level pack cannot be played and waits for a key.
+     *
+     * @param ex The error reading the pack.
+     * @throws IOException If an I/O error occurs while waiting for the key.
+     */
+    private void showLevelPackError(IOException ex) throws IOException {
+        clearScreen();
+        out.println(getCenteredText(ex.getMessage() + ". Returning.."));
+        terminal.input().read();
+    }
+
+    /**
+     * Initiates a game steered by the autopilot, letting the user watch it play on the chosen board.
+     * Autopilot games are not counted as runs and do not set records.
+     *
+     * @throws Exception If an error occurs during the game initialization or execution.
+     */
+    private void startAutopilotGame() throws Exception {
+        setPreference();
+        logic.setDirectionProvider(context.getAutopilot());
+        playCurrentGame();
+    }
+
+    /**
+     * Runs an arena of bot-controlled snakes sharing one board until at most one of them is left or the user presses ESC.
+     *
+     * @throws Exception If an error occurs while setting up or running the arena.
+     */
+    private void startArena() throws Exception {
+        setPreference();
+        clearScreen();
+        out.println(getCenteredText("provide number of snakes:"));
+        int snakes = readIntegerFromUser();
+        if (snakes < 1) {
+            return;
+        }
+
+        Grid arenaGrid = new Grid(grid.getXLength(), grid.getYLength());
+        Arena arena = new Arena(arenaGrid, snakes, Math.max(1, snakes / 2), System.nanoTime());
+        for (int i = 0; i < snakes; i++) {
+            arena.addSnake(Direction.values()[i % Direction.values().length]);
+        }
+        // frames are drawn on their own thread, as in every other mode
+        renderLoop = new RenderLoop(frameRenderer);
+        renderLoop.start();
+        try {
+            while (arena.getAliveCount() > 1 && !isGameSuspended) {
+                renderLoop.publish(arenaGrid, arena.getAliveCount());
+                if (spectators != null) {
+                    spectators.publish(arenaGrid, arena.getTickCount());
+                }
+                Thread.sleep((long) ((float)1/gameSpeed * 1000)); //1000ms in 1 second
+                setDirectionByKey();
+                arena.steerBots();
+                arena.tick();
+            }
+        } finally {
+            renderLoop.stop();
+        }
+        isGameSuspended = false;
+        currentDirection = Direction.RIGHT;
+
+        clearScreen();
+        out.println(getCenteredText(String.format("%d snakes left after %d ticks. Press any key",
+            arena.getAliveCount(), arena.getTickCount())));
+        terminal.input().read();
+    }
+
+    /**
+     * Plays a head-to-head match against a player in another game process, hosting it or joining one.
+     * The host chooses the board, the speed and the input delay. Online matches do not set records.
+     *
+     * @throws Exception If an error occurs while setting up or playing the match.
+     */
+    private void startNetplay() throws Exception {
+        clearScreen();
+        out.println(getCenteredText("provide port to host a match, or host:port to join one:"));
+        String address = scanner.nextLine().trim();
+        int separator = address.lastIndexOf(':');
+        NetplaySession session;
+        try {
+            if (separator < 0) {
+                int port = Integer.parseInt(address);
+                setPreference();
+                out.println(getCenteredText("provide input delay (ticks):"));
+                int delay = readIntegerFromUser();
+                if (delay < 0 || delay > NetplaySession.MAX_INPUT_DELAY) {
+                    throw new InputMismatchException();
+                }
+                clearScreen();
+                out.println(getCenteredText(String.format("waiting for the other player on port %d.. ESC. Cancel",
+                    port)));
+                session = NetplaySession.host(port, System.nanoTime(), grid.getXLength(), grid.getYLength(), delay,
+                    NETPLAY_ROLLBACK, gameSpeed, 0, 0, this::isEscapePressed);
+            } else {
+                session = NetplaySession.join(address.substring(0, separator),
+                    Integer.parseInt(address.substring(separator + 1)), 0);
+            }
+        } catch (IOException | RuntimeException ex) {
+            clearScreen();
+            out.println(getCenteredText("oops. could not start the match: " + ex.getMessage()));
+            terminal.input().read();
+            return;
+        }
+
+        String result;
+        try (session) {
+            netplayLoop(session);
+            if (session.getDesyncTick() >= 0) {
+                result = String.format("OUT OF SYNC at tick %d, the result does not count", session.getDesyncTick());
+            } else if (isGameSuspended) {
+                result = "match abandoned";
+            } else {
+                result = session.isWon() ? "YOU WON" : session.isLost() ? "YOU LOST" : "DRAW";
+            }
+        } catch (IOException ex) {
+            // the other player left or the connection broke; this player goes back to the menu
+            result = "connection lost: " + ex.getMessage();
+        }
+        isGameSuspended = false;
+        currentDirection = Direction.RIGHT;
+
+        clearScreen();
+        out.println(getCenteredText(String.format("""
+            %s after %d ticks
+            %d rollbacks, average %d us, longest %d us, %d stalls
+            Press any key""", result,
+            session.getArena().getTickCount(), session.getRollbacks(), session.getAverageRollbackNanos() / 1000,
+            session.getMaxRollbackNanos() / 1000, session.getStalls())));
+        terminal.input().read();
+    }
+
+    /**
+     * Checks without waiting if the user pressed ESC, dropping any other key pressed meanwhile.
+     *
+     * @return true if ESC was pressed, false otherwise.
+     */
+    private boolean isEscapePressed() {
+        try {
+            while (reader.ready() || terminal.input().available() > 0) {
+                if (reader.read() == 27) {
+                    return true;
+                }
+            }
+        } catch (IOException ex) {
+            // a terminal that cannot be read cannot cancel either
+        }
+        return false;
+    }
+
+    /**
+     * Runs an online match at the agreed speed until its result is final, the peers' simulations diverge or the
+     * user presses ESC.
+     *
+     * @param session The connected session.
+     * @throws IOException If the connection fails or the other player left.
+     * @throws Exception If a frame cannot be drawn.
+     */
+    private void netplayLoop(NetplaySession session) throws Exception {
+        Arena arena = session.getArena();
+        currentDirection = arena.getDirection(session.getLocalSnake());
+        long tickNanos = 1_000_000_000L / session.getTicksPerSecond();
+        long nextTick = System.nanoTime();
+        renderLoop = new RenderLoop(frameRenderer);
+        renderLoop.start();
+        try {
+            while (!session.isFinished() && !isGameSuspended && session.getDesyncTick() < 0) {
+                renderLoop.publish(session.getGrid(), arena.getLength(session.getLocalSnake()));
+                if (spectators != null) {
+                    spectators.publish(session.getGrid(), arena.getTickCount());
+                }
+                nextTick = waitForTick(nextTick + tickNanos, tickNanos);
+                setDirectionByKey();
+                session.advance(currentDirection);
+            }
+        } finally {
+            renderLoop.stop();
+        }
+    }
+
+    /**
+     * Restores the game saved in the current account's slot and continues it from the saved state.
+     *
+     * @throws Exception If an error occurs while loading or playing the saved game.
+     */
+    private void resumeGame() throws Exception {
+        SavedGame savedGame;
+        try {
+            savedGame = saveService.load(logedAccount);
+        } catch (IOException ex) {
+            saveService.deleteSave(logedAccount);
+            savedGame = null;
+        }
+        if (savedGame == null) {
+            clearScreen();
+            out.println(getCenteredText("No saved game found. Press any key"));
+            terminal.input().read();
+            return;
+        }
+
+        logic = savedGame.getLogic();
+        grid = logic.getGrid();
+        gameSpeed = savedGame.getSpeed();
+        currentDirection = logic.getCurrentDirection();
+        playCurrentGame();
+    }
+
+    /**
+     * Plays the prepared game until it ends or is suspended.
+     * A finished player game clears the account's save slot, a suspended one stays in it.
+     * Autopilot games never touch the save slot.
+     *
+     * @throws Exception If an error occurs during the game loop.
+     */
+    private void playCurrentGame() throws Exception {
+        boolean isPlayerGame = logic.getDirectionProvider() == null;
 
         gameLoop();
-        printGameOverMessage();
+        if (isGameSuspended) {
+            isGameSuspended = false;
+            clearScreen();
+            out.println(getCenteredText(isPlayerGame ? "Game saved. Exiting to menu...." : "Exiting to menu...."));
+            terminal.input().read();
+        } else {
+            if (isPlayerGame) {
+                saveService.deleteSave(logedAccount);
+            }
+            printGameOverMessage();
+        }
 
         cellCounter = 1;
-        this.logic = logicBuffer;
-        this.grid = gridBuffer;
         currentDirection = Direction.RIGHT;
     }
 
@@ -340,31 +744,31 @@ public class GameMenu {
     private void setPreference() throws Exception {
         clearScreen();
         try {
-            System.out.print(getCenteredText("provide width length for grid:"));
+            out.print(getCenteredText("provide width length for grid:"));
             int width = readIntegerFromUser();
             if (width == -1)
                 throw new InputMismatchException();
 
             clearScreen();
-            System.out.println(getCenteredText("provide height for grid:"));
+            out.println(getCenteredText("provide height for grid:"));
             int height = readIntegerFromUser();
             if (height == -1)
                 throw new InputMismatchException();
 
             clearScreen();
-            System.out.println(getCenteredText("provide game speed (game updates per second):"));
+            out.println(getCenteredText("provide game speed (game updates per second):"));
             int speed = readIntegerFromUser();
             if (speed == -1)
                 throw new InputMismatchException();
 
             gameSpeed = speed;
-            grid.setxLength(width);
-            grid.setyLength(height);
-            logic.setGrid(grid);
+            context.prepare(width, height);
+            grid = context.getGrid();
+            logic = context.getLogic();
             clearScreen();
         } catch (Exception ex) {
             clearScreen();
-            System.out.println(getCenteredText("oops. your input is wrong. Check provided values. Returning.."));
+            out.println(getCenteredText("oops. your input is wrong. Check provided values. Returning.."));
             terminal.input().read();
             displayMenu();
         }
@@ -390,22 +794,85 @@ public class GameMenu {
      * @throws Exception If an error occurs during the game loop, ensuring smooth and uninterrupted game play.
      */
     private void gameLoop() throws Exception {
-        while (!logic.isGameLose() && !logic.isGameWon() && !isGameSuspended) {
-            cellCounter = logic.getSnakeCells().length;
-            printCurrentGameStage();
-            Thread.sleep((long) ((float)1/gameSpeed * 1000)); //1000ms in 1 second
-            setDirectionByKey();
-            logic.updateGameTable(currentDirection);
-        }
-        if(isGameSuspended) {
-            isGameSuspended = false;
-            clearScreen();
-            System.out.println(getCenteredText("Exiting to menu...."));
-            terminal.input().read();
-            displayMenu();
+        boolean isPlayerGame = logic.getDirectionProvider() == null;
+        long lastCheckpoint = System.currentTimeMillis();
+        long tickNanos = 1_000_000_000L / Math.max(1, gameSpeed);
+        long nextTick = System.nanoTime();
+        if (isPlayerGame) {
+            int capacity = Math.max(1, gameSpeed) * REWIND_SECONDS;
+            if (rewindBuffer == null || rewindBuffer.getCapacity() != capacity) {
+                rewindBuffer = new RewindBuffer(capacity);
+            }
+        }
+        logic.setRewindBuffer(isPlayerGame ? rewindBuffer : null);
+        logic.setFoodLifetime(foodLifetimeSeconds * Math.max(1, gameSpeed));
+        // an autopilot game that can no longer be won ends right away instead of playing out its last moves
+        logic.setTrapDetection(!isPlayerGame);
+        isRewindRequested = false;
+        // frames are drawn on their own thread, so a slow terminal never delays a tick
+        renderLoop = new RenderLoop(frameRenderer);
+        renderLoop.start();
+        log.log(Level.INFO, "game started on a {0}x{1} board", grid.getXLength(), grid.getYLength());
+        try {
+            while (!logic.isGameLose() && !logic.isGameWon() && !logic.isTrapped() && !isGameSuspended) {
+                cellCounter = logic.getSnakeLength();
+                renderLoop.publish(grid, cellCounter);
+                if (spectators != null) {
+                    spectators.publish(grid, logic.getTickCount());
+                }
+                nextTick = waitForTick(nextTick + tickNanos, tickNanos);
+                setDirectionByKey();
+                if (isGameSuspended) {
+                    break;
+                }
+                if (isRewindRequested) {
+                    isRewindRequested = false;
+                    int rewound = logic.rewind(Math.max(1, gameSpeed) * REWIND_SECONDS);
+                    log.log(Level.FINE, "rewound {0} ticks to tick {1}", rewound, logic.getTickCount());
+                    currentDirection = logic.getCurrentDirection();
+                } else if (isPlayerGame) {
+                    logic.updateGameTable(currentDirection);
+                } else {
+                    logic.updateGameTable();
+                }
+
+                if (isPlayerGame && System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+                    long saveStart = System.nanoTime();
+                    saveService.save(logedAccount, logic, gameSpeed);
+                    log.log(Level.FINE, "checkpoint saved at tick {0} in {1} us", logic.getTickCount(),
+                        (System.nanoTime() - saveStart) / 1000);
+                    lastCheckpoint = System.currentTimeMillis();
+                }
+            }
+        } finally {
+            renderLoop.stop();
+        }
+        log.log(Level.INFO, "game ended after {0} ticks with {1} cells", logic.getTickCount(), logic.getSnakeLength());
+        if(isGameSuspended && isPlayerGame) {
+            saveService.save(logedAccount, logic, gameSpeed);
         }
 
     }
+    /**
+     * Waits until the next tick is due. Ticks follow a fixed schedule, so the time spent on an update does not
+     * slow the game down; if the game fell more than a tick behind, the schedule restarts from now instead of
+     * catching up with a burst of updates.
+     *
+     * @param deadline The time the next tick is due, in System.nanoTime() units.
+     * @param tickNanos The length of a tick in nanoseconds.
+     * @return The time the tick actually became due, to schedule the following tick from.
+     */
+    private long waitForTick(long deadline, long tickNanos) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+        if (-remaining > tickNanos) {
+            log.log(Level.FINE, "tick started {0} us late, schedule restarted", -remaining / 1000);
+            return System.nanoTime();
+        }
+        return deadline;
+    }
     /**
      * Displays a game over message indicating the outcome of the game (win or lose), providing closure and feedback on the player's performance.
      *
@@ -414,34 +881,28 @@ public class GameMenu {
      */
     private void printGameOverMessage() throws InterruptedException, IOException {
         clearScreen();
-        if (logic.isGameWon()) {
-            logedAccount.addRecord(cellCounter);
-            System.out.println(getCenteredText("YOU ARE WINNER. Victory. Press any key"));
+        if (logic.getDirectionProvider() instanceof Autopilot autopilot) {
+            out.println(getCenteredText(String.format("""
+                Autopilot %s with %d cells
+                %d decisions, average %d us, longest %d us, %d over budget
+                %d frames, %d bytes and %d flushes per frame
+                %d frames dropped, render lag average %d us, longest %d us
+                Press any key""", logic.isGameWon() ? "won" : logic.isTrapped() ? "was trapped" : "lost",
+                logic.getSnakeLength(),
+                autopilot.getDecisions(), autopilot.getAverageDecisionNanos() / 1000,
+                autopilot.getMaxDecisionNanos() / 1000, autopilot.getBudgetOverruns(),
+                frameRenderer.getFrames(), frameRenderer.getBytesPerFrame(),
+                frameRenderer.getFlushes() / Math.max(1, frameRenderer.getFrames()),
+                renderLoop.getDropped(), renderLoop.getAverageLagNanos() / 1000, renderLoop.getMaxLagNanos() / 1000)));
+        } else if (logic.isGameWon()) {
+            accService.addRecord(logedAccount, cellCounter);
+            out.println(getCenteredText("YOU ARE WINNER. Victory. Press any key"));
         } else if (logic.isGameLose()) {
-            System.out.println(getCenteredText("YOU ARE LOOSER. Game is over. Press any key"));
+            out.println(getCenteredText("YOU ARE LOOSER. Game is over. Press any key"));
         }
         Thread.sleep(1500);
         terminal.input().read();
     }
-    /**
-     * Prints the current stage of the game, displaying the game grid and any relevant game information to the player, ensuring a real-time view of the game progress.
-     */
-    private void printCurrentGameStage()
-    {
-        clearScreen();
-        StringBuilder txt = new StringBuilder();
-        for (int y = 0; y < grid.getYLength(); y++)
-        {
-            txt.append("\n");
-            for (int x = 0; x < grid.getXLength(); x++)
-            {
-                txt.append(grid.getTable()[y][x]);
-            }
-        }
-        txt.append("\n" + cellCounter);
-
-        System.out.println(getCenteredText(txt.toString()));
-    }
     /**
      * Formats and centers a given text string within the terminal window, ensuring an aesthetically pleasing and readable display of textual information.
      *
@@ -485,7 +946,8 @@ public class GameMenu {
      * @throws IOException If an I/O error occurs while reading the user input, guaranteeing smooth and responsive gameplay.
      */
     private void setDirectionByKey() throws IOException {
-        if (reader.ready()) {
+        // a reader on a terminal that is not the system's only reports what it has decoded already as ready
+        if (reader.ready() || terminal.input().available() > 0) {
             int code = reader.read();
             if (code != -1) {
                 char inputChar = (char) code;
@@ -502,6 +964,9 @@ public class GameMenu {
                     case 'd':
                         currentDirection = Direction.RIGHT;
                         break;
+                    case 'r':
+                        isRewindRequested = true;
+                        break;
                     case 27:
                         isGameSuspended = true;
                 }
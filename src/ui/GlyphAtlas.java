@@ -0,0 +1,235 @@
+package ui;
+
+import dal.Grid;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Holds every sequence a game frame is made of, encoded to UTF-8 once.
+ * The glyph of every texture code, the digits, the newline and the screen clear sequence are packed into
+ * one direct buffer, so building a frame only copies bytes and never encodes text.
+ * <p>
+ * An atlas may also hold a colour sequence for every texture code. Texture codes drawn in the same colour share a
+ * style, so a frame builder can emit a colour sequence only where the style changes between neighbouring cells.
+ * A monochrome atlas gives every texture code the same style and empty sequences.
+ */
+public class GlyphAtlas {
+    // Index of the first digit entry, the texture codes come first
+    private static final int DIGITS = Grid.getTextureCount();
+    // Index of the newline entry
+    private static final int NEWLINE = DIGITS + 10;
+    // Index of the screen clear entry
+    private static final int CLEAR = NEWLINE + 1;
+    // Index of the first colour sequence entry, one per texture code
+    private static final int STYLES = CLEAR + 1;
+
+    // Encoded bytes of every entry
+    private final ByteBuffer atlas;
+    // Offset of each entry within the atlas
+    private final int[] offsets = new int[STYLES + DIGITS];
+    // Length of each entry in bytes
+    private final int[] lengths = new int[STYLES + DIGITS];
+    // Style of every texture code: the lowest texture code drawn with the same colour sequence
+    private final byte[] styles = new byte[DIGITS];
+    // true if the texture codes are drawn in colour
+    private final boolean isColored;
+
+    /**
+     * Constructor for creating a new monochrome GlyphAtlas.
+     *
+     * @param clearSequence The escape sequence clearing the screen, empty if the terminal has none.
+     */
+    public GlyphAtlas(String clearSequence) {
+        this(clearSequence, null);
+    }
+
+    /**
+     * Constructor for creating a new GlyphAtlas.
+     *
+     * @param clearSequence The escape sequence clearing the screen, empty if the terminal has none.
+     * @param colorSequences The escape sequence selecting the colour of every texture code, or null for monochrome.
+     */
+    public GlyphAtlas(String clearSequence, String[] colorSequences) {
+        isColored = colorSequences != null;
+        byte[][] entries = new byte[STYLES + DIGITS][];
+        for (byte texture = 0; texture < DIGITS; texture++) {
+            entries[texture] = Grid.getGlyph(texture).getBytes(StandardCharsets.UTF_8);
+        }
+        for (int digit = 0; digit < 10; digit++) {
+            entries[DIGITS + digit] = new byte[] {(byte) ('0' + digit)};
+        }
+        entries[NEWLINE] = new byte[] {'\n'};
+        entries[CLEAR] = clearSequence.getBytes(StandardCharsets.UTF_8);
+        for (byte texture = 0; texture < DIGITS; texture++) {
+            String sequence = isColored ? colorSequences[texture] : "";
+            entries[STYLES + texture] = sequence.getBytes(StandardCharsets.UTF_8);
+            styles[texture] = texture;
+            for (byte other = 0; other < texture; other++) {
+                if (colorSequences == null || colorSequences[other].equals(sequence)) {
+                    styles[texture] = other;
+                    break;
+                }
+            }
+        }
+
+        int size = 0;
+        for (byte[] entry : entries) {
+            size += entry.length;
+        }
+        atlas = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < entries.length; i++) {
+            offsets[i] = atlas.position();
+            lengths[i] = entries[i].length;
+            atlas.put(entries[i]);
+        }
+    }
+
+    /**
+     * Copies the glyph of a texture code into the output buffer.
+     *
+     * @param texture The texture code.
+     * @param out The output buffer.
+     * @param position The position to copy to.
+     * @return The position after the copied bytes.
+     */
+    public int putTexture(byte texture, byte[] out, int position) {
+        return put(texture, out, position);
+    }
+
+    /**
+     * Gets the style of a texture code. Texture codes with the same style are drawn with the same colour sequence.
+     *
+     * @param texture The texture code.
+     * @return The style of the texture code.
+     */
+    public byte getStyle(byte texture) {
+        return styles[texture];
+    }
+
+    /**
+     * Gets the style of empty cells, which is the style the terminal is in before and after a frame.
+     *
+     * @return The default style.
+     */
+    public byte getDefaultStyle() {
+        return styles[Grid.EMPTY];
+    }
+
+    /**
+     * Copies the colour sequence of a style into the output buffer.
+     *
+     * @param style The style, as returned by {@link #getStyle(byte)}.
+     * @param out The output buffer.
+     * @param position The position to copy to.
+     * @return The position after the copied bytes.
+     */
+    public int putStyle(byte style, byte[] out, int position) {
+        return put(STYLES + style, out, position);
+    }
+
+    /**
+     * Checks if the texture codes are drawn in colour.
+     *
+     * @return true if the atlas holds colour sequences, false if it is monochrome.
+     */
+    public boolean isColored() {
+        return isColored;
+    }
+
+    /**
+     * Copies the decimal digits of a non-negative number into the output buffer.
+     *
+     * @param number The number to copy.
+     * @param out The output buffer.
+     * @param position The position to copy to.
+     * @return The position after the copied bytes.
+     */
+    public int putNumber(int number, byte[] out, int position) {
+        int digits = 1;
+        for (int rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            put(DIGITS + number % 10, out, i);
+            number /= 10;
+        }
+        return position + digits;
+    }
+
+    /**
+     * Copies a newline into the output buffer.
+     *
+     * @param out The output buffer.
+     * @param position The position to copy to.
+     * @return The position after the copied bytes.
+     */
+    public int putNewline(byte[] out, int position) {
+        return put(NEWLINE, out, position);
+    }
+
+    /**
+     * Copies the screen clear sequence into the output buffer.
+     *
+     * @param out The output buffer.
+     * @param position The position to copy to.
+     * @return The position after the copied bytes.
+     */
+    public int putClear(byte[] out, int position) {
+        return put(CLEAR, out, position);
+    }
+
+    /**
+     * Gets the longest glyph of a texture code in bytes.
+     *
+     * @return The maximum number of bytes per cell.
+     */
+    public int getMaxTextureLength() {
+        int max = 0;
+        for (int texture = 0; texture < DIGITS; texture++) {
+            max = Math.max(max, lengths[texture]);
+        }
+        return max;
+    }
+
+    /**
+     * Gets the longest colour sequence in bytes.
+     *
+     * @return The maximum number of bytes per style change.
+     */
+    public int getMaxStyleLength() {
+        int max = 0;
+        for (int texture = 0; texture < DIGITS; texture++) {
+            max = Math.max(max, lengths[STYLES + texture]);
+        }
+        return max;
+    }
+
+    /**
+     * Gets the length of the screen clear sequence in bytes.
+     *
+     * @return The length of the clear sequence.
+     */
+    public int getClearLength() {
+        return lengths[CLEAR];
+    }
+
+    /**
+     * Copies an entry of the atlas into the output buffer.
+     *
+     * @param entry The index of the entry.
+     * @param out The output buffer.
+     * @param position The position to copy to.
+     * @return The position after the copied bytes.
+     */
+    private int put(int entry, byte[] out, int position) {
+        int length = lengths[entry];
+        if (length == 0) {
+            return position;
+        } else if (length == 1) {
+            out[position] = atlas.get(offsets[entry]);
+        } else {
+            atlas.get(offsets[entry], out, position, length);
+        }
+        return position + length;
+    }
+}
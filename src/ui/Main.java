@@ -1,31 +1,168 @@
 package ui;
 
 import bl.AccountService;
+import bl.EventLog;
 import bl.GameLogic;
+import bl.SpectatorService;
+import bl.StatsExporter;
+import bl.StatsReader;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import dal.Account;
 import dal.Cell;
 import dal.Grid;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
 import java.util.logging.Level;
 
 
 public class Main {
+    // File the log is written to unless --log-file names another one
+    private static final String DEFAULT_LOG_FILE = "snake.log";
 
     public static void main(String[] args) throws Exception {
-        java.util.logging.Logger.getLogger("org.jline").setLevel(Level.FINEST);
+        String logLevel = getOption(args, "--log-level");
+        Level level;
+        try {
+            level = Level.parse(logLevel == null ? "INFO" : logLevel);
+        } catch (IllegalArgumentException ex) {
+            printUsage("unknown log level: " + logLevel);
+            return;
+        }
+        String spectatorPort = getOption(args, "--spectator-port");
+        int port = 0;
+        if (spectatorPort != null) {
+            try {
+                port = Integer.parseInt(spectatorPort);
+            } catch (NumberFormatException ex) {
+                port = -1;
+            }
+            if (port < 1 || port > 0xFFFF) {
+                printUsage("invalid spectator port: " + spectatorPort);
+                return;
+            }
+        }
+        String foodLifetime = getOption(args, "--food-lifetime");
+        int foodSeconds = 0;
+        if (foodLifetime != null) {
+            try {
+                foodSeconds = Integer.parseInt(foodLifetime);
+            } catch (NumberFormatException ex) {
+                foodSeconds = -1;
+            }
+            if (foodSeconds < 0) {
+                printUsage("invalid food lifetime: " + foodLifetime);
+                return;
+            }
+        }
+        String logFile = getOption(args, "--log-file");
+        EventLog log = new EventLog(Path.of(logFile == null ? DEFAULT_LOG_FILE : logFile), level,
+            EventLog.DEFAULT_CAPACITY);
+        // JLine logs through java.util.logging; its records are formatted on the log's thread, not the game's
+        log.capture("org.jline");
+        EventLog.install(log);
+
+        String exportPath = getOption(args, "--export-stats");
+        if (exportPath != null) {
+            exportStatistics(Path.of(exportPath));
+            return;
+        }
+        String percentilePath = getOption(args, "--score-percentiles");
+        if (percentilePath != null) {
+            printScorePercentiles(Path.of(percentilePath));
+            return;
+        }
 
         Grid grid = new Grid(2, 2);
         Cell snakeHead = new Cell(grid);
         GameLogic logic = new GameLogic(grid, snakeHead);
 
         GameMenu gameMenu = new GameMenu(logic);
+        if (spectatorPort != null) {
+            // games are only shown on this host unless --spectator-address opens them to others
+            String spectatorAddress = getOption(args, "--spectator-address");
+            SpectatorService spectators = new SpectatorService(spectatorAddress == null
+                ? InetAddress.getLoopbackAddress() : InetAddress.getByName(spectatorAddress),
+                port);
+            // the menu leaves through System.exit, so the port is released by a shutdown hook
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    spectators.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }, "spectators-shutdown"));
+            gameMenu.setSpectatorService(spectators);
+        }
+        if (foodLifetime != null) {
+            gameMenu.setFoodLifetime(foodSeconds);
+        }
         gameMenu.displayMenu();
     }
+
+    /**
+     * Streams every account and its records into a columnar statistics file.
+     *
+     * @param path The path of the statistics file.
+     * @throws IOException If the accounts cannot be read or the file cannot be written.
+     */
+    private static void exportStatistics(Path path) throws IOException {
+        try (StatsExporter exporter = new StatsExporter(path)) {
+            AccountService.getInstance().forEachAccount(exporter::add);
+            System.out.println("Exported " + exporter.getRowCount() + " accounts to " + path);
+        }
+    }
+
+    /**
+     * Prints score percentiles of a statistics file.
+     *
+     * @param path The path of the statistics file.
+     * @throws IOException If the file cannot be read.
+     */
+    private static void printScorePercentiles(Path path) throws IOException {
+        StatsReader reader = new StatsReader(path);
+        System.out.printf("accounts=%d scores=%d p50=%d p90=%d p99=%d max=%d%n", reader.getAccountCount(),
+            reader.getScoreCount(), reader.getScorePercentile(50), reader.getScorePercentile(90),
+            reader.getScorePercentile(99), reader.getScorePercentile(100));
+    }
+
+    /**
+     * Prints what was wrong with the command line and the options it takes.
+     *
+     * @param error The problem with the command line.
+     */
+    private static void printUsage(String error) {
+        System.err.println(error);
+        System.err.println("""
+            usage: snake [options]
+              --log-level <level>           lowest level logged: OFF, SEVERE, WARNING, INFO, CONFIG, FINE, FINER,
+                                            FINEST or ALL (default INFO)
+              --log-file <path>             file the log is written to (default snake.log)
+              --export-stats <path>         write the statistics of every account to a file and exit
+              --score-percentiles <path>    print the score percentiles of a statistics file and exit
+              --spectator-port <port>       stream games to spectators on a port, 1 to 65535
+              --spectator-address <address> address spectators connect to (default loopback)
+              --food-lifetime <seconds>     seconds food lasts before it moves (default 0, never)""");
+    }
+
+    /**
+     * Reads the value of a command line option given as the option name followed by the value.
+     *
+     * @param args The command line arguments.
+     * @param name The name of the option.
+     * @return The value, or null if the option is not given.
+     */
+    private static String getOption(String[] args, String name) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package ui;
+
+import dal.Grid;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Draws game frames on a thread of its own, so a slow terminal never delays the simulation.
+ * The simulation publishes a snapshot of the board after every update through a lock-free triple buffer:
+ * it fills its back snapshot and swaps it with the shared middle one, and the render thread swaps its front
+ * snapshot with the middle one whenever it is ready for the next frame. Only the latest snapshot is ever drawn;
+ * snapshots published while the terminal was still busy are counted as dropped frames.
+ */
+public class RenderLoop {
+    // Renderer writing the frames to the terminal
+    private final FrameRenderer renderer;
+    // Snapshot most recently published and not yet taken by the render thread
+    private final AtomicReference<FrameSnapshot> middle = new AtomicReference<>(new FrameSnapshot());
+    // Snapshot the simulation fills next, owned by the simulation thread
+    private FrameSnapshot back = new FrameSnapshot();
+    // Snapshot being drawn, owned by the render thread
+    private FrameSnapshot front = new FrameSnapshot();
+    // Number of snapshots published
+    private long published;
+    // Thread drawing the frames, null until started
+    private Thread thread;
+    // Flag telling the render thread to draw the last snapshot and stop
+    private volatile boolean isStopping;
+    // Error the render thread stopped with, rethrown by stop()
+    private volatile IOException failure;
+
+    // Sequence number of the last snapshot drawn, written by the render thread
+    private long lastDrawn;
+    // Number of frames drawn
+    private long drawn;
+    // Number of published snapshots that were never drawn
+    private long dropped;
+    // Sum of the delays between publishing and finishing drawing a snapshot
+    private long totalLagNanos;
+    // Longest delay between publishing and finishing drawing a snapshot
+    private long maxLagNanos;
+
+    /**
+     * Constructor for creating a new RenderLoop.
+     *
+     * @param renderer The renderer writing the frames to the terminal.
+     */
+    public RenderLoop(FrameRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Starts the render thread.
+     */
+    public void start() {
+        thread = new Thread(this::run, "render");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Publishes the current state of the board to the render thread without waiting for it.
+     * Must only be called from the simulation thread.
+     *
+     * @param grid The grid to draw.
+     * @param cellCounter The number of cells occupied by the snake.
+     */
+    public void publish(Grid grid, int cellCounter) {
+        back.copyFrom(grid, cellCounter, ++published);
+        back = middle.getAndSet(back);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Draws the last published snapshot if it was not drawn yet and stops the render thread.
+     * The statistics are final once this returns.
+     *
+     * @throws IOException If the render thread failed to write a frame.
+     * @throws InterruptedException If the thread is interrupted while waiting for the render thread.
+     */
+    public void stop() throws IOException, InterruptedException {
+        isStopping = true;
+        LockSupport.unpark(thread);
+        thread.join();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs the render thread, drawing the latest snapshot whenever a new one is published.
+     */
+    private void run() {
+        try {
+            while (true) {
+                // read the flag first, so a snapshot published before stop() is still drawn
+                boolean isLastRound = isStopping;
+                if (!drawLatest()) {
+                    if (isLastRound) {
+                        return;
+                    }
+                    LockSupport.park(this);
+                }
+            }
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+    /**
+     * Takes the latest snapshot and draws it if it is newer than the last one drawn.
+     *
+     * @return true if a frame was drawn, false if there was nothing new.
+     * @throws IOException If an I/O error occurs while writing the frame.
+     */
+    private boolean drawLatest() throws IOException {
+        front = middle.getAndSet(front);
+        long sequence = front.getSequence();
+        if (sequence <= lastDrawn) {
+            return false;
+        }
+        renderer.render(front);
+        long lag = System.nanoTime() - front.getPublishedAt();
+        dropped += sequence - lastDrawn - 1;
+        lastDrawn = sequence;
+        drawn++;
+        totalLagNanos += lag;
+        maxLagNanos = Math.max(maxLagNanos, lag);
+        return true;
+    }
+
+    /**
+     * Gets the number of frames drawn.
+     *
+     * @return The number of frames drawn.
+     */
+    public long getDrawn() {
+        return drawn;
+    }
+
+    /**
+     * Gets the number of published snapshots that were skipped because the terminal could not keep up.
+     *
+     * @return The number of dropped frames.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Gets the average delay between publishing a snapshot and finishing drawing it.
+     *
+     * @return The average render lag in nanoseconds.
+     */
+    public long getAverageLagNanos() {
+        return drawn == 0 ? 0 : totalLagNanos / drawn;
+    }
+
+    /**
+     * Gets the longest delay between publishing a snapshot and finishing drawing it.
+     *
+     * @return The longest render lag in nanoseconds.
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+}
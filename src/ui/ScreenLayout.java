@@ -0,0 +1,94 @@
+package ui;
+
+import java.nio.charset.StandardCharsets;
+import org.jline.terminal.Terminal;
+import org.jline.utils.Curses;
+import org.jline.utils.InfoCmp;
+
+/**
+ * Caches where content of a given size is placed to appear centred on the terminal.
+ * For every line of the content it keeps a ready-made prefix: an absolute cursor position when the terminal
+ * supports cursor addressing, or padding otherwise. The prefixes are only recomputed when the content size
+ * changes or the terminal reports a resize through the WINCH signal.
+ */
+public class ScreenLayout {
+    // Terminal the content is placed on
+    private final Terminal terminal;
+    // Cursor addressing capability of the terminal, null if it has none
+    private final String cursorAddress;
+    // Flag indicating the terminal was resized since the prefixes were computed
+    private volatile boolean isStale = true;
+    // Width of the content the prefixes were computed for
+    private int contentWidth = -1;
+    // Number of lines of the content the prefixes were computed for
+    private int contentHeight = -1;
+    // Encoded prefix written before each line of the content
+    private byte[][] linePrefixes = new byte[0][];
+
+    /**
+     * Constructor for creating a new ScreenLayout and subscribing it to terminal resizes.
+     *
+     * @param terminal The terminal the content is placed on.
+     */
+    public ScreenLayout(Terminal terminal) {
+        this.terminal = terminal;
+        this.cursorAddress = terminal.getStringCapability(InfoCmp.Capability.cursor_address);
+        Terminal.SignalHandler previous = terminal.handle(Terminal.Signal.WINCH, signal -> isStale = true);
+        if (previous != null && previous != Terminal.SignalHandler.SIG_DFL && previous != Terminal.SignalHandler.SIG_IGN) {
+            terminal.handle(Terminal.Signal.WINCH, signal -> {
+                isStale = true;
+                previous.handle(signal);
+            });
+        }
+    }
+
+    /**
+     * Makes sure the prefixes fit content of the given size, recomputing them only if the size or the terminal changed.
+     *
+     * @param width The width of the widest line of the content.
+     * @param height The number of lines of the content.
+     */
+    public void update(int width, int height) {
+        if (!isStale && width == contentWidth && height == contentHeight) {
+            return;
+        }
+        isStale = false;
+        contentWidth = width;
+        contentHeight = height;
+
+        int startX = Math.max(0, (terminal.getWidth() - width) / 2);
+        int startY = Math.max(0, (terminal.getHeight() - height) / 2);
+        linePrefixes = new byte[height][];
+        StringBuilder sb = new StringBuilder();
+        for (int line = 0; line < height; line++) {
+            sb.setLength(0);
+            if (isCursorAddressed()) {
+                Curses.tputs(sb, cursorAddress, startY + line, startX);
+            } else {
+                sb.append("\n".repeat(line == 0 ? startY : 0));
+                sb.append(" ".repeat(startX));
+            }
+            linePrefixes[line] = sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Checks if lines are placed by absolute cursor position rather than by padding.
+     * Padded lines have to be terminated with a newline by the caller.
+     *
+     * @return true if the terminal supports cursor addressing, false otherwise.
+     */
+    public boolean isCursorAddressed() {
+        return cursorAddress != null;
+    }
+
+    /**
+     * Gets the prefix placing a line of the content.
+     *
+     * @param line The index of the line within the content.
+     * @return The bytes to write before the line.
+     */
+    public byte[] getLinePrefix(int line) {
+        return linePrefixes[line];
+    }
+}